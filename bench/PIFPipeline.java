@@ -0,0 +1,195 @@
+import benchmarks.Pipeline;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Encode and decode pipeline in memory and on disk, measured by the benchmarks package, see Pipeline
+ */
+public class PIFPipeline implements Pipeline {
+    private static final Map<String, int[]> SIZES = Map.of(
+            "64", new int[]{64, 64},
+            "1080p", new int[]{1920, 1080},
+            "4k", new int[]{3840, 2160},
+            "8k", new int[]{7680, 4320});
+    private static final Map<String, Integer> TYPES = Map.of(
+            "3byte_bgr", BufferedImage.TYPE_3BYTE_BGR,
+            "4byte_abgr", BufferedImage.TYPE_4BYTE_ABGR,
+            "int_rgb", BufferedImage.TYPE_INT_RGB,
+            "int_argb", BufferedImage.TYPE_INT_ARGB,
+            "int_bgr", BufferedImage.TYPE_INT_BGR);
+    private static final Map<String, Byte> IMAGE_TYPES = Map.of(
+            "none", PIF.UNCOMPRESSED,
+            "rle", PIF.RUN_LENGTH,
+            "tiled", PIF.TILED);
+
+    private int width;
+    private int height;
+    private BufferedImage image;
+    private PIF pif;
+    private byte[] encoded;
+    private String pifPath;
+    private String pngPath;
+    private boolean pngWritten;
+    private ByteBuffer reuse;
+    private byte[] row;
+    private PIFCodec codec;
+    private ByteBuffer destination;
+    private BufferedImage target;
+
+    @Override
+    public void setUp(String size, String type, String compression, Path directory) throws Exception {
+        width = SIZES.get(size)[0];
+        height = SIZES.get(size)[1];
+        image = image(width, height, TYPES.get(type));
+        pif = PIFFormater.toPIF(image, "AB", "benchmark");
+        encoded = PIFFormater.outputPIF(pif);
+        pifPath = directory.resolve("bench.pif").toString();
+        pngPath = directory.resolve("bench.png").toString();
+        FileIO.writeBytes(pifPath, encoded);
+        row = new byte[width * 3];
+        byte imageType = IMAGE_TYPES.get(compression);
+        codec = new PIFCodec("AB", "benchmark", imageType);
+        destination = ByteBuffer.allocate((int) PIFCodec.maxLength(width, height, imageType));
+        codec.encodeInto(image, destination);
+        destination.flip();
+        target = PIFFormater.wrapBGR(new byte[(int) bytes()], width, height);
+    }
+
+    @Override
+    public long bytes() {
+        return (long) width * height * 3;
+    }
+
+    @Override
+    public Object toPIF() {
+        return PIFFormater.toPIF(image, "AB", "benchmark");
+    }
+
+    @Override
+    public Object encodeStreamDisk() throws Exception {
+        PIF pif = PIFFormater.newPIF(width, height, "AB", "benchmark");
+        try (FileIO.AtomicOutput file = FileIO.createAtomic(pifPath, FileIO.Sync.NONE)) {
+            try (PIFWriter writer = new PIFWriter(file.channel(), pif)) {
+                PIFFormater.toPIF(image, writer);
+            }
+            file.commit();
+        }
+        return pif;
+    }
+
+    @Override
+    public Object outputPIF() {
+        return PIFFormater.outputPIF(pif);
+    }
+
+    @Override
+    public Object inputPIF() throws Exception {
+        return PIFFormater.inputPIF(encoded);
+    }
+
+    @Override
+    public Object toRegularImageShared() {
+        return PIFFormater.toRegularImage(pif);
+    }
+
+    @Override
+    public Object toRegularImageCopy() {
+        return PIFFormater.toRegularImage(pif, false);
+    }
+
+    @Override
+    public Object writeBytesDisk() throws Exception {
+        FileIO.writeBytes(pifPath, encoded);
+        return encoded;
+    }
+
+    @Override
+    public Object writeBytesGatherDisk() throws Exception {
+        FileIO.writeBytes(pifPath, FileIO.Sync.NONE, false, PIFFormater.outputPIFBuffers(pif));
+        return pif;
+    }
+
+    @Override
+    public Object writeBytesGatherDirectDisk() throws Exception {
+        FileIO.writeBytes(pifPath, FileIO.Sync.NONE, true, PIFFormater.outputPIFBuffers(pif));
+        return pif;
+    }
+
+    @Override
+    public Object readBytesDisk() throws Exception {
+        return FileIO.readBytes(pifPath);
+    }
+
+    @Override
+    public Object readBytesReuseDisk() throws Exception {
+        reuse = FileIO.readBytes(pifPath, reuse);
+        return reuse;
+    }
+
+    @Override
+    public Object decodeStreamDisk() throws Exception {
+        try (PIFReader reader = new PIFReader(FileIO.openRead(pifPath))) {
+            return PIFFormater.toRegularImage(reader);
+        }
+    }
+
+    @Override
+    public Object decodeMappedDisk() throws Exception {
+        MappedPIF mapped = new MappedPIF(pifPath);
+        for (int y = 0; y < height; y++) {
+            mapped.readRow(y, row);
+        }
+        return row;
+    }
+
+    @Override
+    public Object metadataDisk() throws Exception {
+        return PIFMetadata.read(pifPath);
+    }
+
+    @Override
+    public Object readImagePngDisk() throws Exception {
+        if (!pngWritten) {
+            ImageFiles.writeImage(pngPath, PIFFormater.toRegularImage(pif));
+            pngWritten = true;
+        }
+        return ImageFiles.readImage(pngPath);
+    }
+
+    @Override
+    public Object codecEncodeInto() throws Exception {
+        codec.encodeInto(image, destination.clear());
+        return destination;
+    }
+
+    @Override
+    public Object codecDecodeInto() throws Exception {
+        codec.decodeInto(destination.rewind(), target);
+        return target;
+    }
+
+    @Override
+    public Object codecDecodePooled() throws Exception {
+        BufferedImage decoded = codec.decode(destination.rewind());
+        codec.release(decoded);
+        return decoded;
+    }
+
+    private static BufferedImage image(int width, int height, int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Random random = new Random(width * 31L + height);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                row[x] = x / 32 % 2 == 0 ? 0xFF336699 : random.nextInt();
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return image;
+    }
+}
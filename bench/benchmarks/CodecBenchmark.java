@@ -0,0 +1,65 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversions again and again with one PIFCodec, which reuses its buffers and a pool of decoded images,
+ * so with -prof gc gc.alloc.rate.norm shows they allocate nothing once warm
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-Djava.awt.headless=true"})
+public class CodecBenchmark {
+    @Param({"64", "1080p", "4k", "8k"})
+    public String size;
+    @Param({"none", "rle", "tiled"})
+    public String compression;
+
+    private Pipeline pipeline;
+    private Path directory;
+
+    @Setup
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("pif-bench");
+        pipeline = Pipeline.create();
+        pipeline.setUp(size, "3byte_bgr", compression, directory);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Benchmarks.delete(directory);
+    }
+
+    @Benchmark
+    public Object encodeInto(Throughput throughput) throws Exception {
+        return throughput.add(pipeline.bytes(), pipeline.codecEncodeInto());
+    }
+
+    @Benchmark
+    public Object decodeInto(Throughput throughput) throws Exception {
+        return throughput.add(pipeline.bytes(), pipeline.codecDecodeInto());
+    }
+
+    @Benchmark
+    public Object decodePooled(Throughput throughput) throws Exception {
+        return throughput.add(pipeline.bytes(), pipeline.codecDecodePooled());
+    }
+}
@@ -0,0 +1,67 @@
+package benchmarks;
+
+import java.nio.file.Path;
+
+/**
+ * Operations of the encode and decode pipeline, implemented by PIFPipeline in the default package with the codec.
+ * JMH generates no code for benchmarks in the default package, and a named package can't use its classes,
+ * so the benchmarks reach the codec through this interface, the JIT inlines its single implementation.
+ */
+public interface Pipeline {
+    /**
+     * @return the implementation, with the codec classes
+     */
+    static Pipeline create() throws ReflectiveOperationException {
+        return (Pipeline) Class.forName("PIFPipeline").getDeclaredConstructor().newInstance();
+    }
+
+    /**
+     * Prepares the images, .pif bytes and files of one size
+     * @param size 64, 1080p, 4k or 8k
+     * @param type type of the source BufferedImage, 3byte_bgr, 4byte_abgr, int_rgb, int_argb or int_bgr
+     * @param compression image type of PIFCodec, none, rle or tiled
+     * @param directory directory of the files read and written on disk
+     */
+    void setUp(String size, String type, String compression, Path directory) throws Exception;
+
+    /**
+     * @return bytes of 24-bit pixels processed by one operation, for MB/s
+     */
+    long bytes();
+
+    Object toPIF() throws Exception;
+
+    Object encodeStreamDisk() throws Exception;
+
+    Object outputPIF() throws Exception;
+
+    Object inputPIF() throws Exception;
+
+    Object toRegularImageShared() throws Exception;
+
+    Object toRegularImageCopy() throws Exception;
+
+    Object writeBytesDisk() throws Exception;
+
+    Object writeBytesGatherDisk() throws Exception;
+
+    Object writeBytesGatherDirectDisk() throws Exception;
+
+    Object readBytesDisk() throws Exception;
+
+    Object readBytesReuseDisk() throws Exception;
+
+    Object decodeStreamDisk() throws Exception;
+
+    Object decodeMappedDisk() throws Exception;
+
+    Object metadataDisk() throws Exception;
+
+    Object readImagePngDisk() throws Exception;
+
+    Object codecEncodeInto() throws Exception;
+
+    Object codecDecodeInto() throws Exception;
+
+    Object codecDecodePooled() throws Exception;
+}
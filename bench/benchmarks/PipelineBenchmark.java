@@ -0,0 +1,117 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization, parsing, decoding and file input and output of .pif in memory and on disk
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-Djava.awt.headless=true"})
+public class PipelineBenchmark {
+    /**
+     * Bytes read by metadata, the header and trailer
+     */
+    private static final long HEADER_AND_TRAILER = 13 + 33;
+
+    @Param({"64", "1080p", "4k", "8k"})
+    public String size;
+
+    private Pipeline pipeline;
+    private Path directory;
+
+    @Setup
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("pif-bench");
+        pipeline = Pipeline.create();
+        pipeline.setUp(size, "3byte_bgr", "none", directory);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Benchmarks.delete(directory);
+    }
+
+    @Benchmark
+    public Object outputPIF(Throughput throughput) throws Exception {
+        return throughput.add(pipeline.bytes(), pipeline.outputPIF());
+    }
+
+    @Benchmark
+    public Object inputPIF(Throughput throughput) throws Exception {
+        return throughput.add(pipeline.bytes(), pipeline.inputPIF());
+    }
+
+    @Benchmark
+    public Object toRegularImageShared(Throughput throughput) throws Exception {
+        return throughput.add(pipeline.bytes(), pipeline.toRegularImageShared());
+    }
+
+    @Benchmark
+    public Object toRegularImageCopy(Throughput throughput) throws Exception {
+        return throughput.add(pipeline.bytes(), pipeline.toRegularImageCopy());
+    }
+
+    @Benchmark
+    public Object writeBytesDisk(Throughput throughput) throws Exception {
+        return throughput.add(pipeline.bytes(), pipeline.writeBytesDisk());
+    }
+
+    @Benchmark
+    public Object writeBytesGatherDisk(Throughput throughput) throws Exception {
+        return throughput.add(pipeline.bytes(), pipeline.writeBytesGatherDisk());
+    }
+
+    @Benchmark
+    public Object writeBytesGatherDirectDisk(Throughput throughput) throws Exception {
+        return throughput.add(pipeline.bytes(), pipeline.writeBytesGatherDirectDisk());
+    }
+
+    @Benchmark
+    public Object readBytesDisk(Throughput throughput) throws Exception {
+        return throughput.add(pipeline.bytes(), pipeline.readBytesDisk());
+    }
+
+    @Benchmark
+    public Object readBytesReuseDisk(Throughput throughput) throws Exception {
+        return throughput.add(pipeline.bytes(), pipeline.readBytesReuseDisk());
+    }
+
+    @Benchmark
+    public Object decodeStreamDisk(Throughput throughput) throws Exception {
+        return throughput.add(pipeline.bytes(), pipeline.decodeStreamDisk());
+    }
+
+    @Benchmark
+    public Object decodeMappedDisk(Throughput throughput) throws Exception {
+        return throughput.add(pipeline.bytes(), pipeline.decodeMappedDisk());
+    }
+
+    @Benchmark
+    public Object metadataDisk(Throughput throughput) throws Exception {
+        return throughput.add(HEADER_AND_TRAILER, pipeline.metadataDisk());
+    }
+
+    @Benchmark
+    public Object readImagePngDisk(Throughput throughput) throws Exception {
+        return throughput.add(pipeline.bytes(), pipeline.readImagePngDisk());
+    }
+}
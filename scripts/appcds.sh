@@ -0,0 +1,39 @@
+#!/bin/sh
+# Builds out/papulastic-image-format.jar and out/pif.jsa next to it, a class data sharing archive of the classes
+# loaded by a training run of every command, so the JVM maps them instead of loading and verifying them on each start.
+# The archive records the absolute path of the jar, so the jar must be run by that path, from any directory:
+#   java -XX:SharedArchiveFile=/path/to/out/pif.jsa -jar /path/to/out/papulastic-image-format.jar metadata -i image.pif
+# Add -Xshare:on to fail instead of silently running without the archive when it doesn't match.
+# Rebuild the archive whenever the jar or the JDK changes, the JVM silently ignores a stale one.
+set -e
+cd "$(dirname "$0")/.."
+OUT="$PWD/out"
+JAR="$OUT/papulastic-image-format.jar"
+ARCHIVE="$OUT/pif.jsa"
+TRAINING=$(mktemp -d)
+trap 'rm -rf "$TRAINING"' EXIT
+
+# string concatenation compiled inline, so printing needs no invokedynamic bootstrap at startup
+rm -rf "$OUT"
+javac -XDstringConcat=inline -d "$OUT/classes" src/*.java
+jar --create --file "$JAR" --main-class Main -C "$OUT/classes" .
+
+# 64x64 binary PPM as the training input, so the first run needs no other image
+{ printf 'P6\n64 64\n255\n'; head -c 12288 /dev/zero | tr '\0' '\200'; } > "$TRAINING/image.ppm"
+
+run() {
+    PIF_PORT=0 java -XX:DumpLoadedClassList="$TRAINING/$1.classlist" -jar "$JAR" "$@" > /dev/null
+}
+run encode -i "$TRAINING/image.ppm" -o "$TRAINING/raw.pif" --compression rle
+run decode -i "$TRAINING/raw.pif" -o "$TRAINING/image.png"
+run encode -i "$TRAINING/image.png" -o "$TRAINING/image.pif" --compression tiled --pyramid
+run decode -i "$TRAINING/image.pif" -o "$TRAINING/image.bmp"
+run decode -i "$TRAINING/image.pif" -o "$TRAINING/region.png" --region 0,0,32,32 --subsample 2
+run metadata -i "$TRAINING/image.pif"
+run hexdump -i "$TRAINING/image.pif" --header-trailer
+
+# classes of all runs, each once, in the order they were first loaded
+awk '!seen[$0]++' "$TRAINING"/*.classlist > "$TRAINING/all.classlist"
+java -Xshare:dump -XX:SharedClassListFile="$TRAINING/all.classlist" -XX:SharedArchiveFile="$ARCHIVE" -cp "$JAR" > /dev/null
+echo "Built $JAR and $ARCHIVE, run it as"
+echo "java -XX:SharedArchiveFile=$ARCHIVE -jar $JAR ARGUMENTS"
@@ -0,0 +1,484 @@
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Handles conversion of many files in one run, reading and writing on an I/O pool and converting on a CPU pool
+ */
+public class Batch {
+    private static final int CPU_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int IO_THREADS = CPU_THREADS * 4;
+    private static final int MAX_IN_FLIGHT = IO_THREADS * 4;
+
+    /**
+     * Part of a file conversion which may fail
+     */
+    interface Stage<T, R> {
+        R apply(T value) throws Exception;
+    }
+
+    /**
+     * File found by expanding the batch input
+     * @param input path of the file
+     * @param relative path under which its output is written in the output directory
+     */
+    record Job(Path input, Path relative) {
+    }
+
+    /**
+     * Conversion of one file, split to stages run on the right pool
+     * @param <R> what is read from the input file
+     * @param <C> what is converted from it and written to the output file
+     */
+    interface Task<R, C> {
+        /**
+         * @return estimated bytes held in memory while the file is converted
+         */
+        long memory(Job job) throws IOException;
+
+        /**
+         * Runs on the I/O pool
+         */
+        R read(Job job) throws Exception;
+
+        /**
+         * Runs on the CPU pool
+         */
+        C convert(Job job, R read) throws Exception;
+
+        /**
+         * Runs on the I/O pool
+         */
+        void write(Job job, C converted) throws Exception;
+
+        /**
+         * @return true if the task writes an output file for every job, so two jobs mustn't share its name
+         */
+        default boolean writesFiles() {
+            return true;
+        }
+    }
+
+    /**
+     * @param input input path given by the user
+     * @return true if the input is a directory, a glob or a @list file
+     */
+    public static boolean isBatch(String input) {
+        return input.startsWith("@") || isGlob(input) || Files.isDirectory(Path.of(input));
+    }
+
+    /**
+     * Encodes all regular image files of the input to .pif files in the output directory, 24-bit BMP and binary PPM
+     * are transcoded directly, see RawImages
+     * @param input directory, glob or @list file
+     * @param output directory of the .pif files
+     * @param authorInitials mandatory 3 bytes in .pif structure
+     * @param signature mandatory 16 bytes in .pif structure
+     * @param imageType how the pixels are stored, PIF.UNCOMPRESSED, PIF.RUN_LENGTH or PIF.TILED
+     * @param pyramid if true, the thumbnail pyramid is stored after the pixels
+     */
+    public static void encode(String input, String output, String authorInitials, String signature, byte imageType,
+                              boolean pyramid, boolean checksums) {
+        run(input, false, new Task<byte[], PIF>() {
+            @Override
+            public long memory(Job job) throws IOException {
+                int[] raw = RawImages.readSize(job.input().toString());
+                if (raw != null) {
+                    return RawImages.memory(raw[0], raw[1], pyramid);
+                }
+                Dimension size = ImageFiles.readImageSize(job.input().toString());
+                long pixels = size == null ? Files.size(job.input()) : (long) size.width * size.height;
+                return Files.size(job.input()) + pixels * 7;
+            }
+
+            /**
+             * @return bytes of the file, or null for BMP and PPM, which convert streams from the file
+             */
+            @Override
+            public byte[] read(Job job) throws IOException {
+                if (RawImages.canRead(job.input().toString())) {
+                    return null;
+                }
+                try (Stats.Timer timer = Stats.start(Stats.Stage.READ)) {
+                    byte[] bytes = Files.readAllBytes(job.input());
+                    timer.bytes(bytes.length);
+                    return bytes;
+                }
+            }
+
+            /**
+             * @return .pif to write, or null if BMP or PPM was transcoded to the output file already
+             */
+            @Override
+            public PIF convert(Job job, byte[] read) throws IOException {
+                if (read == null) {
+                    RawImages.encode(job.input().toString(), target(output, job, "pif"), authorInitials, signature, imageType,
+                            pyramid, checksums);
+                    return null;
+                }
+                BufferedImage image;
+                try (Stats.Timer timer = Stats.start(Stats.Stage.IMAGE_DECODE)) {
+                    image = ImageFiles.decodeImage(read);
+                    timer.bytes(read.length);
+                }
+                if (image == null) {
+                    throw new IOException("Not a readable image");
+                }
+                try (Stats.Timer timer = Stats.start(Stats.Stage.CONVERT)) {
+                    PIF pif = PIFFormater.toPIF(image, authorInitials, signature, imageType);
+                    if (pyramid) {
+                        PIFFormater.addPyramid(pif);
+                    }
+                    timer.bytes((long) image.getWidth() * image.getHeight() * 3);
+                    return pif;
+                }
+            }
+
+            @Override
+            public void write(Job job, PIF converted) throws IOException {
+                if (converted == null) {
+                    return;
+                }
+                ByteBuffer[] buffers;
+                try (Stats.Timer timer = Stats.start(Stats.Stage.SERIALIZE)) {
+                    buffers = PIFFormater.outputPIFBuffers(converted, checksums);
+                    timer.bytes(remaining(buffers));
+                }
+                try (Stats.Timer timer = Stats.start(Stats.Stage.WRITE)) {
+                    timer.bytes(remaining(buffers));
+                    FileIO.writeBytes(target(output, job, "pif"), FileIO.Sync.NONE, false, buffers);
+                }
+            }
+        });
+    }
+
+    /**
+     * Decodes all .pif files of the input to regular image files in the output directory, BMP and PPM are transcoded
+     * directly, see RawImages
+     * @param input directory, glob or @list file
+     * @param output directory of the regular image files
+     * @param fileType extension and format of the regular image files
+     */
+    public static void decode(String input, String output, String fileType) {
+        boolean raw = RawImages.canWrite("." + fileType);
+        run(input, true, new Task<byte[], byte[]>() {
+            @Override
+            public long memory(Job job) throws IOException {
+                PIF pif = new PIF();
+                try (FileChannel channel = FileIO.openRead(job.input().toString())) {
+                    ByteBuffer header = ByteBuffer.allocate(PIF.HEADER_LENGTH);
+                    FileIO.readFully(channel, header, 0);
+                    PIFLayout.readHeader(header.flip(), pif);
+                }
+                if (raw) {
+                    return RawImages.memory(pif.getHeader().getWidth(), pif.getHeader().getHeight(), false);
+                }
+                // compressed files decode to many times their size, so the pixels are counted from the dimensions
+                long pixels = (long) pif.getHeader().getWidth() * pif.getHeader().getHeight();
+                return Files.size(job.input()) + pixels * 7;
+            }
+
+            /**
+             * @return bytes of the file, or null for BMP and PPM outputs, which convert streams from the file
+             */
+            @Override
+            public byte[] read(Job job) throws IOException {
+                if (raw) {
+                    return null;
+                }
+                try (Stats.Timer timer = Stats.start(Stats.Stage.READ)) {
+                    byte[] bytes = FileIO.readBytes(job.input().toString());
+                    timer.bytes(bytes.length);
+                    return bytes;
+                }
+            }
+
+            /**
+             * @return bytes of the regular image to write, or null if it was transcoded to the output file already
+             */
+            @Override
+            public byte[] convert(Job job, byte[] read) throws IOException {
+                if (read == null) {
+                    RawImages.decode(job.input().toString(), target(output, job, fileType));
+                    return null;
+                }
+                BufferedImage image;
+                try (Stats.Timer timer = Stats.start(Stats.Stage.CONVERT)) {
+                    image = PIFFormater.toRegularImage(PIFFormater.inputPIF(read));
+                    timer.bytes((long) image.getWidth() * image.getHeight() * 3);
+                }
+                try (Stats.Timer timer = Stats.start(Stats.Stage.IMAGE_ENCODE)) {
+                    byte[] bytes = ImageFiles.encodeImage(image, fileType);
+                    timer.bytes(bytes.length);
+                    return bytes;
+                }
+            }
+
+            @Override
+            public void write(Job job, byte[] converted) throws IOException {
+                if (converted == null) {
+                    return;
+                }
+                try (Stats.Timer timer = Stats.start(Stats.Stage.WRITE)) {
+                    timer.bytes(converted.length);
+                    FileIO.writeBytes(target(output, job, fileType), converted);
+                }
+            }
+        });
+    }
+
+    /**
+     * Checks all .pif files of the input against their checksum blocks, see Checksums
+     * @param input directory, glob or @list file
+     */
+    public static void verify(String input) {
+        run(input, true, new Task<Boolean, String>() {
+            @Override
+            public long memory(Job job) {
+                return Checksums.CHUNK_SIZE;
+            }
+
+            @Override
+            public Boolean read(Job job) throws IOException {
+                try (Stats.Timer timer = Stats.start(Stats.Stage.READ)) {
+                    timer.bytes(Files.size(job.input()));
+                    return Checksums.verify(job.input().toString());
+                }
+            }
+
+            @Override
+            public String convert(Job job, Boolean read) {
+                return job.input() + (read ? " OK" : " no checksums");
+            }
+
+            @Override
+            public void write(Job job, String converted) {
+                System.out.println(converted);
+            }
+
+            @Override
+            public boolean writesFiles() {
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Prints metadata of all .pif files of the input
+     * @param input directory, glob or @list file
+     */
+    public static void metadata(String input) {
+        run(input, true, new Task<PIFMetadata, String>() {
+            @Override
+            public long memory(Job job) {
+                return PIF.HEADER_LENGTH + PIF.TRAILER_LENGTH;
+            }
+
+            @Override
+            public PIFMetadata read(Job job) throws IOException {
+                try (Stats.Timer timer = Stats.start(Stats.Stage.READ)) {
+                    timer.bytes(PIF.HEADER_LENGTH + PIF.TRAILER_LENGTH);
+                    return PIFMetadata.read(job.input().toString());
+                }
+            }
+
+            @Override
+            public String convert(Job job, PIFMetadata read) {
+                return job.input() + "\n" + read;
+            }
+
+            @Override
+            public void write(Job job, String converted) {
+                System.out.println(converted);
+            }
+
+            @Override
+            public boolean writesFiles() {
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Runs the task for every file of the input, at most MAX_IN_FLIGHT files and half of the heap at once,
+     * reports failed files and prints a summary at the end
+     */
+    private static <R, C> void run(String input, boolean pif, Task<R, C> task) {
+        List<Job> jobs;
+        try {
+            jobs = expand(input, pif);
+        } catch (IOException e) {
+            System.out.println("Error with files, double check the paths, file names and extensions");
+            return;
+        }
+        ExecutorService io = Executors.newFixedThreadPool(IO_THREADS);
+        ExecutorService cpu = Executors.newFixedThreadPool(CPU_THREADS);
+        int budget = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 2 >> 10);
+        Semaphore memory = new Semaphore(budget);
+        Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+        AtomicInteger failed = new AtomicInteger();
+        AtomicLong bytes = new AtomicLong();
+        long start = System.nanoTime();
+        Map<String, Path> outputs = new HashMap<>();
+        try {
+            for (Job job : jobs) {
+                Path earlier = task.writesFiles() ? outputs.putIfAbsent(outputName(job), job.input()) : null;
+                if (earlier != null) {
+                    report(job, new IOException("Its output would replace the output of " + earlier), failed);
+                    continue;
+                }
+                int permits;
+                try {
+                    permits = (int) Math.max(1, Math.min(budget, task.memory(job) >> 10));
+                } catch (IOException | RuntimeException e) {
+                    report(job, e, failed);
+                    continue;
+                }
+                inFlight.acquireUninterruptibly();
+                memory.acquireUninterruptibly(permits);
+                CompletableFuture.supplyAsync(() -> call(task::read, job), io)
+                        .thenApplyAsync(read -> call(converted -> task.convert(job, converted), read), cpu)
+                        .thenAcceptAsync(converted -> call(value -> {
+                            task.write(job, value);
+                            return null;
+                        }, converted), io)
+                        .whenComplete((ignored, e) -> {
+                            if (e != null) {
+                                report(job, e, failed);
+                            } else {
+                                try {
+                                    bytes.addAndGet(Files.size(job.input()));
+                                } catch (IOException ignoredSize) {
+                                    // counted as 0 bytes
+                                }
+                            }
+                            memory.release(permits);
+                            inFlight.release();
+                        });
+            }
+            inFlight.acquireUninterruptibly(MAX_IN_FLIGHT);
+        } finally {
+            io.shutdown();
+            cpu.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Processed %d files, %d failed, in %.2f s, %.1f files/s, %.1f MB/s%n",
+                jobs.size(), failed.get(), seconds, jobs.size() / seconds, bytes.get() / 1e6 / seconds);
+    }
+
+    private static <T, R> R call(Stage<T, R> stage, T value) {
+        try {
+            return stage.apply(value);
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private static void report(Job job, Throwable e, AtomicInteger failed) {
+        failed.incrementAndGet();
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        System.out.println("Error with " + job.input() + ": " + cause);
+    }
+
+    /**
+     * Lists files of the input
+     * @param input directory, glob or @list file with a path on each line
+     * @param pif if true only .pif files are listed, otherwise only files which aren't .pif
+     * @return found files
+     */
+    static List<Job> expand(String input, boolean pif) throws IOException {
+        List<Job> jobs = new ArrayList<>();
+        if (input.startsWith("@")) {
+            for (String line : Files.readAllLines(Path.of(input.substring(1)))) {
+                if (!line.isBlank()) {
+                    Path path = Path.of(line.strip());
+                    Path relative = path.normalize();
+                    boolean inside = !relative.isAbsolute() && !relative.startsWith("..") && !relative.toString().isEmpty();
+                    jobs.add(new Job(path, inside ? relative : path.getFileName()));
+                }
+            }
+            return jobs;
+        }
+        Path base;
+        PathMatcher matcher;
+        if (isGlob(input)) {
+            String prefix = input.substring(0, firstGlobCharacter(input));
+            int separator = Math.max(prefix.lastIndexOf('/'), prefix.lastIndexOf(java.io.File.separatorChar));
+            base = Path.of(separator < 0 ? "." : input.substring(0, separator + 1));
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + input.substring(separator + 1));
+        } else {
+            base = Path.of(input);
+            matcher = path -> true;
+        }
+        try (Stream<Path> files = Files.walk(base)) {
+            files.filter(Files::isRegularFile)
+                    .filter(path -> matcher.matches(base.relativize(path)))
+                    .filter(path -> path.getFileName().toString().toLowerCase().endsWith(".pif") == pif)
+                    .sorted()
+                    .forEach(path -> jobs.add(new Job(path, base.relativize(path))));
+        }
+        return jobs;
+    }
+
+    /**
+     * Creates the directories of the output file
+     * @return path of the output file, with the extension replaced
+     */
+    private static String target(String output, Job job, String extension) throws IOException {
+        Path target = Path.of(output).resolve(outputName(job) + "." + extension);
+        Files.createDirectories(target.toAbsolutePath().getParent());
+        return target.toString();
+    }
+
+    /**
+     * @return relative path of the output file, without its extension
+     */
+    static String outputName(Job job) {
+        String name = job.relative().getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) {
+            name = name.substring(0, dot);
+        }
+        Path parent = job.relative().getParent();
+        return parent == null ? name : parent.resolve(name).toString();
+    }
+
+    private static long remaining(ByteBuffer[] buffers) {
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        return remaining;
+    }
+
+    private static boolean isGlob(String input) {
+        return firstGlobCharacter(input) < input.length();
+    }
+
+    private static int firstGlobCharacter(String input) {
+        for (int i = 0; i < input.length(); i++) {
+            if ("*?[{".indexOf(input.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return input.length();
+    }
+}
@@ -0,0 +1,342 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Catalog of the metadata of all .pif files of a directory tree, so files are found by author initials, signature,
+ * encoding date or dimensions without opening them. The file is a 32 bytes header, then one 64 bytes record
+ * per .pif sorted by path, then the root directory and the paths relative to it in UTF-8. All numbers are little endian.
+ * Header: "PIFC", version (4 bytes), record length (4 bytes), length of the root (4 bytes), count of records
+ * (8 bytes) and length of the root and the paths (8 bytes).
+ * Record: index of the path after the root (8 bytes), length of the path (4 bytes), width (4 bytes), height (4 bytes),
+ * year (2 bytes), month, day, hour, minute, second and image type (1 byte each), author initials (2 bytes),
+ * flags (1 byte), 1 empty byte, signature (16 bytes), size (8 bytes) and modification time in nanoseconds (8 bytes)
+ * of the file. Files which couldn't be read keep a record flagged FAILED, with only the path, size and modification
+ * time, so they aren't read again until they change.
+ * Queries map the catalog and check the records in parallel, without reading it into the heap.
+ */
+public class Catalog {
+    private static final byte[] MAGIC = {'P', 'I', 'F', 'C'};
+    private static final int VERSION = 2;
+    private static final int HEADER_LENGTH = 32;
+    private static final int RECORD_LENGTH = 64;
+    private static final int PATH = 0;
+    private static final int PATH_LENGTH = 8;
+    private static final int WIDTH = 12;
+    private static final int HEIGHT = 16;
+    private static final int YEAR = 20;
+    private static final int MONTH = 22;
+    private static final int DAY = 23;
+    private static final int HOUR = 24;
+    private static final int MINUTE = 25;
+    private static final int SECOND = 26;
+    private static final int IMAGE_TYPE = 27;
+    private static final int INITIALS = 28;
+    private static final int FLAGS = 30;
+    private static final int SIGNATURE = 32;
+    private static final int SIZE = 48;
+    private static final int MODIFIED = 56;
+    /**
+     * Flag of a file which couldn't be read, its record holds no metadata
+     */
+    private static final byte FAILED = 1;
+
+    /**
+     * Filter of query, every given condition must hold
+     * @param initials author initials, or null for any
+     * @param signature start of the signature, or null for any
+     * @param fromDate first encoding date as yyyymmdd, inclusive
+     * @param toDate last encoding date as yyyymmdd, inclusive
+     * @param minWidth least width
+     * @param maxWidth largest width
+     * @param minHeight least height
+     * @param maxHeight largest height
+     * @param imageType PIF.UNCOMPRESSED, PIF.RUN_LENGTH or PIF.TILED, or -1 for any
+     */
+    public record Query(String initials, String signature, int fromDate, int toDate,
+                        int minWidth, int maxWidth, int minHeight, int maxHeight, int imageType) {
+    }
+
+    /**
+     * .pif found by walking the directory tree
+     * @param path path relative to the root, with / separators
+     * @param size size of the file
+     * @param modified modification time of the file in nanoseconds
+     */
+    private record Entry(String path, long size, long modified) {
+    }
+
+    private final MappedSegments bytes;
+    private final int count;
+    private final Path root;
+    private final long paths;
+
+    private Catalog(MappedSegments bytes, int count, Path root, long paths) {
+        this.bytes = bytes;
+        this.count = count;
+        this.root = root;
+        this.paths = paths;
+    }
+
+    /**
+     * Maps a catalog written by index, the mapping stays valid after the file is replaced
+     * @param path address of the catalog file
+     * @return the catalog
+     */
+    public static Catalog open(String path) throws IOException {
+        try (FileChannel channel = FileIO.openRead(path)) {
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+            if (size < HEADER_LENGTH) {
+                throw new IOException("File is too short to be a catalog");
+            }
+            FileIO.readFully(channel, header, 0);
+            header.flip();
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("File isn't a catalog");
+            }
+            int version = header.getInt(), recordLength = header.getInt(), rootLength = header.getInt();
+            long count = header.getLong(), stringsLength = header.getLong();
+            if (version != VERSION || recordLength != RECORD_LENGTH) {
+                throw new IOException("Catalog version " + version + " isn't supported, index again");
+            }
+            if (count < 0 || count > Integer.MAX_VALUE || rootLength < 0 || rootLength > stringsLength
+                    || HEADER_LENGTH + count * RECORD_LENGTH + stringsLength != size) {
+                throw new IOException("Catalog is corrupted");
+            }
+            MappedSegments bytes = new MappedSegments(channel, 0, size);
+            long paths = HEADER_LENGTH + count * RECORD_LENGTH;
+            byte[] root = new byte[rootLength];
+            bytes.get(paths, root, 0, rootLength);
+            return new Catalog(bytes, (int) count, Path.of(new String(root, StandardCharsets.UTF_8)), paths + rootLength);
+        }
+    }
+
+    /**
+     * @return count of files in the catalog, files which couldn't be read included
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * @param i index of the record
+     * @return path of the file, resolved against the indexed directory
+     */
+    public Path path(int i) {
+        return root.resolve(relativePath(i));
+    }
+
+    /**
+     * @param i index of the record
+     * @return metadata of the file, as stored when it was indexed, all zero if it couldn't be read
+     */
+    public PIFMetadata metadata(int i) {
+        long record = record(i);
+        byte[] initials = new byte[2], signature = new byte[16];
+        bytes.get(record + INITIALS, initials, 0, initials.length);
+        bytes.get(record + SIGNATURE, signature, 0, signature.length);
+        return new PIFMetadata(bytes.getInt(record + WIDTH), bytes.getInt(record + HEIGHT), unsigned(record + IMAGE_TYPE),
+                Short.toUnsignedInt(bytes.getShort(record + YEAR)), unsigned(record + MONTH), unsigned(record + DAY),
+                unsigned(record + HOUR), unsigned(record + MINUTE), unsigned(record + SECOND),
+                new String(initials, StandardCharsets.ISO_8859_1), new String(signature, StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Checks all records in parallel, files which couldn't be read never match
+     * @param query conditions of the files
+     * @return indexes of the matching records, in the order of their paths
+     */
+    public int[] find(Query query) {
+        byte[] initials = query.initials() == null ? null : query.initials().strip().getBytes(StandardCharsets.ISO_8859_1);
+        byte[] signature = query.signature() == null ? null : query.signature().getBytes(StandardCharsets.ISO_8859_1);
+        if (signature != null && signature.length > 16) {
+            return new int[0];
+        }
+        return IntStream.range(0, count).parallel().filter(i -> matches(record(i), query, initials, signature)).toArray();
+    }
+
+    private boolean matches(long record, Query query, byte[] initials, byte[] signature) {
+        if ((bytes.get(record + FLAGS) & FAILED) != 0) {
+            return false;
+        }
+        int width = bytes.getInt(record + WIDTH), height = bytes.getInt(record + HEIGHT);
+        if (width < query.minWidth() || width > query.maxWidth() || height < query.minHeight() || height > query.maxHeight()) {
+            return false;
+        }
+        if (query.imageType() >= 0 && unsigned(record + IMAGE_TYPE) != query.imageType()) {
+            return false;
+        }
+        int date = Short.toUnsignedInt(bytes.getShort(record + YEAR)) * 10000 + unsigned(record + MONTH) * 100 + unsigned(record + DAY);
+        if (date < query.fromDate() || date > query.toDate()) {
+            return false;
+        }
+        if (initials != null) {
+            for (int i = 0; i < 2; i++) {
+                byte stored = bytes.get(record + INITIALS + i);
+                if (i < initials.length ? stored != initials[i] : stored != ' ' && stored != 0) {
+                    return false;
+                }
+            }
+        }
+        if (signature != null) {
+            for (int i = 0; i < signature.length; i++) {
+                if (bytes.get(record + SIGNATURE + i) != signature[i]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the catalog of all .pif files under the directory, reading only their header and trailer, in parallel.
+     * If the catalog already exists for the same directory, files of the same size and modification time
+     * keep their records and aren't opened. Files which can't be read are reported and kept as failed, so they're
+     * reported again only once they change.
+     * @param directory root of the directory tree
+     * @param output address of the catalog file, replaced only once it's complete
+     */
+    public static void index(String directory, String output) throws IOException {
+        long start = System.nanoTime();
+        Path root = Path.of(directory).toAbsolutePath().normalize();
+        List<Entry> entries = walk(root);
+        Catalog old = null;
+        if (Files.exists(Path.of(output))) {
+            try {
+                old = open(output);
+                old = old.root.equals(root) ? old : null;
+            } catch (IOException e) {
+                // indexed again from scratch
+            }
+        }
+        ByteBuffer records = ByteBuffer.allocate(Math.multiplyExact(entries.size(), RECORD_LENGTH)).order(ByteOrder.LITTLE_ENDIAN);
+        List<Integer> changed = new ArrayList<>();
+        int stillFailed = 0;
+        int j = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            int compared = 1;
+            while (old != null && j < old.count && (compared = old.relativePath(j).compareTo(entry.path())) < 0) {
+                j++;
+            }
+            long record = old == null || compared != 0 ? -1 : old.record(j);
+            if (record >= 0 && old.bytes.getLong(record + SIZE) == entry.size() && old.bytes.getLong(record + MODIFIED) == entry.modified()) {
+                byte[] copy = new byte[RECORD_LENGTH];
+                old.bytes.get(record, copy, 0, RECORD_LENGTH);
+                records.put(i * RECORD_LENGTH, copy);
+                stillFailed += copy[FLAGS] & FAILED;
+            } else {
+                changed.add(i);
+            }
+        }
+        AtomicInteger failed = new AtomicInteger();
+        changed.parallelStream().forEach(i -> {
+            Entry entry = entries.get(i);
+            try (Stats.Timer timer = Stats.start(Stats.Stage.READ)) {
+                timer.bytes(PIF.HEADER_LENGTH + PIF.TRAILER_LENGTH);
+                PIFMetadata metadata = PIFMetadata.read(root.resolve(entry.path()).toString());
+                writeRecord(records, i * RECORD_LENGTH, metadata);
+            } catch (IOException e) {
+                records.put(i * RECORD_LENGTH + FLAGS, FAILED);
+                failed.incrementAndGet();
+                System.out.println("Error with " + root.resolve(entry.path()) + ": " + e);
+            }
+        });
+        byte[] rootBytes = root.toString().getBytes(StandardCharsets.UTF_8);
+        List<byte[]> pathBytes = new ArrayList<>();
+        long stringsLength = rootBytes.length;
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            byte[] path = entry.path().getBytes(StandardCharsets.UTF_8);
+            int target = i * RECORD_LENGTH;
+            records.putLong(target + PATH, stringsLength - rootBytes.length).putInt(target + PATH_LENGTH, path.length)
+                    .putLong(target + SIZE, entry.size()).putLong(target + MODIFIED, entry.modified());
+            pathBytes.add(path);
+            stringsLength += path.length;
+        }
+        if (stringsLength > Integer.MAX_VALUE) {
+            throw new IOException("Paths are too long to be held in a catalog");
+        }
+        ByteBuffer strings = ByteBuffer.allocate((int) stringsLength).put(rootBytes);
+        for (byte[] path : pathBytes) {
+            strings.put(path);
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC).putInt(VERSION).putInt(RECORD_LENGTH).putInt(rootBytes.length).putLong(entries.size()).putLong(stringsLength);
+        try (Stats.Timer timer = Stats.start(Stats.Stage.WRITE)) {
+            timer.bytes(HEADER_LENGTH + (long) entries.size() * RECORD_LENGTH + stringsLength);
+            FileIO.writeBytes(output, FileIO.Sync.NONE, false, header.flip(), records.clear(), strings.flip());
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int read = changed.size() - failed.get(), unchanged = entries.size() - changed.size() - stillFailed;
+        System.out.printf("Indexed %d files, %d read, %d unchanged, %d failed, %d of them unchanged and skipped, in %.2f s%n",
+                read + unchanged, read, unchanged, failed.get() + stillFailed, stillFailed, seconds);
+    }
+
+    /**
+     * Lists .pif files under the root with their size and modification time, sorted by path
+     */
+    private static List<Entry> walk(Path root) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if (attributes.isRegularFile() && file.getFileName().toString().toLowerCase().endsWith(".pif")) {
+                    String path = root.relativize(file).toString().replace(java.io.File.separatorChar, '/');
+                    entries.add(new Entry(path, attributes.size(), attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS)));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                System.out.println("Error with " + file + ": " + e);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        entries.sort(Comparator.comparing(Entry::path));
+        return entries;
+    }
+
+    private static void writeRecord(ByteBuffer records, int record, PIFMetadata metadata) {
+        records.putInt(record + WIDTH, metadata.width()).putInt(record + HEIGHT, metadata.height())
+                .putShort(record + YEAR, (short) metadata.year())
+                .put(record + MONTH, (byte) metadata.month()).put(record + DAY, (byte) metadata.day())
+                .put(record + HOUR, (byte) metadata.hour()).put(record + MINUTE, (byte) metadata.minute())
+                .put(record + SECOND, (byte) metadata.second()).put(record + IMAGE_TYPE, (byte) metadata.imageType())
+                .put(record + INITIALS, metadata.authorInitials().getBytes(StandardCharsets.ISO_8859_1), 0, 2)
+                .put(record + SIGNATURE, metadata.signature().getBytes(StandardCharsets.ISO_8859_1), 0, 16);
+    }
+
+    private String relativePath(int i) {
+        long record = record(i);
+        byte[] path = new byte[bytes.getInt(record + PATH_LENGTH)];
+        bytes.get(paths + bytes.getLong(record + PATH), path, 0, path.length);
+        return new String(path, StandardCharsets.UTF_8);
+    }
+
+    private long record(int i) {
+        return HEADER_LENGTH + (long) i * RECORD_LENGTH;
+    }
+
+    private int unsigned(long index) {
+        return Byte.toUnsignedInt(bytes.get(index));
+    }
+}
@@ -0,0 +1,321 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32C;
+
+/**
+ * Handles the checksum block, an extension block tagged "CRC " holding CRC32C of every chunk of the bytes between
+ * the header and the block itself, so the pixels and the extension blocks before it, and one CRC32C of the header
+ * and trailer together. It's always the last block of the extension area. The body is the chunk size (4 bytes),
+ * the count of covered bytes (8 bytes), the CRC32C of the header and trailer (4 bytes) and the CRC32C of every chunk
+ * (4 bytes each), the last chunk may be shorter. All numbers are little endian.
+ * Chunks are checked in parallel on the common ForkJoin pool, with positional reads, without decoding any pixels.
+ */
+public class Checksums {
+    /**
+     * Tag of the extension block
+     */
+    public static final String TAG = "CRC ";
+    /**
+     * Chunk size used by the encoder
+     */
+    public static final int CHUNK_SIZE = 1 << 20;
+    /**
+     * Largest chunk size accepted when checking
+     */
+    private static final int MAX_CHUNK_SIZE = 1 << 26;
+    private static final int FIXED_LENGTH = 16;
+    private static final ThreadLocal<ByteBuffer> CHUNK = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(CHUNK_SIZE));
+
+    /**
+     * Computes the checksums while the covered bytes are written, holding only the CRC32C of every chunk
+     */
+    public static class Builder {
+        private final CRC32C crc = new CRC32C();
+        private int[] crcs = new int[16];
+        private int count;
+        private long length;
+        private long skip;
+
+        /**
+         * @param skip count of bytes passed to update before the covered bytes start, as the header
+         */
+        public Builder(long skip) {
+            this.skip = skip;
+        }
+
+        /**
+         * Adds the next bytes
+         * @param bytes bytes between position and limit, the position isn't moved
+         */
+        public void update(ByteBuffer bytes) {
+            ByteBuffer rest = bytes.duplicate();
+            int skipped = (int) Math.min(skip, rest.remaining());
+            rest.position(rest.position() + skipped);
+            skip -= skipped;
+            while (rest.hasRemaining()) {
+                int inChunk = (int) (CHUNK_SIZE - length % CHUNK_SIZE);
+                int part = Math.min(inChunk, rest.remaining());
+                crc.update(rest.slice(rest.position(), part));
+                rest.position(rest.position() + part);
+                length += part;
+                if (part == inChunk) {
+                    endChunk();
+                }
+            }
+        }
+
+        /**
+         * Adds the next bytes
+         * @param bytes source of the bytes
+         * @param offset index of the first byte
+         * @param length count of bytes
+         */
+        public void update(byte[] bytes, int offset, int length) {
+            update(ByteBuffer.wrap(bytes, offset, length));
+        }
+
+        /**
+         * @param pif PIF whose header and trailer are written, the header must not change afterwards
+         * @return body of the extension block
+         */
+        public byte[] build(PIF pif) {
+            int[] crcs = finish();
+            ByteBuffer body = ByteBuffer.allocate(Math.addExact(FIXED_LENGTH, Math.multiplyExact(crcs.length, 4))).order(ByteOrder.LITTLE_ENDIAN);
+            body.putInt(CHUNK_SIZE).putLong(length).putInt(headerAndTrailer(pif));
+            for (int crc : crcs) {
+                body.putInt(crc);
+            }
+            return body.array();
+        }
+
+        /**
+         * @return count of covered bytes added so far
+         */
+        long length() {
+            return length;
+        }
+
+        /**
+         * Ends the last chunk, no more bytes may be added
+         * @return CRC32C of every chunk
+         */
+        int[] finish() {
+            if (length % CHUNK_SIZE != 0) {
+                endChunk();
+            }
+            return Arrays.copyOf(crcs, count);
+        }
+
+        private void endChunk() {
+            if (count == crcs.length) {
+                crcs = Arrays.copyOf(crcs, count * 2);
+            }
+            crcs[count++] = (int) crc.getValue();
+            crc.reset();
+        }
+    }
+
+    /**
+     * Computes the checksums of .pif held in memory
+     * @param pif PIF whose header and trailer are written, the header must not change afterwards
+     * @param payload bytes between the header and the extension area
+     * @param blocks extension blocks written before the checksum block
+     * @return body of the extension block
+     */
+    public static byte[] build(PIF pif, ByteBuffer payload, Map<String, byte[]> blocks) {
+        Builder builder = new Builder(0);
+        builder.update(payload);
+        ByteBuffer[] parts = Extensions.buffers(blocks);
+        for (int i = 0; i < parts.length - 1; i++) {
+            builder.update(parts[i]);
+        }
+        return builder.build(pif);
+    }
+
+    /**
+     * Checks .pif held in memory against its checksum block
+     * @param pif all bytes of .pif between position 0 and the limit
+     * @param body body of the checksum block
+     * @throws IOException if a checksum doesn't match, naming the first corrupted chunk
+     */
+    public static void verify(ByteBuffer pif, byte[] body) throws IOException {
+        ByteBuffer fields = fields(body, pif.limit());
+        int chunkSize = fields.getInt(0);
+        long length = fields.getLong(4);
+        checkPosition(pif.limit() - PIF.TRAILER_LENGTH - Extensions.END_LENGTH - body.length, body.length, length, pif.limit());
+        checkHeaderAndTrailer(pif.slice(0, PIF.HEADER_LENGTH), pif.slice(pif.limit() - PIF.TRAILER_LENGTH, PIF.TRAILER_LENGTH),
+                fields.getInt(12));
+        OptionalInt corrupted = IntStream.range(0, chunkCount(length, chunkSize)).parallel()
+                .filter(i -> {
+                    int start = PIF.HEADER_LENGTH + i * chunkSize;
+                    int chunkLength = (int) Math.min(chunkSize, length - (long) i * chunkSize);
+                    CRC32C crc = new CRC32C();
+                    crc.update(pif.slice(start, chunkLength));
+                    return (int) crc.getValue() != fields.getInt(FIXED_LENGTH + i * 4);
+                })
+                .min();
+        if (corrupted.isPresent()) {
+            throw corrupted(corrupted.getAsInt(), chunkSize);
+        }
+    }
+
+    /**
+     * Checks .pif read once from start to end against its checksum block, as PIFReader does, the chunks were summed
+     * while they were read, so only chunks of CHUNK_SIZE are checked, files with other chunks are checked by verify
+     * @param covered checksums of all bytes read between the header and the block
+     * @param body body of the checksum block
+     * @return CRC32C of the header and trailer, to check once the trailer is read
+     * @throws IOException if a checksum doesn't match, naming the first corrupted chunk
+     */
+    static int verify(Builder covered, byte[] body) throws IOException {
+        ByteBuffer fields = fields(body, covered.length());
+        int chunkSize = fields.getInt(0);
+        long length = fields.getLong(4);
+        if (length != covered.length()) {
+            throw new IOException("Checksum block covers " + length + " bytes, but starts after " + covered.length());
+        }
+        if (chunkSize == CHUNK_SIZE) {
+            int[] crcs = covered.finish();
+            for (int i = 0; i < crcs.length; i++) {
+                if (crcs[i] != fields.getInt(FIXED_LENGTH + i * 4)) {
+                    throw corrupted(i, chunkSize);
+                }
+            }
+        }
+        return fields.getInt(12);
+    }
+
+    /**
+     * Checks a .pif file against its checksum block, reading the chunks in parallel
+     * @param path address of the .pif file, file name and its type
+     * @return false if the file has no checksum block, true if all checksums match
+     * @throws IOException if a checksum doesn't match, naming the first corrupted chunk, or the structure is broken
+     */
+    public static boolean verify(String path) throws IOException {
+        try (FileChannel channel = FileIO.openRead(path)) {
+            long size = channel.size();
+            if (size < PIF.HEADER_LENGTH + PIF.TRAILER_LENGTH) {
+                throw new IOException("File is too short to be .pif");
+            }
+            PIF pif = new PIF();
+            ByteBuffer header = ByteBuffer.allocate(PIF.HEADER_LENGTH);
+            FileIO.readFully(channel, header, 0);
+            PIFLayout.readHeader(header.flip(), pif);
+            ByteBuffer trailer = ByteBuffer.allocate(PIF.TRAILER_LENGTH);
+            FileIO.readFully(channel, trailer, size - PIF.TRAILER_LENGTH);
+            PIFLayout.readTrailer(trailer.flip(), pif);
+            long areaLength = Extensions.areaLength(pif.getHeader(), channel);
+            long[] block = areaLength == 0 ? null : Extensions.find(channel, areaLength, TAG);
+            if (block == null) {
+                return false;
+            }
+            if (block[1] > Integer.MAX_VALUE - 8) {
+                throw new IOException("Checksum block is too long");
+            }
+            ByteBuffer body = ByteBuffer.allocate((int) block[1]);
+            FileIO.readFully(channel, body, block[0]);
+            ByteBuffer fields = fields(body.array(), size);
+            int chunkSize = fields.getInt(0);
+            long length = fields.getLong(4);
+            checkPosition(block[0], block[1], length, size);
+            checkHeaderAndTrailer(header.flip(), trailer.flip(), fields.getInt(12));
+            OptionalInt corrupted = IntStream.range(0, chunkCount(length, chunkSize)).parallel()
+                    .filter(i -> {
+                        long start = PIF.HEADER_LENGTH + (long) i * chunkSize;
+                        long end = start + Math.min(chunkSize, length - (long) i * chunkSize);
+                        ByteBuffer piece = CHUNK.get();
+                        CRC32C crc = new CRC32C();
+                        for (long position = start; position < end; position += piece.limit()) {
+                            try {
+                                FileIO.readFully(channel, piece.clear().limit((int) Math.min(CHUNK_SIZE, end - position)), position);
+                            } catch (IOException e) {
+                                return true;
+                            }
+                            crc.update(piece.flip());
+                        }
+                        return (int) crc.getValue() != fields.getInt(FIXED_LENGTH + i * 4);
+                    })
+                    .min();
+            if (corrupted.isPresent()) {
+                throw corrupted(corrupted.getAsInt(), chunkSize);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Checks the fixed fields and the length of the body
+     * @param size length of the whole .pif, no more bytes can be covered
+     */
+    private static ByteBuffer fields(byte[] body, long size) throws IOException {
+        ByteBuffer fields = ByteBuffer.wrap(body).order(ByteOrder.LITTLE_ENDIAN);
+        if (body.length < FIXED_LENGTH) {
+            throw new EOFException("Checksum block is too short");
+        }
+        int chunkSize = fields.getInt(0);
+        long length = fields.getLong(4);
+        if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE || length < 0 || length > size) {
+            throw new IOException("Checksum block is corrupted");
+        }
+        if (body.length != FIXED_LENGTH + (long) chunkCount(length, chunkSize) * 4) {
+            throw new IOException("Checksum block has " + (body.length - FIXED_LENGTH) / 4 + " checksums for "
+                    + chunkCount(length, chunkSize) + " chunks");
+        }
+        return fields;
+    }
+
+    /**
+     * Checks that the block is the last one of the area and starts right after the covered bytes
+     */
+    private static void checkPosition(long bodyPosition, long bodyLength, long length, long size) throws IOException {
+        if (bodyPosition + bodyLength + Extensions.END_LENGTH + PIF.TRAILER_LENGTH != size) {
+            throw new IOException("Checksum block isn't the last extension block");
+        }
+        if (PIF.HEADER_LENGTH + length + Extensions.BLOCK_HEADER_LENGTH != bodyPosition) {
+            throw new IOException("Checksum block covers " + length + " bytes, but starts after "
+                    + (bodyPosition - Extensions.BLOCK_HEADER_LENGTH - PIF.HEADER_LENGTH));
+        }
+    }
+
+    private static int chunkCount(long length, int chunkSize) {
+        return (int) ((length + chunkSize - 1) / chunkSize);
+    }
+
+    /**
+     * Checks the bytes of the header and trailer as they are in the file, with the bytes the reader ignores
+     * @param header the 13 bytes of the header between position and limit
+     * @param trailer the 33 bytes of the trailer between position and limit
+     * @param expected CRC32C of the checksum block
+     */
+    static void checkHeaderAndTrailer(ByteBuffer header, ByteBuffer trailer, int expected) throws IOException {
+        CRC32C crc = new CRC32C();
+        crc.update(header.duplicate());
+        crc.update(trailer.duplicate());
+        if ((int) crc.getValue() != expected) {
+            throw new IOException("Header or trailer is corrupted");
+        }
+    }
+
+    private static IOException corrupted(int chunk, int chunkSize) {
+        return new IOException("Chunk " + chunk + " at offset " + (PIF.HEADER_LENGTH + (long) chunk * chunkSize) + " is corrupted");
+    }
+
+    /**
+     * @return CRC32C of the 13 header bytes followed by the 33 trailer bytes
+     */
+    private static int headerAndTrailer(PIF pif) {
+        ByteBuffer bytes = ByteBuffer.allocate(PIF.HEADER_LENGTH + PIF.TRAILER_LENGTH);
+        PIFLayout.writeHeader(pif, bytes);
+        PIFLayout.writeTrailer(pif, bytes);
+        CRC32C crc = new CRC32C();
+        crc.update(bytes.flip());
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,213 @@
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+
+/**
+ * Forwards encode and decode of single files to a running daemon, see Server, so they skip JVM warm-up.
+ * The client reads the input and writes the output itself and sends only their bytes, so the daemon never touches
+ * paths, and it runs the command in this JVM whenever the daemon isn't there, doesn't prove it knows the token in time,
+ * fails or stops answering, so a program listening on the port in its place is never sent anything but a random nonce
+ * and never makes the command hang.
+ */
+public class Client {
+    /**
+     * Port used when the PIF_PORT environment variable isn't set
+     */
+    public static final int DEFAULT_PORT = 7171;
+    /**
+     * Request header carrying the token of the daemon
+     */
+    static final String TOKEN_HEADER = "X-PIF-Token";
+    private static final int CONNECT_TIMEOUT = 50;
+    /**
+     * Milliseconds the daemon may take to answer /ping, a busy daemon answers late and the command runs locally
+     */
+    private static final int PING_TIMEOUT = 1000;
+    /**
+     * Milliseconds the daemon may be silent while converting, before the command runs locally
+     */
+    private static final int JOB_TIMEOUT = 60_000;
+    private static final int NONCE_LENGTH = 16;
+
+    /**
+     * Port of the daemon, kept here rather than in Server, so forwarding never loads the HTTP server classes
+     * @return port from the PIF_PORT environment variable or DEFAULT_PORT, 0 disables forwarding to the daemon,
+     *         as does a value which isn't a port
+     */
+    public static int port() {
+        String port = System.getenv("PIF_PORT");
+        if (port == null || port.isBlank()) {
+            return DEFAULT_PORT;
+        }
+        try {
+            int parsed = Integer.parseInt(port.strip());
+            return parsed >= 0 && parsed <= 0xFFFF ? parsed : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @param port port of the daemon
+     * @return file holding the token of the daemon on the port, in a directory only the user may open
+     */
+    static Path tokenPath(int port) {
+        return Path.of(System.getProperty("user.home"), ".pif", "daemon-" + port + ".token");
+    }
+
+    /**
+     * @param token token of the daemon
+     * @param nonce random text chosen by the client
+     * @return HMAC-SHA256 of the nonce keyed by the token, in hex
+     */
+    static String proof(String token, String nonce) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(token.getBytes(StandardCharsets.US_ASCII), "HmacSHA256"));
+            return HexFormat.of().formatHex(mac.doFinal(nonce.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Runs encode or decode of a single file on the daemon, if a daemon of this user listens on port().
+     * Calls with options the daemon doesn't take, many files, BMP or PPM, which are transcoded without AWT
+     * anyway, and every other command run in this JVM.
+     * @param args command line arguments
+     * @return true if the daemon ran them, false if they should run in this JVM
+     */
+    public static boolean forward(String[] args) {
+        return forward(args, port());
+    }
+
+    /**
+     * Runs encode or decode of a single file on the daemon on the port, see forward(String[])
+     * @param args command line arguments
+     * @param port port of the daemon, 0 for none
+     * @return true if the daemon ran them, false if they should run in this JVM
+     */
+    static boolean forward(String[] args, int port) {
+        if (port == 0 || args.length < 5 || !args[1].equals("-i") || !args[3].equals("-o")) {
+            return false;
+        }
+        String input = args[2], output = args[4];
+        StringBuilder query = new StringBuilder();
+        String path;
+        switch (args[0].toLowerCase()) {
+            case "encode" -> {
+                for (int i = 5; i < args.length; i++) {
+                    switch (args[i]) {
+                        case "--initials", "--signature", "--compression" -> {
+                            if (i + 1 == args.length) {
+                                return false;
+                            }
+                            query.append(args[i].substring(2)).append('=')
+                                    .append(URLEncoder.encode(args[++i], StandardCharsets.UTF_8)).append('&');
+                        }
+                        case "--pyramid", "--checksum" -> query.append(args[i].substring(2)).append("=true&");
+                        default -> {
+                            return false;
+                        }
+                    }
+                }
+                if (RawImages.canRead(input)) {
+                    return false;
+                }
+                path = "/encode";
+            }
+            case "decode" -> {
+                int dot = output.lastIndexOf('.');
+                if (args.length > 5 || dot < 0 || RawImages.canWrite(output)) {
+                    return false;
+                }
+                query.append("format=").append(URLEncoder.encode(output.substring(dot + 1), StandardCharsets.UTF_8));
+                path = "/decode";
+            }
+            default -> {
+                return false;
+            }
+        }
+        if (isBatch(input)) {
+            return false;
+        }
+        try {
+            Path tokenFile = tokenPath(port);
+            if (!Files.isRegularFile(tokenFile)) {
+                return false;
+            }
+            String token = Files.readString(tokenFile, StandardCharsets.US_ASCII).strip();
+            InetAddress loopback = InetAddress.getLoopbackAddress();
+            try (Socket probe = new Socket()) {
+                probe.connect(new InetSocketAddress(loopback, port), CONNECT_TIMEOUT);
+            }
+            byte[] nonce = new byte[NONCE_LENGTH];
+            new SecureRandom().nextBytes(nonce);
+            String hexNonce = HexFormat.of().formatHex(nonce);
+            HttpURLConnection ping = connection(loopback, port, "/ping?nonce=" + hexNonce, PING_TIMEOUT);
+            if (ping.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                return false;
+            }
+            byte[] answer;
+            try (InputStream response = ping.getInputStream()) {
+                answer = response.readNBytes(1024);
+            }
+            if (!MessageDigest.isEqual(answer, proof(token, hexNonce).getBytes(StandardCharsets.US_ASCII))) {
+                return false;
+            }
+            byte[] body = Files.readAllBytes(Path.of(input));
+            HttpURLConnection job = connection(loopback, port, path + "?" + query, JOB_TIMEOUT);
+            job.setRequestMethod("POST");
+            job.setRequestProperty(TOKEN_HEADER, token);
+            job.setDoOutput(true);
+            job.setFixedLengthStreamingMode(body.length);
+            try (OutputStream request = job.getOutputStream()) {
+                request.write(body);
+            }
+            if (job.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                return false;
+            }
+            byte[] result;
+            try (InputStream response = job.getInputStream()) {
+                result = response.readAllBytes();
+            }
+            FileIO.writeBytes(output, result);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param readTimeout milliseconds a read may wait, a SocketTimeoutException makes the command run locally
+     */
+    private static HttpURLConnection connection(InetAddress loopback, int port, String file, int readTimeout) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http", loopback.getHostAddress(), port, file).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(readTimeout);
+        connection.setInstanceFollowRedirects(false);
+        return connection;
+    }
+
+    /**
+     * Same as Batch.isBatch, without loading the batch classes
+     */
+    private static boolean isBatch(String input) {
+        return input.startsWith("@") || input.chars().anyMatch(c -> "*?[{".indexOf(c) >= 0) || Files.isDirectory(Path.of(input));
+    }
+}
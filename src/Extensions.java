@@ -0,0 +1,200 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Handles the optional extension area of .pif, placed between the pixels and the trailer, so the 13 header bytes
+ * and the 33 trailer bytes stay where readers expect them. It's present only if the first byte of the color map
+ * specification has the PIF.EXTENSIONS bit set. The area is a sequence of blocks, each a 4 character tag,
+ * its length (4 bytes) and its body, and it ends with the tag "PIFX" and the length of the whole area (4 bytes),
+ * so it can be found from the end of the file. All numbers are little endian.
+ */
+public class Extensions {
+    /**
+     * Length of the end of the area, its tag and length
+     */
+    public static final int END_LENGTH = 8;
+    /**
+     * Length of a block before its body, its tag and length
+     */
+    public static final int BLOCK_HEADER_LENGTH = 8;
+    /**
+     * Tag of the end of the area
+     */
+    static final String END_TAG = "PIFX";
+
+    /**
+     * @param blocks bodies of the blocks by their tags
+     * @return length of the area holding the blocks, 0 if there are none
+     */
+    public static long length(Map<String, byte[]> blocks) {
+        if (blocks.isEmpty()) {
+            return 0;
+        }
+        long length = END_LENGTH;
+        for (byte[] body : blocks.values()) {
+            length += BLOCK_HEADER_LENGTH + body.length;
+        }
+        return length;
+    }
+
+    /**
+     * Writes the whole area
+     * @param blocks bodies of the blocks by their tags, nothing is written if there are none
+     * @param buffer destination with enough space for length(blocks) bytes
+     */
+    public static void write(Map<String, byte[]> blocks, ByteBuffer buffer) {
+        for (ByteBuffer part : buffers(blocks)) {
+            buffer.put(part);
+        }
+    }
+
+    /**
+     * Splits the whole area to buffers, without copying the bodies
+     * @param blocks bodies of the blocks by their tags
+     * @return header and body of every block and the end of the area, for a gathering write, none if there are no blocks
+     */
+    public static ByteBuffer[] buffers(Map<String, byte[]> blocks) {
+        if (blocks.isEmpty()) {
+            return new ByteBuffer[0];
+        }
+        ByteBuffer[] result = new ByteBuffer[blocks.size() * 2 + 1];
+        int i = 0;
+        for (Map.Entry<String, byte[]> block : blocks.entrySet()) {
+            result[i++] = head(block.getKey(), block.getValue().length);
+            result[i++] = ByteBuffer.wrap(block.getValue());
+        }
+        result[i] = head(END_TAG, Math.toIntExact(length(blocks)));
+        return result;
+    }
+
+    /**
+     * Reads the blocks of the area
+     * @param area source positioned at the first block, with limit after the end of the area
+     * @return bodies of the blocks by their tags, in file order
+     */
+    public static Map<String, byte[]> read(ByteBuffer area) throws IOException {
+        ByteBuffer blocks = area.slice().order(ByteOrder.LITTLE_ENDIAN);
+        Map<String, byte[]> result = new LinkedHashMap<>();
+        while (blocks.remaining() >= BLOCK_HEADER_LENGTH) {
+            String tag = tag(blocks);
+            int length = blocks.getInt();
+            if (tag.equals(END_TAG)) {
+                return result;
+            }
+            if (length < 0 || length > blocks.remaining()) {
+                throw new EOFException("Extension block " + tag + " is longer than the extension area");
+            }
+            byte[] body = new byte[length];
+            blocks.get(body);
+            result.put(tag, body);
+        }
+        throw new EOFException("Extension area has no end");
+    }
+
+    /**
+     * Finds the area from its end, right before the trailer, with absolute reads only
+     * @param header read header
+     * @param pif all bytes of .pif, from start up to the limit
+     * @param start index in pif of the first byte of .pif
+     * @return length of the area, 0 if there is none
+     */
+    public static int areaLength(PIF.Header header, ByteBuffer pif, int start) throws IOException {
+        if (!header.hasExtensions()) {
+            return 0;
+        }
+        int end = pif.limit() - PIF.TRAILER_LENGTH - END_LENGTH;
+        if (end - start < PIF.HEADER_LENGTH) {
+            throw new EOFException("File is too short for its extension area");
+        }
+        return (int) checkEnd(pif, end, end + END_LENGTH - start - PIF.HEADER_LENGTH);
+    }
+
+    /**
+     * Finds the area from its end, right before the trailer, with a positional read
+     * @param header read header
+     * @param channel opened .pif
+     * @return length of the area, 0 if there is none
+     */
+    public static long areaLength(PIF.Header header, FileChannel channel) throws IOException {
+        if (!header.hasExtensions()) {
+            return 0;
+        }
+        long end = channel.size() - PIF.TRAILER_LENGTH - END_LENGTH;
+        if (end < PIF.HEADER_LENGTH) {
+            throw new EOFException("File is too short for its extension area");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(END_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        FileIO.readFully(channel, buffer, end);
+        return checkEnd(buffer, 0, end + END_LENGTH - PIF.HEADER_LENGTH);
+    }
+
+    /**
+     * Finds one block of the area with positional reads of the block headers only
+     * @param channel opened .pif
+     * @param areaLength length of the area, as areaLength returns
+     * @param tag tag of the block
+     * @return position of the body in the file and its length, or null if there is no such block
+     */
+    public static long[] find(FileChannel channel, long areaLength, String tag) throws IOException {
+        long end = channel.size() - PIF.TRAILER_LENGTH - END_LENGTH;
+        ByteBuffer blockHeader = ByteBuffer.allocate(BLOCK_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        for (long position = end + END_LENGTH - areaLength; position + BLOCK_HEADER_LENGTH <= end; ) {
+            FileIO.readFully(channel, blockHeader.clear(), position);
+            long length = Integer.toUnsignedLong(blockHeader.flip().getInt(4));
+            if (position + BLOCK_HEADER_LENGTH + length > end) {
+                throw new EOFException("Extension block is longer than the extension area");
+            }
+            if (tag(blockHeader).equals(tag)) {
+                return new long[]{position + BLOCK_HEADER_LENGTH, length};
+            }
+            position += BLOCK_HEADER_LENGTH + length;
+        }
+        return null;
+    }
+
+    private static ByteBuffer head(String tag, int length) {
+        return ByteBuffer.allocate(BLOCK_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN).put(tag(tag)).putInt(length).flip();
+    }
+
+    /**
+     * Checks the end of the area at the index of the buffer, without allocating
+     */
+    private static long checkEnd(ByteBuffer buffer, int index, long maxLength) throws IOException {
+        for (int i = 0; i < 4; i++) {
+            if (buffer.get(index + i) != END_TAG.charAt(i)) {
+                throw new IOException("Extension area has no end");
+            }
+        }
+        long length = 0;
+        for (int i = 7; i >= 4; i--) {
+            length = length << 8 | Byte.toUnsignedInt(buffer.get(index + i));
+        }
+        if (length < END_LENGTH || length > maxLength) {
+            throw new IOException("Extension area length " + length + " is out of range");
+        }
+        return length;
+    }
+
+    private static byte[] tag(String tag) {
+        byte[] bytes = tag.getBytes(StandardCharsets.US_ASCII);
+        if (bytes.length != 4) {
+            throw new IllegalArgumentException("Extension tag must be 4 characters, not " + tag);
+        }
+        return bytes;
+    }
+
+    /**
+     * Reads a 4 character tag
+     */
+    static String tag(ByteBuffer buffer) {
+        byte[] bytes = new byte[4];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+}
@@ -1,31 +1,39 @@
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
- * Handles File work
+ * Handles File work, general image files are handled by ImageFiles, so commands without them never load AWT
  */
 public class FileIO {
+    private static final int DIRECT_BUFFER_LENGTH = 1 << 20;
+    private static final ThreadLocal<ByteBuffer> DIRECT_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(DIRECT_BUFFER_LENGTH));
 
     /**
-     * Reads general image files and outputs BufferedImage
-     * @param path address of the file, file name and its type
-     * @return constructed raster in BufferedImage
+     * When written data is forced to the storage device
      */
-    public static BufferedImage readImage(String path) throws IOException {
-        File file = new File(path);
-        return ImageIO.read(file);
-    }
-
-    /**
-     * Writes regular image files
-     * @param path address of the file, file name and its type
-     * @param image image raster in BufferedImage
-     */
-    public static void writeImage(String path, BufferedImage image) throws IOException {
-        File file = new File(path);
-        String fileType = path.substring(path.lastIndexOf('.') + 1);
-        ImageIO.write(image, fileType, file);
+    public enum Sync {
+        /**
+         * Left to the operating system
+         */
+        NONE,
+        /**
+         * Once, before the file is closed and renamed
+         */
+        ON_CLOSE,
+        /**
+         * On every write
+         */
+        ALWAYS
     }
 
     /**
@@ -40,16 +48,216 @@ public class FileIO {
         return contents;
     }
 
+    /**
+     * Reads raw bytes from files into a buffer, used for .pif
+     * @param path address of the file, file name and its type
+     * @param reuse buffer filled if its capacity is enough, may be null
+     * @return reuse or a new buffer, holding all bytes in the file between position and limit
+     */
+    public static ByteBuffer readBytes(String path, ByteBuffer reuse) throws IOException {
+        try (FileChannel channel = openRead(path)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File is too large to be read into a buffer");
+            }
+            ByteBuffer buffer = reuse != null && reuse.capacity() >= size ? reuse.clear() : ByteBuffer.allocate((int) size);
+            buffer.limit((int) size);
+            readFully(channel, buffer, 0);
+            return buffer.flip();
+        }
+    }
+
     /**
      * Writes raw bytes into files, used for .pif
      * @param path address of the file, file name and its type
      * @param contents Array of all bytes outputted to the file
      */
     public static void writeBytes(String path, byte[] contents) throws IOException {
-        FileOutputStream writer = new FileOutputStream(path);
-        for (byte b : contents) {
-            writer.write(b);
+        writeBytes(path, Sync.NONE, false, ByteBuffer.wrap(contents));
+    }
+
+    /**
+     * Writes raw bytes of several buffers into files with one gathering write, used for .pif.
+     * The file is replaced only once it's complete.
+     * @param path address of the file, file name and its type
+     * @param sync when the data is forced to the storage device
+     * @param direct if true, heap buffers are written through a reused direct buffer in 1 MB parts,
+     *               instead of letting the channel copy each into a temporary direct buffer of its size
+     * @param buffers bytes between position and limit of each buffer outputted to the file in order
+     */
+    public static void writeBytes(String path, Sync sync, boolean direct, ByteBuffer... buffers) throws IOException {
+        try (AtomicOutput output = createAtomic(path, sync)) {
+            FileChannel channel = output.file;
+            if (direct) {
+                ByteBuffer staging = DIRECT_BUFFER.get();
+                for (ByteBuffer buffer : buffers) {
+                    if (buffer.isDirect()) {
+                        writeFully(channel, buffer);
+                        continue;
+                    }
+                    while (buffer.hasRemaining()) {
+                        int length = Math.min(staging.capacity(), buffer.remaining());
+                        staging.clear().put(buffer.slice(buffer.position(), length)).flip();
+                        buffer.position(buffer.position() + length);
+                        writeFully(channel, staging);
+                    }
+                }
+            } else {
+                long remaining = 0;
+                for (ByteBuffer buffer : buffers) {
+                    remaining += buffer.remaining();
+                }
+                while (remaining > 0) {
+                    remaining -= channel.write(buffers);
+                }
+            }
+            output.commit();
+        }
+    }
+
+    /**
+     * Opens a file for sequential reading, used for streamed .pif
+     * @param path address of the file, file name and its type
+     * @return channel positioned at the start of the file
+     */
+    public static FileChannel openRead(String path) throws IOException {
+        return FileChannel.open(Path.of(path), StandardOpenOption.READ);
+    }
+
+    /**
+     * Creates a temporary file next to the given one, which replaces it on commit
+     * @param path address of the file, file name and its type
+     * @param sync when the data is forced to the storage device
+     * @return output to the temporary file
+     */
+    public static AtomicOutput createAtomic(String path, Sync sync) throws IOException {
+        return new AtomicOutput(Path.of(path).toAbsolutePath(), sync);
+    }
+
+    /**
+     * Fills the buffer from the given position of the file, without moving the channel position
+     * @param channel opened file
+     * @param buffer destination, filled up to its limit
+     * @param position index in the file of the first byte read
+     */
+    public static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of file");
+            }
+            position += read;
+        }
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Output to a temporary file, which atomically replaces the target on commit, so readers never see it half-written.
+     * A replaced target keeps its POSIX permissions. A symbolic link as the target is itself replaced by the file,
+     * the file it pointed to is left as it was. Closing without commit deletes the temporary file.
+     */
+    public static class AtomicOutput implements Closeable {
+        private final Path target;
+        private final Path temporary;
+        private final Sync sync;
+        private final FileChannel file;
+        private boolean committed;
+
+        private AtomicOutput(Path target, Sync sync) throws IOException {
+            this.target = target;
+            this.sync = sync;
+            this.temporary = target.resolveSibling("." + target.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+            this.file = sync == Sync.ALWAYS
+                    ? FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW, StandardOpenOption.DSYNC)
+                    : FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+        }
+
+        /**
+         * @return channel to the temporary file, closing it leaves the file open until commit or close
+         */
+        public WritableByteChannel channel() {
+            return new WritableByteChannel() {
+                private boolean open = true;
+
+                @Override
+                public int write(ByteBuffer src) throws IOException {
+                    if (!open) {
+                        throw new IOException("Channel is closed");
+                    }
+                    return file.write(src);
+                }
+
+                @Override
+                public boolean isOpen() {
+                    return open && file.isOpen();
+                }
+
+                @Override
+                public void close() {
+                    open = false;
+                }
+            };
+        }
+
+        /**
+         * Writes the buffer at the given position of the temporary file, without moving the channel position
+         * @param buffer bytes between position and limit written
+         * @param position index in the file of the first byte written
+         */
+        public void write(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                position += file.write(buffer, position);
+            }
+        }
+
+        /**
+         * Gives the temporary file the permissions of the target it replaces, forces the data if requested, closes
+         * the temporary file and renames it to the target
+         */
+        public void commit() throws IOException {
+            copyPermissions();
+            if (sync != Sync.NONE) {
+                file.force(true);
+            }
+            file.close();
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            committed = true;
+            if (sync != Sync.NONE) {
+                try (FileChannel directory = FileChannel.open(target.getParent(), StandardOpenOption.READ)) {
+                    directory.force(true);
+                } catch (IOException ignored) {
+                    // not every platform can open directories, the rename is durable there anyway
+                }
+            }
+        }
+
+        /**
+         * Copies the POSIX permissions of an existing target, else the temporary file keeps those of a new file
+         */
+        private void copyPermissions() throws IOException {
+            Set<PosixFilePermission> permissions;
+            try {
+                permissions = Files.getPosixFilePermissions(target);
+            } catch (NoSuchFileException | UnsupportedOperationException e) {
+                return;
+            }
+            Files.setPosixFilePermissions(temporary, permissions);
+        }
+
+        /**
+         * Deletes the temporary file if it wasn't committed
+         */
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                file.close();
+                Files.deleteIfExists(temporary);
+            }
         }
-        writer.close();
     }
 }
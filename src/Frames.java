@@ -0,0 +1,448 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Handles multi-frame .pif, a sequence of images of the same size sharing one header and trailer, for timelapses
+ * and screen captures. Its image type is PIF.FRAMES and its payload is the frames one after another, each a kind
+ * (1 byte), the length of its body (4 bytes) and its body. The body of a keyframe is every row in run-length packets,
+ * see RunLength. The body of a delta is, for every row, 0 if it's the same as in the previous frame, or 1 followed by
+ * the row XOR the previous frame in run-length packets, so unchanged pixels become long runs of zeros.
+ * The extension block "FRMS" indexes the frames, 16 bytes each: index of the frame in the file (8 bytes), length of
+ * its body (4 bytes), kind (1 byte) and 3 empty bytes, so any frame is found at once and decoded from the keyframe
+ * before it. All numbers are little endian.
+ * Frames are appended as they arrive and the index and trailer are written on close. If the writing process
+ * stops before that, the frames are found again from their kinds and lengths when the file is opened to append.
+ */
+public class Frames {
+    /**
+     * Tag of the extension block
+     */
+    public static final String TAG = "FRMS";
+    /**
+     * Default count of frames after which a keyframe is stored, so decoding any frame takes at most as many deltas
+     */
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 60;
+    private static final int ENTRY_LENGTH = 16;
+    private static final int FRAME_HEADER_LENGTH = 5;
+    private static final byte KEYFRAME = 0;
+    private static final byte DELTA = 1;
+    private static final byte SAME_ROW = 0;
+    private static final byte CHANGED_ROW = 1;
+
+    /**
+     * @param width width of the frames
+     * @param height height of the frames
+     * @return length of the 24-bit BGR pixels of a frame, if they fit in an array
+     */
+    public static int frameLength(int width, int height) throws IOException {
+        long length = (long) width * height * 3;
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IOException("Frames of " + width + "x" + height + " pixels are too large to be held in memory");
+        }
+        return (int) length;
+    }
+
+    /**
+     * Appends frames to a multi-frame .pif, writing each as it's given
+     */
+    public static class Writer implements Closeable {
+        private final FileChannel channel;
+        private final PIF pif;
+        private final int width;
+        private final int height;
+        private final int rowLength;
+        private final int keyframeInterval;
+        private final byte[] previous;
+        private final byte[] row;
+        private final byte[] body;
+        private final ByteBuffer frameHeader = ByteBuffer.allocate(FRAME_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        private ByteBuffer index;
+        private long position;
+        private boolean hasPrevious;
+        private int sinceKeyframe;
+        private int keyframeLength = Integer.MAX_VALUE;
+
+        private Writer(FileChannel channel, PIF pif, ByteBuffer index, long position, int keyframeInterval) throws IOException {
+            this.channel = channel;
+            this.pif = pif;
+            this.width = pif.getHeader().getWidth();
+            this.height = pif.getHeader().getHeight();
+            this.rowLength = width * 3;
+            this.keyframeInterval = Math.max(1, keyframeInterval);
+            long bodyLength = (long) height * (1 + RunLength.maxRowLength(width));
+            if (width > PIF.MAX_WIDTH || bodyLength > Integer.MAX_VALUE - 8) {
+                throw new IOException("Frames of " + width + "x" + height + " pixels are too large to be held in memory");
+            }
+            this.previous = new byte[frameLength(width, height)];
+            this.row = new byte[rowLength];
+            this.body = new byte[(int) bodyLength];
+            this.index = index;
+            this.position = position;
+        }
+
+        /**
+         * Opens multi-frame .pif to append frames, creating it if it doesn't exist. The first appended frame is a keyframe.
+         * @param path address of the .pif file, file name and its type
+         * @param width width of the frames, the same as in the file if it exists
+         * @param height height of the frames, the same as in the file if it exists
+         * @param authorInitials mandatory 3 bytes in .pif structure, used if the file is created or its trailer was lost
+         * @param signature mandatory 16 bytes in .pif structure, used if the file is created or its trailer was lost
+         * @param keyframeInterval most frames stored as deltas after each keyframe
+         * @return writer positioned after the last frame of the file
+         */
+        public static Writer open(String path, int width, int height, String authorInitials, String signature,
+                                  int keyframeInterval) throws IOException {
+            FileChannel channel = FileChannel.open(Path.of(path), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                PIF created = PIFLayout.newPIF(width, height, authorInitials, signature, PIF.FRAMES);
+                created.getHeader().setExtensions(true);
+                if (channel.size() == 0) {
+                    ByteBuffer header = ByteBuffer.allocate(PIF.HEADER_LENGTH);
+                    PIFLayout.writeHeader(created, header);
+                    writeFully(channel, header.flip(), 0);
+                    return new Writer(channel, created, ByteBuffer.allocate(ENTRY_LENGTH * 64).order(ByteOrder.LITTLE_ENDIAN),
+                            PIF.HEADER_LENGTH, keyframeInterval);
+                }
+                Reader reader = new Reader(channel, created);
+                if (reader.getWidth() != width || reader.getHeight() != height) {
+                    throw new IOException("Frames of " + width + "x" + height + " pixels can't be appended to frames of "
+                            + reader.getWidth() + "x" + reader.getHeight() + " pixels");
+                }
+                channel.truncate(reader.end);
+                ByteBuffer index = ByteBuffer.allocate(Math.max(ENTRY_LENGTH * 64, reader.index.capacity() * 2)).order(ByteOrder.LITTLE_ENDIAN);
+                index.put(reader.index.duplicate().flip());
+                return new Writer(channel, reader.pif, index, reader.end, keyframeInterval);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * @return count of frames in the file, with the appended ones
+         */
+        public int getCount() {
+            return index.position() / ENTRY_LENGTH;
+        }
+
+        /**
+         * Appends a frame, as a delta against the previous one unless a keyframe is due or the delta isn't smaller
+         * @param bgr source of width * height * 3 BGR bytes, top row first
+         * @param offset index in bgr where the frame starts
+         */
+        public void writeFrame(byte[] bgr, int offset) throws IOException {
+            byte kind;
+            int length;
+            try (Stats.Timer timer = Stats.start(Stats.Stage.CONVERT)) {
+                timer.bytes(previous.length);
+                kind = hasPrevious && sinceKeyframe < keyframeInterval ? DELTA : KEYFRAME;
+                length = kind == DELTA ? encodeDelta(bgr, offset) : encodeKeyframe(bgr, offset);
+                if (kind == DELTA && length >= keyframeLength) {
+                    kind = KEYFRAME;
+                    length = encodeKeyframe(bgr, offset);
+                }
+                System.arraycopy(bgr, offset, previous, 0, previous.length);
+            }
+            hasPrevious = true;
+            sinceKeyframe = kind == KEYFRAME ? 1 : sinceKeyframe + 1;
+            keyframeLength = kind == KEYFRAME ? length : keyframeLength;
+            frameHeader.clear().put(kind).putInt(length).flip();
+            try (Stats.Timer timer = Stats.start(Stats.Stage.WRITE)) {
+                timer.bytes(FRAME_HEADER_LENGTH + length);
+                writeFully(channel, frameHeader, position);
+                writeFully(channel, ByteBuffer.wrap(body, 0, length), position + FRAME_HEADER_LENGTH);
+            }
+            if (!index.hasRemaining()) {
+                index = ByteBuffer.allocate(Math.multiplyExact(index.capacity(), 2)).order(ByteOrder.LITTLE_ENDIAN).put(index.flip());
+            }
+            index.putLong(position).putInt(length).put(kind).put((byte) 0).putShort((short) 0);
+            position += FRAME_HEADER_LENGTH + length;
+        }
+
+        private int encodeKeyframe(byte[] bgr, int offset) {
+            int length = 0;
+            for (int y = 0; y < height; y++) {
+                length += RunLength.encodeRow(bgr, offset + y * rowLength, width, body, length);
+            }
+            return length;
+        }
+
+        private int encodeDelta(byte[] bgr, int offset) {
+            int length = 0;
+            for (int y = 0; y < height; y++) {
+                int start = y * rowLength;
+                if (Arrays.equals(bgr, offset + start, offset + start + rowLength, previous, start, start + rowLength)) {
+                    body[length++] = SAME_ROW;
+                    continue;
+                }
+                for (int i = 0; i < rowLength; i++) {
+                    row[i] = (byte) (bgr[offset + start + i] ^ previous[start + i]);
+                }
+                body[length++] = CHANGED_ROW;
+                length += RunLength.encodeRow(row, 0, width, body, length);
+            }
+            return length;
+        }
+
+        /**
+         * Writes the extension area with the frame index and the trailer, and closes the file
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                Map<String, byte[]> blocks = new LinkedHashMap<>(pif.getExtensions());
+                blocks.remove(TAG);
+                blocks.put(TAG, Arrays.copyOf(index.array(), index.position()));
+                ByteBuffer trailer = ByteBuffer.allocate(PIF.TRAILER_LENGTH);
+                PIFLayout.writeTrailer(pif, trailer);
+                for (ByteBuffer part : Extensions.buffers(blocks)) {
+                    int length = part.remaining();
+                    writeFully(channel, part, position);
+                    position += length;
+                }
+                writeFully(channel, trailer.flip(), position);
+                channel.truncate(position + PIF.TRAILER_LENGTH);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Decodes any frame of multi-frame .pif, from the keyframe before it, or from the frame read before if it's the next one
+     */
+    public static class Reader implements Closeable {
+        private final FileChannel channel;
+        private final PIF pif = new PIF();
+        private final ByteBuffer index;
+        private final long end;
+        private final int rowLength;
+        private byte[] current;
+        private byte[] row;
+        private ByteBuffer body = ByteBuffer.allocate(0);
+        private int decoded = -1;
+
+        /**
+         * Reads the header, trailer and frame index of multi-frame .pif
+         * @param channel opened .pif, closed with the reader
+         */
+        public Reader(FileChannel channel) throws IOException {
+            this(channel, null);
+        }
+
+        /**
+         * @param recovered trailer used if the file has none, as the writing process stopped before it was written,
+         *                  the frames are then found from their kinds and lengths, null to fail instead
+         */
+        private Reader(FileChannel channel, PIF recovered) throws IOException {
+            this.channel = channel;
+            long size = channel.size();
+            if (size < PIF.HEADER_LENGTH) {
+                throw new EOFException("File is too short to be .pif");
+            }
+            ByteBuffer header = ByteBuffer.allocate(PIF.HEADER_LENGTH);
+            FileIO.readFully(channel, header, 0);
+            PIFLayout.readHeader(header.flip(), pif);
+            if (pif.getHeader().imageType != PIF.FRAMES) {
+                throw new IOException("File isn't multi-frame .pif");
+            }
+            this.rowLength = getWidth() * 3;
+            ByteBuffer found;
+            long areaStart;
+            try {
+                ByteBuffer trailer = ByteBuffer.allocate(PIF.TRAILER_LENGTH);
+                FileIO.readFully(channel, trailer, size - PIF.TRAILER_LENGTH);
+                long areaLength = Extensions.areaLength(pif.getHeader(), channel);
+                areaStart = size - PIF.TRAILER_LENGTH - areaLength;
+                if (areaLength == 0 || areaLength > Integer.MAX_VALUE || areaStart < PIF.HEADER_LENGTH) {
+                    throw new IOException("Frame index is missing");
+                }
+                ByteBuffer area = ByteBuffer.allocate((int) areaLength);
+                FileIO.readFully(channel, area, areaStart);
+                Map<String, byte[]> blocks = Extensions.read(area.flip());
+                byte[] entries = blocks.get(TAG);
+                if (entries == null || entries.length % ENTRY_LENGTH != 0) {
+                    throw new IOException("Frame index is missing");
+                }
+                pif.getExtensions().putAll(blocks);
+                pif.getExtensions().remove(TAG);
+                PIFLayout.readTrailer(trailer.flip(), pif);
+                found = ByteBuffer.wrap(entries).order(ByteOrder.LITTLE_ENDIAN).position(entries.length);
+            } catch (IOException e) {
+                if (recovered == null) {
+                    throw e;
+                }
+                pif.getContent().authorInitials = recovered.getContent().authorInitials;
+                pif.getContent().dateAndTime = recovered.getContent().dateAndTime;
+                pif.getFooter().signature = recovered.getFooter().signature;
+                found = scan(channel, size);
+                areaStart = found.position() == 0 ? PIF.HEADER_LENGTH : found.getLong(found.position() - ENTRY_LENGTH)
+                        + FRAME_HEADER_LENGTH + found.getInt(found.position() - ENTRY_LENGTH + 8);
+            }
+            this.index = found;
+            this.end = areaStart;
+        }
+
+        /**
+         * Finds the frames from their kinds and lengths, up to the last complete one
+         * @return index entries of the frames, positioned after the last one
+         */
+        private static ByteBuffer scan(FileChannel channel, long size) throws IOException {
+            ByteBuffer index = ByteBuffer.allocate(ENTRY_LENGTH * 64).order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer frameHeader = ByteBuffer.allocate(FRAME_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+            long position = PIF.HEADER_LENGTH;
+            while (position + FRAME_HEADER_LENGTH <= size) {
+                FileIO.readFully(channel, frameHeader.clear(), position);
+                byte kind = frameHeader.get(0);
+                long length = Integer.toUnsignedLong(frameHeader.getInt(1));
+                if (kind != KEYFRAME && kind != DELTA || index.position() == 0 && kind != KEYFRAME
+                        || position + FRAME_HEADER_LENGTH + length > size) {
+                    break;
+                }
+                if (!index.hasRemaining()) {
+                    index = ByteBuffer.allocate(Math.multiplyExact(index.capacity(), 2)).order(ByteOrder.LITTLE_ENDIAN).put(index.flip());
+                }
+                index.putLong(position).putInt((int) length).put(kind).put((byte) 0).putShort((short) 0);
+                position += FRAME_HEADER_LENGTH + length;
+            }
+            return index;
+        }
+
+        public int getWidth() {
+            return pif.getHeader().getWidth();
+        }
+
+        public int getHeight() {
+            return pif.getHeader().getHeight();
+        }
+
+        /**
+         * @return PIF holding the header, initials, date and time, signature and extension blocks other than the index
+         */
+        public PIF getPIF() {
+            return pif;
+        }
+
+        /**
+         * @return count of frames
+         */
+        public int getCount() {
+            return index.position() / ENTRY_LENGTH;
+        }
+
+        /**
+         * @param frame index of the frame
+         * @return true if the frame is stored whole, false if it's a delta against the previous one
+         */
+        public boolean isKeyframe(int frame) {
+            checkFrame(frame);
+            return index.get(frame * ENTRY_LENGTH + 12) == KEYFRAME;
+        }
+
+        /**
+         * Decodes a frame
+         * @param frame index of the frame, from 0
+         * @param bgr destination of width * height * 3 BGR bytes, top row first
+         * @param offset index in bgr where the frame starts
+         */
+        public void readFrame(int frame, byte[] bgr, int offset) throws IOException {
+            checkFrame(frame);
+            if (current == null) {
+                current = new byte[frameLength(getWidth(), getHeight())];
+                row = new byte[rowLength];
+            }
+            int first = frame;
+            if (frame != decoded + 1 || decoded < 0 || isKeyframe(frame)) {
+                while (first > 0 && !isKeyframe(first)) {
+                    first--;
+                }
+                if (!isKeyframe(first)) {
+                    throw new IOException("Frame " + frame + " has no keyframe before it");
+                }
+            }
+            try (Stats.Timer timer = Stats.start(Stats.Stage.CONVERT)) {
+                timer.bytes((long) (frame - first + 1) * current.length);
+                for (int i = first; i <= frame; i++) {
+                    decoded = -1;
+                    decode(i);
+                    decoded = i;
+                }
+            }
+            System.arraycopy(current, 0, bgr, offset, current.length);
+        }
+
+        private void decode(int frame) throws IOException {
+            long position = index.getLong(frame * ENTRY_LENGTH);
+            int length = index.getInt(frame * ENTRY_LENGTH + 8);
+            byte kind = index.get(frame * ENTRY_LENGTH + 12);
+            if (length < 0 || length > Integer.MAX_VALUE - 8 - FRAME_HEADER_LENGTH) {
+                throw new IOException("Frame index is corrupted");
+            }
+            if (body.capacity() < FRAME_HEADER_LENGTH + length) {
+                body = ByteBuffer.allocate(FRAME_HEADER_LENGTH + length).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            try (Stats.Timer timer = Stats.start(Stats.Stage.READ)) {
+                timer.bytes(FRAME_HEADER_LENGTH + length);
+                FileIO.readFully(channel, body.clear().limit(FRAME_HEADER_LENGTH + length), position);
+            }
+            body.flip();
+            if (body.get() != kind || body.getInt() != length) {
+                throw new IOException("Frame " + frame + " doesn't match the frame index");
+            }
+            int width = getWidth();
+            for (int y = 0; y < getHeight(); y++) {
+                if (kind == KEYFRAME) {
+                    RunLength.decodeRow(body, width, current, y * rowLength);
+                    continue;
+                }
+                byte change = body.get();
+                if (change == CHANGED_ROW) {
+                    RunLength.decodeRow(body, width, row, 0);
+                    int start = y * rowLength;
+                    for (int i = 0; i < rowLength; i++) {
+                        current[start + i] ^= row[i];
+                    }
+                } else if (change != SAME_ROW) {
+                    throw new IOException("Frame " + frame + " is corrupted");
+                }
+            }
+            if (body.hasRemaining()) {
+                throw new IOException("Frame " + frame + " has " + body.remaining() + " bytes after its last row");
+            }
+        }
+
+        private void checkFrame(int frame) {
+            if (frame < 0 || frame >= getCount()) {
+                throw new IllegalArgumentException("Frame " + frame + " isn't between 0 and " + (getCount() - 1));
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
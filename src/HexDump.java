@@ -0,0 +1,75 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Writes hexdump-like output while reading, so only a buffer and a line are held in memory
+ */
+public class HexDump {
+    private static final byte[] DIGITS = "0123456789abcdef".getBytes();
+    private static final int BUFFER_LENGTH = 1 << 16;
+
+    /**
+     * Prints the line with column numbers
+     * @param out destination of the output
+     */
+    public static void columns(PrintStream out) {
+        out.print(" ".repeat(17) + "00 01 02 03 04 05 06 07 08 09 0A 0B 0C 0D 0E 0F\n");
+    }
+
+    /**
+     * Prints bytes of the channel, 16 per line, each line starting with its address, a multiple of 16, so every byte
+     * is under its column number, the first line is left blank before the address if it isn't a multiple of 16
+     * @param channel source of the bytes, read from its current position
+     * @param address address of the first byte read
+     * @param length maximal count of bytes read, stops earlier at the end of the channel
+     * @param out destination of the output
+     */
+    public static void dump(ReadableByteChannel channel, long address, long length, PrintStream out) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_LENGTH);
+        byte[] line = new byte[17 + 16 * 3 + 1];
+        int column = (int) (address & 15);
+        int i = 0;
+        long remaining = length;
+        while (remaining > 0) {
+            buffer.clear();
+            if (remaining < BUFFER_LENGTH) {
+                buffer.limit((int) remaining);
+            }
+            int read = channel.read(buffer);
+            if (read < 0) {
+                break;
+            }
+            remaining -= read;
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                if (i == 0) {
+                    long start = address - column;
+                    for (; i < 16; i++) {
+                        line[i] = DIGITS[(int) (start >>> (60 - i * 4)) & 15];
+                    }
+                    line[i++] = ' ';
+                    for (int blank = 0; blank < column * 3; blank++) {
+                        line[i++] = ' ';
+                    }
+                }
+                byte b = buffer.get();
+                line[i++] = DIGITS[(b >> 4) & 15];
+                line[i++] = DIGITS[b & 15];
+                line[i++] = ' ';
+                address++;
+                if (++column == 16) {
+                    line[i++] = '\n';
+                    out.write(line, 0, i);
+                    column = 0;
+                    i = 0;
+                }
+            }
+        }
+        if (i > 0) {
+            line[i++] = '\n';
+            out.write(line, 0, i);
+        }
+    }
+}
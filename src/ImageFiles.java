@@ -0,0 +1,92 @@
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.util.Iterator;
+
+/**
+ * Handles general image files through ImageIO, kept apart from FileIO, as it loads AWT
+ */
+public class ImageFiles {
+    /**
+     * Reads general image files and outputs BufferedImage
+     * @param path address of the file, file name and its type
+     * @return constructed raster in BufferedImage
+     */
+    public static BufferedImage readImage(String path) throws IOException {
+        File file = new File(path);
+        return ImageIO.read(file);
+    }
+
+    /**
+     * Writes regular image files, replacing the file only once it's complete
+     * @param path address of the file, file name and its type
+     * @param image image raster in BufferedImage
+     */
+    public static void writeImage(String path, BufferedImage image) throws IOException {
+        String fileType = path.substring(path.lastIndexOf('.') + 1);
+        try (FileIO.AtomicOutput output = FileIO.createAtomic(path, FileIO.Sync.NONE)) {
+            OutputStream stream = new BufferedOutputStream(Channels.newOutputStream(output.channel()), 1 << 16);
+            if (!ImageIO.write(image, fileType, stream)) {
+                throw new IOException("No writer for " + fileType);
+            }
+            stream.flush();
+            output.commit();
+        }
+    }
+
+    /**
+     * Reads dimensions of general image files from their header, without decoding the raster
+     * @param path address of the file, file name and its type
+     * @return width and height, or null if no reader knows the format
+     */
+    public static Dimension readImageSize(String path) throws IOException {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(new File(path))) {
+            if (stream == null) {
+                throw new IOException("Can't open " + path);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Decodes bytes of general image files
+     * @param contents all bytes of the file
+     * @return constructed raster in BufferedImage, or null if no reader knows the format
+     */
+    public static BufferedImage decodeImage(byte[] contents) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(contents));
+    }
+
+    /**
+     * Encodes image raster to bytes of general image files
+     * @param image image raster in BufferedImage
+     * @param fileType extension of the format
+     * @return all bytes of the file
+     */
+    public static byte[] encodeImage(BufferedImage image, String fileType) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, fileType, result)) {
+            throw new IOException("No writer for " + fileType);
+        }
+        return result.toByteArray();
+    }
+}
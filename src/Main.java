@@ -1,34 +1,133 @@
+import java.time.LocalDate;
+import java.util.Arrays;
+
 public class Main {
     /**
-     * Handles main operations
+     * Handles main operations. Classes of each command are loaded only when it runs, so metadata and hexdump
+     * never load AWT or ImageIO, and AWT always runs headless, without a display.
      */
     public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
         if (args.length == 0) {
             Selector.cycle();
         }
+        if (Client.forward(args)) {
+            return;
+        }
+        run(args);
+    }
+
+    /**
+     * Runs one command in this JVM
+     * @param args command line arguments
+     */
+    static void run(String[] args) {
+        Stats stats = Arrays.asList(args).contains("--stats") ? Stats.enable() : null;
         try {
             switch (args[0].toLowerCase()) {
                 case "encode" -> {
                     String authorInitials = "", signature = "";
-                    if (args.length > 5) {
-                        if (args[5].equals("--initials")) {
-                            authorInitials = args[6];
-                        } else if (args[5].equals("--signature")) {
-                            signature = args[6];
+                    byte imageType = PIF.UNCOMPRESSED;
+                    boolean pyramid = false, checksums = false;
+                    for (int i = 5; i < args.length; i++) {
+                        switch (args[i]) {
+                            case "--initials" -> authorInitials = args[++i];
+                            case "--signature" -> signature = args[++i];
+                            case "--compression" -> imageType = imageType(args[++i]);
+                            case "--pyramid" -> pyramid = true;
+                            case "--checksum" -> checksums = true;
+                        }
+                    }
+                    Selector.encode(args[2], args[4], authorInitials, signature, imageType, pyramid, checksums);
+                }
+                case "decode" -> {
+                    String fileType = "png";
+                    int[] region = null;
+                    int subsample = 1;
+                    int thumbnail = 0, frame = -1;
+                    for (int i = 5; i < args.length; i++) {
+                        switch (args[i]) {
+                            case "--format" -> fileType = args[++i];
+                            case "--region" -> region = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+                            case "--subsample" -> subsample = Integer.parseInt(args[++i]);
+                            case "--thumbnail" -> thumbnail = Integer.parseInt(args[++i]);
+                            case "--frame" -> frame = Integer.parseInt(args[++i]);
                         }
                     }
-                    if (args.length > 7) {
-                        if (args[7].equals("--initials")) {
-                            authorInitials = args[8];
-                        } else if (args[7].equals("--signature")) {
-                            signature = args[8];
+                    if (frame >= 0) {
+                        Selector.decodeFrame(args[2], args[4], frame);
+                    } else if (thumbnail > 0) {
+                        Selector.thumbnail(args[2], args[4], thumbnail);
+                    } else if (region != null || subsample != 1) {
+                        region = region == null ? new int[]{0, 0, -1, -1} : region;
+                        Selector.decodeRegion(args[2], args[4], region[0], region[1], region[2], region[3], subsample);
+                    } else {
+                        Selector.decode(args[2], args[4], fileType);
+                    }
+                }
+                case "frames" -> {
+                    String authorInitials = "", signature = "";
+                    int keyframeInterval = Frames.DEFAULT_KEYFRAME_INTERVAL;
+                    for (int i = 5; i < args.length; i++) {
+                        switch (args[i]) {
+                            case "--initials" -> authorInitials = args[++i];
+                            case "--signature" -> signature = args[++i];
+                            case "--keyframes" -> keyframeInterval = Integer.parseInt(args[++i]);
                         }
                     }
-                    Selector.encode(args[2], args[4], authorInitials, signature);
+                    Selector.frames(args[2], args[4], authorInitials, signature, keyframeInterval);
                 }
-                case "decode" -> Selector.decode(args[2], args[4]);
                 case "metadata" -> Selector.metadata(args[2]);
-                case "hexdump" -> Selector.hexDump(args[2]);
+                case "verify" -> Selector.verify(args[2]);
+                case "index" -> Selector.index(args[2], args[4]);
+                case "query" -> {
+                    String initials = null, signature = null;
+                    int fromDate = 0, toDate = Integer.MAX_VALUE, imageType = -1;
+                    int[] width = {0, Integer.MAX_VALUE}, height = {0, Integer.MAX_VALUE};
+                    boolean countOnly = false;
+                    for (int i = 3; i < args.length; i++) {
+                        switch (args[i]) {
+                            case "--initials" -> initials = args[++i];
+                            case "--signature" -> signature = args[++i];
+                            case "--from" -> fromDate = date(args[++i]);
+                            case "--to" -> toDate = date(args[++i]);
+                            case "--width" -> width = range(args[++i]);
+                            case "--height" -> height = range(args[++i]);
+                            case "--compression" -> imageType = imageType(args[++i]);
+                            case "--count" -> countOnly = true;
+                            default -> {
+                                // a filter misspelled would match every file
+                                System.out.println("Invalid argument(s)");
+                                return;
+                            }
+                        }
+                    }
+                    Selector.query(args[2], new Catalog.Query(initials, signature, fromDate, toDate,
+                            width[0], width[1], height[0], height[1], imageType), countOnly);
+                }
+                case "hexdump" -> {
+                    long offset = 0, length = -1;
+                    boolean headerAndTrailer = false;
+                    for (int i = 3; i < args.length; i++) {
+                        switch (args[i]) {
+                            case "--offset" -> offset = Long.decode(args[++i]);
+                            case "--length" -> length = Long.decode(args[++i]);
+                            case "--header-trailer" -> headerAndTrailer = true;
+                        }
+                    }
+                    Selector.hexDump(args[2], offset, length, headerAndTrailer);
+                }
+                case "serve" -> {
+                    int port = Client.port() == 0 ? Client.DEFAULT_PORT : Client.port();
+                    int threads = Runtime.getRuntime().availableProcessors();
+                    for (int i = 1; i < args.length; i++) {
+                        switch (args[i]) {
+                            case "--port" -> port = Integer.parseInt(args[++i]);
+                            case "--threads" -> threads = Integer.parseInt(args[++i]);
+                        }
+                    }
+                    Server.serve(port, threads);
+                }
                 case "help", "-help", "--help", "h", "-h", "--h" -> System.out.println("""
                         Encoding (regular to .pif)
                             Mandatory
@@ -36,15 +135,68 @@ public class Main {
                             May include (after mandatory)
                                 --initials AuthorInitials (max 2 characters)
                                 --signature Signature (max 16 characters)
+                                --compression Compression (none by default, rle for run-length packets, tiled for Deflate tiles)
+                                --pyramid (stores thumbnails at 1/2, 1/4, ... down to 256 pixels after the pixels)
+                                --checksum (stores CRC32C checksums of every 1 MB of the file after the pixels)
                         
                         Decoding
-                            decode -i InputPath -o OutputPath
+                            Mandatory
+                                decode -i InputPath -o OutputPath
+                            May include (after mandatory)
+                                --format Format (type of output files for many input files, png by default)
+                                --region X,Y,Width,Height (decodes only the rectangle)
+                                --subsample N (keeps every N-th pixel of every N-th row)
+                                --thumbnail Size (decodes the largest pyramid level fitting Size pixels)
+                                --frame N (decodes the frame N, from 0, of multi-frame .pif)
+                        
+                        Frames (appends images of the same size to multi-frame .pif, creating it if needed)
+                            Mandatory
+                                frames -i InputPath -o OutputPath
+                            May include (after mandatory)
+                                --initials AuthorInitials (max 2 characters)
+                                --signature Signature (max 16 characters)
+                                --keyframes N (stores a whole frame after at most N deltas, 60 by default)
                         
                         Metadata
                             metadata -i InputPath
                         
+                        Verify (checks the checksums, without decoding)
+                            verify -i InputPath
+                        
+                        Statistics
+                            --stats (after any encode, decode, metadata or verify, prints time, throughput
+                            and allocation of every stage, reading, decoding, conversion, writing...)
+                        
+                        Catalog (finds .pif files by metadata without opening them)
+                            index -i Directory -o CatalogPath (only changed files are read again)
+                            query -i CatalogPath
+                            May include (after mandatory)
+                                --initials AuthorInitials
+                                --signature Signature (start of the signature)
+                                --from Date --to Date (encoding date, like 2024-01-31, inclusive)
+                                --width Min-Max --height Min-Max (like 1920-, -800 or 1000-2000)
+                                --compression Compression (none, rle or tiled)
+                                --count (prints only the count of files)
+                        
+                        Many files
+                            InputPath may be a directory, a glob like "images/*.png" or @ListFile with a path
+                            on each line, OutputPath is then a directory
+                        
                         Hexdump
-                            hexdump -i InputPath
+                            Mandatory
+                                hexdump -i InputPath
+                            May include (after mandatory)
+                                --offset Offset (first byte printed, decimal or 0x hex)
+                                --length Length (count of bytes printed)
+                                --header-trailer (only header and trailer)
+                        
+                        Daemon
+                            serve
+                            May include
+                                --port Port (7171 or PIF_PORT by default)
+                                --threads Threads (count of jobs run at once, count of cores by default)
+                            While it runs, encode and decode of single files are sent to it, set PIF_PORT=0
+                            to run them here
                         
                         """);
                 default -> System.out.println("Invalid argument(s)");
@@ -53,6 +205,47 @@ public class Main {
             System.out.println("Error with reading arguments");
         } catch (Exception e) {
             System.out.println("Unhandled error" + e.getMessage());
+        } finally {
+            if (stats != null) {
+                Stats.disable();
+                stats.report(System.out);
+            }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * @param date date like 2024-01-31
+     * @return the date as yyyymmdd
+     */
+    static int date(String date) {
+        LocalDate parsed = LocalDate.parse(date);
+        return parsed.getYear() * 10000 + parsed.getMonthValue() * 100 + parsed.getDayOfMonth();
+    }
+
+    /**
+     * @param range least and largest number separated by -, either may be left out, like 1920-, -800 or 1000-2000
+     * @return least and largest number
+     */
+    static int[] range(String range) {
+        int separator = range.indexOf('-');
+        if (separator < 0) {
+            int value = Integer.parseInt(range);
+            return new int[]{value, value};
+        }
+        String least = range.substring(0, separator), largest = range.substring(separator + 1);
+        return new int[]{least.isEmpty() ? 0 : Integer.parseInt(least), largest.isEmpty() ? Integer.MAX_VALUE : Integer.parseInt(largest)};
+    }
+
+    /**
+     * @param compression name of the compression, none, rle or tiled
+     * @return image type storing pixels with the compression
+     */
+    static byte imageType(String compression) {
+        return switch (compression) {
+            case "none" -> PIF.UNCOMPRESSED;
+            case "rle" -> PIF.RUN_LENGTH;
+            case "tiled" -> PIF.TILED;
+            default -> throw new IllegalArgumentException("Unknown compression " + compression);
+        };
+    }
+}
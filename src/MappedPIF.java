@@ -0,0 +1,103 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Objects;
+
+/**
+ * Memory-mapped .pif with random access to pixels, the pixels are read from the page cache on access
+ * and never copied as a whole. Pixels are indexed by long, so images over 2 GB are mapped too.
+ */
+public class MappedPIF {
+    private final PIF pif = new PIF();
+    private final MappedSegments pixels;
+
+    /**
+     * Maps .pif and reads its header and trailer
+     * @param path address of the .pif file, file name and its type
+     */
+    public MappedPIF(String path) throws IOException {
+        try (FileChannel channel = FileIO.openRead(path)) {
+            long size = channel.size();
+            if (size < PIF.HEADER_LENGTH + PIF.TRAILER_LENGTH) {
+                throw new IOException("File is too short to be .pif");
+            }
+            ByteBuffer header = ByteBuffer.allocate(PIF.HEADER_LENGTH);
+            FileIO.readFully(channel, header, 0);
+            PIFLayout.readHeader(header.flip(), pif);
+            ByteBuffer trailer = ByteBuffer.allocate(PIF.TRAILER_LENGTH);
+            FileIO.readFully(channel, trailer, size - PIF.TRAILER_LENGTH);
+            PIFLayout.readTrailer(trailer.flip(), pif);
+            if (pif.getHeader().imageType != PIF.UNCOMPRESSED) {
+                throw new IOException("Only uncompressed .pif can be mapped, image type is " + pif.getHeader().imageType);
+            }
+            long length = (long) getWidth() * getHeight() * 3;
+            if (size - PIF.HEADER_LENGTH - PIF.TRAILER_LENGTH - Extensions.areaLength(pif.getHeader(), channel) < length) {
+                throw new IOException("File is shorter than its dimensions require");
+            }
+            pixels = new MappedSegments(channel, PIF.HEADER_LENGTH, length);
+        }
+    }
+
+    public int getWidth() {
+        return pif.getHeader().getWidth();
+    }
+
+    public int getHeight() {
+        return pif.getHeader().getHeight();
+    }
+
+    /**
+     * @return PIF with the header and trailer, its content image is always empty
+     */
+    public PIF getPIF() {
+        return pif;
+    }
+
+    /**
+     * @return the 24-bit BGR pixels, top-left origin, indexed from the first pixel
+     */
+    public MappedSegments pixels() {
+        return pixels;
+    }
+
+    /**
+     * Reads one pixel
+     * @param x column of the pixel
+     * @param y row of the pixel
+     * @return color as 0xRRGGBB
+     */
+    public int getPixel(int x, int y) {
+        Objects.checkIndex(x, getWidth());
+        Objects.checkIndex(y, getHeight());
+        long i = ((long) y * getWidth() + x) * 3;
+        return (Byte.toUnsignedInt(pixels.get(i + 2)) << 16) + (Byte.toUnsignedInt(pixels.get(i + 1)) << 8) + Byte.toUnsignedInt(pixels.get(i));
+    }
+
+    /**
+     * Reads one row of pixels
+     * @param y index of the row
+     * @param bgr destination of width * 3 BGR bytes
+     */
+    public void readRow(int y, byte[] bgr) {
+        Objects.checkIndex(y, getHeight());
+        pixels.get((long) y * getWidth() * 3, bgr, 0, getWidth() * 3);
+    }
+
+    /**
+     * Reads a rectangle of pixels
+     * @param x column of the top-left corner
+     * @param y row of the top-left corner
+     * @param width width of the rectangle
+     * @param height height of the rectangle
+     * @return width * height * 3 BGR bytes of the rectangle, top-left origin
+     */
+    public byte[] readRegion(int x, int y, int width, int height) {
+        Objects.checkFromIndexSize(x, width, getWidth());
+        Objects.checkFromIndexSize(y, height, getHeight());
+        byte[] result = new byte[Math.toIntExact((long) width * height * 3)];
+        for (int row = 0; row < height; row++) {
+            pixels.get(((long) (y + row) * getWidth() + x) * 3, result, row * width * 3, width * 3);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,110 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Objects;
+
+/**
+ * Long-indexed bytes of a part of a file, mapped as several segments of at most 1 GB each,
+ * so parts over 2 GB are accessed without reading them into the heap. Numbers are little endian, as in .pif
+ */
+public class MappedSegments {
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_LENGTH = 1L << SEGMENT_SHIFT;
+
+    private final MappedByteBuffer[] segments;
+    private final long length;
+
+    /**
+     * Maps the part of the file read-only, the mapping stays valid after the channel is closed
+     * @param channel opened file, at least position + length long
+     * @param position index in the file of the first mapped byte
+     * @param length count of mapped bytes
+     */
+    public MappedSegments(FileChannel channel, long position, long length) throws IOException {
+        this.length = length;
+        this.segments = new MappedByteBuffer[(int) ((length + SEGMENT_LENGTH - 1) >> SEGMENT_SHIFT)];
+        for (int i = 0; i < segments.length; i++) {
+            long start = (long) i << SEGMENT_SHIFT;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position + start, Math.min(SEGMENT_LENGTH, length - start));
+            segments[i].order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * @return count of mapped bytes
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * @param index index of the byte, counted from the first mapped byte
+     * @return the byte
+     */
+    public byte get(long index) {
+        Objects.checkIndex(index, length);
+        return segments[(int) (index >> SEGMENT_SHIFT)].get((int) (index & (SEGMENT_LENGTH - 1)));
+    }
+
+    /**
+     * @param index index of the first byte, counted from the first mapped byte
+     * @return little endian number of 2 bytes, across segments if needed
+     */
+    public short getShort(long index) {
+        return (short) getLittleEndian(index, 2);
+    }
+
+    /**
+     * @param index index of the first byte, counted from the first mapped byte
+     * @return little endian number of 4 bytes, across segments if needed
+     */
+    public int getInt(long index) {
+        return (int) getLittleEndian(index, 4);
+    }
+
+    /**
+     * @param index index of the first byte, counted from the first mapped byte
+     * @return little endian number of 8 bytes, across segments if needed
+     */
+    public long getLong(long index) {
+        return getLittleEndian(index, 8);
+    }
+
+    private long getLittleEndian(long index, int count) {
+        Objects.checkFromIndexSize(index, count, length);
+        int inSegment = (int) (index & (SEGMENT_LENGTH - 1));
+        MappedByteBuffer segment = segments[(int) (index >> SEGMENT_SHIFT)];
+        if (inSegment + count <= segment.limit()) {
+            return switch (count) {
+                case 2 -> segment.getShort(inSegment);
+                case 4 -> segment.getInt(inSegment);
+                default -> segment.getLong(inSegment);
+            };
+        }
+        long value = 0;
+        for (int i = count - 1; i >= 0; i--) {
+            value = value << 8 | Byte.toUnsignedLong(get(index + i));
+        }
+        return value;
+    }
+
+    /**
+     * Copies bytes out, across segments if needed
+     * @param index index of the first byte, counted from the first mapped byte
+     * @param destination array receiving the bytes
+     * @param offset index in destination of the first byte
+     * @param count count of bytes
+     */
+    public void get(long index, byte[] destination, int offset, int count) {
+        Objects.checkFromIndexSize(index, count, length);
+        while (count > 0) {
+            int inSegment = (int) (index & (SEGMENT_LENGTH - 1));
+            int part = (int) Math.min(count, SEGMENT_LENGTH - inSegment);
+            segments[(int) (index >> SEGMENT_SHIFT)].get(inSegment, destination, offset, part);
+            index += part;
+            offset += part;
+            count -= part;
+        }
+    }
+}
@@ -1,12 +1,63 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
 import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Handles the PIF structure
  */
 public class PIF {
+    /**
+     * Length of the header, bytes before the pixels
+     */
+    public static final int HEADER_LENGTH = 13;
+    /**
+     * Length of the trailer, initials, date and time, signature and the 2 reserved bytes after the pixels
+     */
+    public static final int TRAILER_LENGTH = 33;
+    /**
+     * Image type of uncompressed 24-bit BGR pixels
+     */
+    public static final byte UNCOMPRESSED = 2;
+    /**
+     * Image type of 24-bit BGR pixels in run-length packets, see RunLength
+     */
+    public static final byte RUN_LENGTH = 10;
+    /**
+     * Image type of 24-bit BGR pixels in tiles compressed by Deflate, see Tiles
+     */
+    public static final byte TILED = 34;
+    /**
+     * Image type of a sequence of frames of the same size sharing the header and trailer, see Frames
+     */
+    public static final byte FRAMES = 66;
+    /**
+     * Bit of the first color map specification byte set when an extension area follows the pixels, see Extensions
+     */
+    public static final byte EXTENSIONS = 1;
+    /**
+     * Bit of the first color map specification byte set when the dimensions have 31 bits, their high 16 bits follow
+     * in the color map specification, 2 bytes for the width and 2 for the height
+     */
+    public static final byte LARGE = 2;
+    /**
+     * Largest width or height without the LARGE bit
+     */
+    public static final int MAX_SMALL_SIZE = 0xFFFF;
+    /**
+     * Largest width whose rows, run-length encoded too, fit in an array, so they can be streamed
+     */
+    public static final int MAX_WIDTH = Integer.MAX_VALUE / 4;
+
     private final Header header;
     private final Content content;
     private final Footer footer;
+    private final Map<String, byte[]> extensions = new LinkedHashMap<>();
 
     /**
      * Creates PIF parameters, so they're not null
@@ -29,6 +80,13 @@ public class PIF {
         return footer;
     }
 
+    /**
+     * @return bodies of the extension blocks by their tags, outputted between the pixels and the trailer
+     */
+    public Map<String, byte[]> getExtensions() {
+        return extensions;
+    }
+
     /**
      * A header of the .pif
      */
@@ -38,6 +96,70 @@ public class PIF {
         byte[] colorMapSpecification = new byte[5];
         byte[] imageSpecification = new byte[6];
 
+        /**
+         * @return width of the image in pixels
+         */
+        public int getWidth() {
+            return size(imageSpecification[0], imageSpecification[1], colorMapSpecification[1], colorMapSpecification[2]);
+        }
+
+        /**
+         * @return height of the image in pixels
+         */
+        public int getHeight() {
+            return size(imageSpecification[2], imageSpecification[3], colorMapSpecification[3], colorMapSpecification[4]);
+        }
+
+        /**
+         * @return true if the dimensions have 31 bits
+         */
+        public boolean isLarge() {
+            return (colorMapSpecification[0] & LARGE) != 0;
+        }
+
+        /**
+         * Stores the dimensions, setting the LARGE bit only if one is over MAX_SMALL_SIZE
+         * @param width width of the image in pixels
+         * @param height height of the image in pixels
+         */
+        void setDimensions(int width, int height) {
+            if (width < 0 || height < 0) {
+                throw new IllegalArgumentException("Dimensions must not be negative");
+            }
+            boolean large = width > MAX_SMALL_SIZE || height > MAX_SMALL_SIZE;
+            colorMapSpecification[0] = (byte) (large ? colorMapSpecification[0] | LARGE : colorMapSpecification[0] & ~LARGE);
+            imageSpecification[0] = (byte) width;
+            imageSpecification[1] = (byte) (width >>> 8);
+            imageSpecification[2] = (byte) height;
+            imageSpecification[3] = (byte) (height >>> 8);
+            colorMapSpecification[1] = (byte) (large ? width >>> 16 : 0);
+            colorMapSpecification[2] = (byte) (large ? width >>> 24 : 0);
+            colorMapSpecification[3] = (byte) (large ? height >>> 16 : 0);
+            colorMapSpecification[4] = (byte) (large ? height >>> 24 : 0);
+        }
+
+        private int size(byte low0, byte low1, byte high0, byte high1) {
+            int size = (Byte.toUnsignedInt(low1) << 8) + Byte.toUnsignedInt(low0);
+            if (isLarge()) {
+                size += ((high1 & 0x7F) << 24) + (Byte.toUnsignedInt(high0) << 16);
+            }
+            return size;
+        }
+
+        /**
+         * @return true if an extension area follows the pixels
+         */
+        public boolean hasExtensions() {
+            return (colorMapSpecification[0] & EXTENSIONS) != 0;
+        }
+
+        /**
+         * @param present true if an extension area follows the pixels
+         */
+        void setExtensions(boolean present) {
+            colorMapSpecification[0] = (byte) (present ? colorMapSpecification[0] | EXTENSIONS : colorMapSpecification[0] & ~EXTENSIONS);
+        }
+
         /**
          * Prepares for PIF toString
          * @return String of hex format of bytes
@@ -117,25 +239,7 @@ public class PIF {
      * @return metadata of .pif
      */
     public String metadata() {
-        StringBuilder result = new StringBuilder();
-        result.append("Date and Time: ");
-        int year, month, day,  hour, minute, second;
-        year = (Byte.toUnsignedInt(content.dateAndTime[5]) << 8) + Byte.toUnsignedInt(content.dateAndTime[4]);
-        month = (Byte.toUnsignedInt(content.dateAndTime[1]) << 8) + Byte.toUnsignedInt(content.dateAndTime[0]);
-        day = (Byte.toUnsignedInt(content.dateAndTime[3]) << 8) + Byte.toUnsignedInt(content.dateAndTime[2]);
-        hour = (Byte.toUnsignedInt(content.dateAndTime[7]) << 8) + Byte.toUnsignedInt(content.dateAndTime[6]);
-        minute = (Byte.toUnsignedInt(content.dateAndTime[9]) << 8) + Byte.toUnsignedInt(content.dateAndTime[8]);
-        second = (Byte.toUnsignedInt(content.dateAndTime[11]) << 8) + Byte.toUnsignedInt(content.dateAndTime[10]);
-        result.append(year).append("/").append(month).append("/").append(day).append(", ").append(hour).append(":").append(minute).append(":").append(second);
-
-        result.append("\nAuthor Initials: ");
-        result.append((char) content.authorInitials[0]).append((char) content.authorInitials[1]);
-
-        result.append("\nSignature: ");
-        for (byte b : footer.signature) {
-            result.append((char) b);
-        }
-        return result.toString();
+        return PIFMetadata.of(this).toString();
     }
 
     /**
@@ -144,26 +248,14 @@ public class PIF {
      */
     @Override
     public String toString() {
-        HexFormat hex = HexFormat.of();
-
-        String[] bytes = (String.valueOf(header) + content + footer).split(" ");
-
-        StringBuilder result = new StringBuilder();
-        result.append(" ".repeat(17)).append("00 01 02 03 04 05 06 07 08 09 0A 0B 0C 0D 0E 0F\n");
-        long firstColumn = 0;
-        for (int i = 0; i < bytes.length; i+=16) {
-            result.append(hex.toHexDigits(firstColumn)).append(" ");
-            firstColumn += 16;
-            if(i + 16 < bytes.length) {
-                for (int j = 0; j < 16; j++) {
-                    result.append(bytes[i+j]).append(" ");
-                }
-            } else {
-                for (int k = 0; k < (bytes.length-i)%16; k++) {
-                    result.append(bytes[i + k]).append(" ");
-                }
-            }
-            result.append("\n");
+        byte[] bytes = PIFFormater.outputPIF(this);
+        ByteArrayOutputStream result = new ByteArrayOutputStream(bytes.length * 4);
+        PrintStream out = new PrintStream(result);
+        HexDump.columns(out);
+        try {
+            HexDump.dump(Channels.newChannel(new ByteArrayInputStream(bytes)), 0, bytes.length, out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
         return result.toString();
     }
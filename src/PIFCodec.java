@@ -0,0 +1,368 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.WritableRaster;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reusable encoder and decoder of .pif, owning its scratch buffers and a pool of decoded images, so converting
+ * images of the same dimensions again and again allocates nothing once the buffers have grown.
+ * Tiles are compressed one after another on the calling thread. Extension blocks are skipped when decoding and
+ * never written. It isn't thread safe, use one codec per thread.
+ */
+public class PIFCodec {
+    private static final int MAX_POOLED = 8;
+
+    private final PIF output;
+    private final Clock clock;
+    private final PIF input = new PIF();
+    private final List<BufferedImage> pool = new ArrayList<>(MAX_POOLED);
+    private byte[] bgr = new byte[0];
+    private byte[] packets = new byte[0];
+    private int[] row = new int[0];
+    private long[] tileOffsets = new long[0];
+    private int[] tileLengths = new int[0];
+    private ByteBuffer encoded = ByteBuffer.allocate(0);
+    private long dateSecond = Long.MIN_VALUE;
+    private long offsetFrom = Long.MAX_VALUE;
+    private long offsetUntil = Long.MIN_VALUE;
+    private int offsetSeconds;
+
+    /**
+     * Codec dating its trailers in the default time zone at its creation
+     * @param authorInitials mandatory 3 bytes in .pif structure
+     * @param signature mandatory 16 bytes in .pif structure
+     * @param imageType how the pixels are stored, PIF.UNCOMPRESSED, PIF.RUN_LENGTH or PIF.TILED
+     */
+    public PIFCodec(String authorInitials, String signature, byte imageType) {
+        this(authorInitials, signature, imageType, Clock.systemDefaultZone());
+    }
+
+    /**
+     * @param clock source of the date and time of the trailer, in its time zone
+     */
+    PIFCodec(String authorInitials, String signature, byte imageType, Clock clock) {
+        this.output = PIFLayout.newPIF(0, 0, authorInitials, signature, imageType);
+        this.clock = clock;
+    }
+
+    /**
+     * @param width width of the image
+     * @param height height of the image
+     * @param imageType how the pixels are stored
+     * @return most bytes encodeInto writes for an image of these dimensions
+     */
+    public static long maxLength(int width, int height, byte imageType) {
+        long raw = (long) width * height * 3;
+        long payload = switch (imageType) {
+            case PIF.RUN_LENGTH -> (long) RunLength.maxRowLength(width) * height;
+            case PIF.TILED -> {
+                long count = (long) Tiles.count(width, Tiles.DEFAULT_SIZE) * Tiles.count(height, Tiles.DEFAULT_SIZE);
+                yield 2 + raw + raw / 8 + count * (4 + Tiles.INDEX_ENTRY_LENGTH + 64);
+            }
+            default -> raw;
+        };
+        return PIF.HEADER_LENGTH + payload + PIF.TRAILER_LENGTH;
+    }
+
+    /**
+     * Encodes the image as .pif into the destination
+     * @param image raster of the image converted to .pif in BufferedImage
+     * @param destination receives .pif from its position, which is moved after it,
+     *                    maxLength bytes of room are always enough
+     * @return count of bytes written
+     * @throws java.nio.BufferOverflowException if the destination has no room left
+     */
+    public int encodeInto(BufferedImage image, ByteBuffer destination) {
+        int width = image.getWidth(), height = image.getHeight();
+        int length = PIFFormater.imageLength(width, height);
+        PIF.Header header = output.getHeader();
+        header.setDimensions(width, height);
+        refreshDate();
+        int start = destination.position();
+        ByteOrder order = destination.order();
+        destination.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            PIFLayout.writeHeader(output, destination);
+            if (header.imageType == PIF.UNCOMPRESSED && destination.hasArray() && destination.remaining() >= length) {
+                PIFFormater.readBGR(image, 0, height, destination.array(), destination.arrayOffset() + destination.position(), row(width));
+                destination.position(destination.position() + length);
+            } else {
+                PIFFormater.readBGR(image, 0, height, scratch(length), 0, row(width));
+                switch (header.imageType) {
+                    case PIF.RUN_LENGTH -> encodeRunLength(width, height, destination);
+                    case PIF.TILED -> encodeTiled(width, height, destination);
+                    default -> destination.put(bgr, 0, length);
+                }
+            }
+            PIFLayout.writeTrailer(output, destination);
+        } finally {
+            destination.order(order);
+        }
+        return destination.position() - start;
+    }
+
+    /**
+     * Encodes the image as .pif into a buffer owned by the codec
+     * @param image raster of the image converted to .pif in BufferedImage
+     * @return buffer holding .pif between position and limit, valid until the next call
+     */
+    public ByteBuffer encode(BufferedImage image) {
+        long length = maxLength(image.getWidth(), image.getHeight(), output.getHeader().imageType);
+        if (encoded.capacity() < length) {
+            encoded = ByteBuffer.allocate(Math.toIntExact(length));
+        }
+        encodeInto(image, encoded.clear());
+        return encoded.flip();
+    }
+
+    /**
+     * Decodes .pif into the image
+     * @param pif bytes of .pif between position and limit, the position is moved to the limit
+     * @param image destination raster of the same dimensions, written straight into for TYPE_3BYTE_BGR
+     *              and the types read directly by toPIF
+     */
+    public void decodeInto(ByteBuffer pif, BufferedImage image) throws IOException {
+        readHeader(pif);
+        int width = input.getHeader().getWidth(), height = input.getHeader().getHeight();
+        if (image.getWidth() != width || image.getHeight() != height) {
+            throw new IllegalArgumentException("Image is " + image.getWidth() + "x" + image.getHeight() + ", .pif is " + width + "x" + height);
+        }
+        int length = PIFFormater.imageLength(width, height);
+        byte[] pixels = packedData(image);
+        int offset = 0;
+        if (pixels == null) {
+            pixels = scratch(length);
+        } else {
+            offset = ((DataBufferByte) image.getRaster().getDataBuffer()).getOffset();
+        }
+        decodePayload(pif, width, height, pixels, offset);
+        if (pixels == bgr) {
+            PIFFormater.writeBGR(pixels, 0, image, 0, height, row(width));
+        }
+    }
+
+    /**
+     * Decodes .pif into an image taken from the pool, or a new one if none of the same dimensions is pooled
+     * @param pif bytes of .pif between position and limit, the position is moved to the limit
+     * @return TYPE_3BYTE_BGR image, give it back with release once it's no longer used
+     */
+    public BufferedImage decode(ByteBuffer pif) throws IOException {
+        int start = pif.position();
+        readHeader(pif);
+        pif.position(start);
+        int width = input.getHeader().getWidth(), height = input.getHeader().getHeight();
+        BufferedImage image = null;
+        for (int i = pool.size() - 1; i >= 0; i--) {
+            if (pool.get(i).getWidth() == width && pool.get(i).getHeight() == height) {
+                image = pool.remove(i);
+                break;
+            }
+        }
+        if (image == null) {
+            image = PIFFormater.wrapBGR(new byte[PIFFormater.imageLength(width, height)], width, height);
+        }
+        decodeInto(pif, image);
+        return image;
+    }
+
+    /**
+     * Gives an image back to the pool, the oldest pooled image is dropped when the pool is full
+     * @param image image returned by decode, no longer used
+     */
+    public void release(BufferedImage image) {
+        if (pool.size() == MAX_POOLED) {
+            pool.remove(0);
+        }
+        pool.add(image);
+    }
+
+    private void encodeRunLength(int width, int height, ByteBuffer destination) {
+        int rowLength = RunLength.maxRowLength(width);
+        if (packets.length < rowLength) {
+            packets = new byte[rowLength];
+        }
+        for (int y = 0; y < height; y++) {
+            destination.put(packets, 0, RunLength.encodeRow(bgr, y * width * 3, width, packets, 0));
+        }
+    }
+
+    private void encodeTiled(int width, int height, ByteBuffer destination) {
+        int tileSize = Tiles.DEFAULT_SIZE;
+        int across = Tiles.count(width, tileSize);
+        int count = across * Tiles.count(height, tileSize);
+        if (tileOffsets.length < count) {
+            tileOffsets = new long[count];
+            tileLengths = new int[count];
+        }
+        int payload = destination.position();
+        destination.putShort((short) tileSize);
+        for (int i = 0; i < count; i++) {
+            int x = i % across * tileSize, y = i / across * tileSize;
+            int lengthAt = destination.position();
+            tileOffsets[i] = lengthAt - payload;
+            destination.position(lengthAt + 4);
+            tileLengths[i] = Tiles.compress(bgr, (y * width + x) * 3, width * 3, Math.min(tileSize, width - x), Math.min(tileSize, height - y), destination);
+            destination.putInt(lengthAt, tileLengths[i]);
+        }
+        for (int i = 0; i < count; i++) {
+            destination.putLong(tileOffsets[i]).putInt(tileLengths[i]);
+        }
+    }
+
+    /**
+     * Decodes the payload with absolute reads and positions, without slicing the source
+     */
+    private void decodePayload(ByteBuffer pif, int width, int height, byte[] pixels, int offset) throws IOException {
+        int start = pif.position() - PIF.HEADER_LENGTH;
+        int end = pif.limit();
+        int payloadEnd = end - PIF.TRAILER_LENGTH - Extensions.areaLength(input.getHeader(), pif, start);
+        if (payloadEnd < pif.position()) {
+            throw new EOFException("File is too short to be .pif");
+        }
+        ByteOrder order = pif.order();
+        pif.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            switch (input.getHeader().imageType) {
+                case PIF.UNCOMPRESSED -> {
+                    int length = width * height * 3;
+                    if (payloadEnd - pif.position() < length) {
+                        throw new EOFException("Pixels end before the last row");
+                    }
+                    pif.get(pif.position(), pixels, offset, length);
+                }
+                case PIF.RUN_LENGTH -> {
+                    pif.limit(payloadEnd);
+                    for (int y = 0; y < height; y++) {
+                        RunLength.decodeRow(pif, width, pixels, offset + y * width * 3);
+                    }
+                }
+                case PIF.TILED -> decodeTiled(pif, payloadEnd, width, height, pixels, offset);
+                default -> throw new IOException("Unsupported image type " + input.getHeader().imageType);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new EOFException("Pixels end before the last row");
+        } finally {
+            pif.order(order).limit(end).position(end);
+        }
+    }
+
+    private void decodeTiled(ByteBuffer pif, int payloadEnd, int width, int height, byte[] pixels, int offset) throws IOException {
+        int payload = pif.position();
+        int tileSize = Short.toUnsignedInt(pif.getShort(payload));
+        if (tileSize == 0) {
+            throw new IOException("Tile size is 0");
+        }
+        int across = Tiles.count(width, tileSize);
+        int count = across * Tiles.count(height, tileSize);
+        int index = payloadEnd - count * Tiles.INDEX_ENTRY_LENGTH;
+        if (index < payload + 2) {
+            throw new EOFException("Tile index is missing");
+        }
+        for (int i = 0; i < count; i++) {
+            long tileOffset = pif.getLong(index + i * Tiles.INDEX_ENTRY_LENGTH);
+            int length = pif.getInt(index + i * Tiles.INDEX_ENTRY_LENGTH + 8);
+            if (tileOffset < 2 || length < 0 || payload + tileOffset + 4 + length > index) {
+                throw new IOException("Tile index points outside of the tiles");
+            }
+            int x = i % across * tileSize, y = i / across * tileSize;
+            int tileStart = (int) (payload + tileOffset + 4);
+            pif.limit(tileStart + length).position(tileStart);
+            Tiles.decompress(pif, pixels, offset + (y * width + x) * 3, width * 3, Math.min(tileSize, width - x), Math.min(tileSize, height - y));
+            pif.limit(payloadEnd);
+        }
+    }
+
+    /**
+     * Reads the header into the reused input PIF, leaving the position after it
+     */
+    private void readHeader(ByteBuffer pif) throws IOException {
+        if (pif.remaining() < PIF.HEADER_LENGTH + PIF.TRAILER_LENGTH) {
+            throw new EOFException("File is too short to be .pif");
+        }
+        PIFLayout.readHeader(pif, input);
+    }
+
+    /**
+     * @return data array of the image if its pixels are packed 24-bit BGR rows without gaps, otherwise null
+     */
+    private static byte[] packedData(BufferedImage image) {
+        if (image.getType() != BufferedImage.TYPE_3BYTE_BGR) {
+            return null;
+        }
+        WritableRaster raster = image.getRaster();
+        ComponentSampleModel model = (ComponentSampleModel) raster.getSampleModel();
+        boolean packed = model.getPixelStride() == 3 && model.getScanlineStride() == image.getWidth() * 3
+                && model.getOffset(0, 0, 0) == 2 && model.getOffset(0, 0, 1) == 1 && model.getOffset(0, 0, 2) == 0
+                && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0;
+        return packed ? ((DataBufferByte) raster.getDataBuffer()).getData() : null;
+    }
+
+    /**
+     * Takes the local date and time of the trailer again when the second changed, computing the fields from the epoch
+     * second, so only the time zone offset allocates, looked up again only at the next transition of the zone,
+     * which may fall on any second, as the half hour transitions of Australia/Lord_Howe
+     */
+    private void refreshDate() {
+        long second = Math.floorDiv(clock.millis(), 1000);
+        if (second == dateSecond) {
+            return;
+        }
+        dateSecond = second;
+        if (second >= offsetUntil || second < offsetFrom) {
+            ZoneRules rules = clock.getZone().getRules();
+            Instant instant = Instant.ofEpochSecond(second);
+            offsetSeconds = rules.getOffset(instant).getTotalSeconds();
+            ZoneOffsetTransition next = rules.nextTransition(instant);
+            offsetFrom = second;
+            offsetUntil = next == null ? Long.MAX_VALUE : next.toEpochSecond();
+        }
+        long local = second + offsetSeconds;
+        long time = Math.floorMod(local, 86400);
+        // civil date of the day count, as in java.time.LocalDate.ofEpochDay
+        long z = Math.floorDiv(local, 86400) + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long monthIndex = (5 * dayOfYear + 2) / 153;
+        int month = (int) (monthIndex < 10 ? monthIndex + 3 : monthIndex - 9);
+        int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+        byte[] dateAndTime = output.getContent().dateAndTime;
+        setField(dateAndTime, 0, month);
+        setField(dateAndTime, 1, (int) (dayOfYear - (153 * monthIndex + 2) / 5 + 1));
+        setField(dateAndTime, 2, year);
+        setField(dateAndTime, 3, (int) (time / 3600));
+        setField(dateAndTime, 4, (int) (time / 60 % 60));
+        setField(dateAndTime, 5, (int) (time % 60));
+    }
+
+    private static void setField(byte[] dateAndTime, int i, int value) {
+        dateAndTime[i * 2] = (byte) value;
+        dateAndTime[i * 2 + 1] = (byte) (value >>> 8);
+    }
+
+    private byte[] scratch(int length) {
+        if (bgr.length < length) {
+            bgr = new byte[length];
+        }
+        return bgr;
+    }
+
+    private int[] row(int width) {
+        if (row.length < width) {
+            row = new int[width];
+        }
+        return row;
+    }
+}
@@ -1,12 +1,31 @@
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.HexFormat;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Handles format conversions
  */
 public class PIFFormater {
+    /**
+     * Largest band of rows read at once when streaming a large image
+     */
+    private static final int BAND_LENGTH = 1 << 24;
+
     /**
      * Constructs a .pif file structure
      * @param image raster of the image converted to .pif in BufferedImage
@@ -15,155 +34,490 @@ public class PIFFormater {
      * @return .pif
      */
     public static PIF toPIF(BufferedImage image, String authorInitials, String signature) {
-        HexFormat hex = HexFormat.of();
-        PIF pif = new PIF();
-        {
-            pif.getHeader().colorMapType = 0;
-            pif.getHeader().imageType = 2;
-            pif.getHeader().colorMapSpecification = new byte[]{0, 0, 0, 0, 0};
-            byte[] width = hex.parseHex(hex.toHexDigits(image.getWidth()));
-            byte[] height = hex.parseHex(hex.toHexDigits(image.getHeight()));
-            pif.getHeader().imageSpecification = new byte[]{width[3], width[2], height[3], height[2], 24, 32};
-        }
-        {
-            pif.getContent().image = new byte[image.getWidth() * image.getHeight() * 3];
-            int i = 0;
-            for (int y = 0; y < image.getHeight(); y++) {
-                for (int x = 0; x < image.getWidth(); x++) {
-                    byte[] argb = hex.parseHex(hex.toHexDigits(image.getRGB(x, y)));
-                    pif.getContent().image[i] = argb[3];
-                    pif.getContent().image[i + 1] = argb[2];
-                    pif.getContent().image[i + 2] = argb[1];
-                    i += 3;
+        return toPIF(image, authorInitials, signature, PIF.UNCOMPRESSED);
+    }
+
+    /**
+     * Constructs a .pif file structure, large images are read in parallel stripes of rows, see Stripes
+     * @param image raster of the image converted to .pif in BufferedImage
+     * @param authorInitials mandatory 3 bytes in .pif structure
+     * @param signature mandatory 16 bytes in .pif structure
+     * @param imageType how the pixels are stored when outputted, PIF.UNCOMPRESSED, PIF.RUN_LENGTH or PIF.TILED
+     * @return .pif
+     */
+    public static PIF toPIF(BufferedImage image, String authorInitials, String signature, byte imageType) {
+        PIF pif = newPIF(image.getWidth(), image.getHeight(), authorInitials, signature, imageType);
+        byte[] bgr = new byte[imageLength(image.getWidth(), image.getHeight())];
+        int rowLength = image.getWidth() * 3;
+        Stripes.forEach(image.getWidth(), image.getHeight(), (fromY, toY) -> readBGR(image, fromY, toY, bgr, fromY * rowLength));
+        pif.getContent().image = bgr;
+        return pif;
+    }
+
+    /**
+     * Streams the image raster to .pif row by row, without building the whole pixel payload.
+     * Large images are read in bands of rows, each read in parallel stripes, see Stripes.
+     * @param image raster of the image converted to .pif in BufferedImage
+     * @param writer destination opened for a .pif of the same dimensions
+     */
+    public static void toPIF(BufferedImage image, PIFWriter writer) throws IOException {
+        int width = image.getWidth(), height = image.getHeight();
+        int rowLength = width * 3;
+        int bandRows = Stripes.parallel(width, height) ? Math.max(1, Math.min(height, BAND_LENGTH / rowLength)) : 1;
+        byte[] band = new byte[bandRows * rowLength];
+        for (int y = 0; y < height; y += bandRows) {
+            int first = y, rows = Math.min(bandRows, height - y);
+            if (rows == 1) {
+                readBGR(image, y, y + 1, band, 0);
+            } else {
+                Stripes.forEach(width, rows, (fromY, toY) -> readBGR(image, first + fromY, first + toY, band, fromY * rowLength));
+            }
+            for (int row = 0; row < rows; row++) {
+                writer.writeRow(band, row * rowLength);
+            }
+        }
+    }
+
+    /**
+     * Constructs a .pif file structure with header, date and signature, but without pixels
+     * @param width width of the image
+     * @param height height of the image
+     * @param authorInitials mandatory 3 bytes in .pif structure
+     * @param signature mandatory 16 bytes in .pif structure
+     * @return .pif with empty content image
+     */
+    public static PIF newPIF(int width, int height, String authorInitials, String signature) {
+        return newPIF(width, height, authorInitials, signature, PIF.UNCOMPRESSED);
+    }
+
+    /**
+     * Constructs a .pif file structure with header, date and signature, but without pixels.
+     * Dimensions over PIF.MAX_SMALL_SIZE are stored with the PIF.LARGE bit.
+     * @param width width of the image
+     * @param height height of the image
+     * @param authorInitials mandatory 3 bytes in .pif structure
+     * @param signature mandatory 16 bytes in .pif structure
+     * @param imageType how the pixels are stored when outputted, PIF.UNCOMPRESSED, PIF.RUN_LENGTH or PIF.TILED
+     * @return .pif with empty content image
+     */
+    public static PIF newPIF(int width, int height, String authorInitials, String signature, byte imageType) {
+        return PIFLayout.newPIF(width, height, authorInitials, signature, imageType);
+    }
+
+    /**
+     * Copies rows of the image raster as 24-bit BGR, reading the DataBuffer directly for common types
+     * @param image source raster in BufferedImage
+     * @param fromY first row to copy
+     * @param toY row after the last one to copy
+     * @param bgr destination of the BGR bytes
+     * @param offset index in bgr where row fromY starts
+     */
+    static void readBGR(BufferedImage image, int fromY, int toY, byte[] bgr, int offset) {
+        readBGR(image, fromY, toY, bgr, offset, null);
+    }
+
+    /**
+     * Copies rows of the image raster as 24-bit BGR, reading the DataBuffer directly for common types
+     * @param image source raster in BufferedImage
+     * @param fromY first row to copy
+     * @param toY row after the last one to copy
+     * @param bgr destination of the BGR bytes
+     * @param offset index in bgr where row fromY starts
+     * @param scratch row of at least width ints used for other types, may be null
+     */
+    static void readBGR(BufferedImage image, int fromY, int toY, byte[] bgr, int offset, int[] scratch) {
+        int width = image.getWidth();
+        WritableRaster raster = image.getRaster();
+        int i = offset;
+        switch (image.getType()) {
+            case BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR -> {
+                ComponentSampleModel model = (ComponentSampleModel) raster.getSampleModel();
+                DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+                byte[] data = buffer.getData();
+                int pixelStride = model.getPixelStride();
+                int scanlineStride = model.getScanlineStride();
+                int r = model.getOffset(0, 0, 0), g = model.getOffset(0, 0, 1), b = model.getOffset(0, 0, 2);
+                boolean packed = pixelStride == 3 && b == 0 && g == 1 && r == 2;
+                int base = buffer.getOffset()
+                        - raster.getSampleModelTranslateY() * scanlineStride
+                        - raster.getSampleModelTranslateX() * pixelStride;
+                for (int y = fromY; y < toY; y++) {
+                    int p = base + y * scanlineStride;
+                    if (packed) {
+                        System.arraycopy(data, p, bgr, i, width * 3);
+                        i += width * 3;
+                        continue;
+                    }
+                    for (int x = 0; x < width; x++, p += pixelStride) {
+                        bgr[i++] = data[p + b];
+                        bgr[i++] = data[p + g];
+                        bgr[i++] = data[p + r];
+                    }
                 }
             }
+            case BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB -> {
+                SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) raster.getSampleModel();
+                DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+                int[] data = buffer.getData();
+                int scanlineStride = model.getScanlineStride();
+                int base = buffer.getOffset()
+                        - raster.getSampleModelTranslateY() * scanlineStride
+                        - raster.getSampleModelTranslateX();
+                for (int y = fromY; y < toY; y++) {
+                    int p = base + y * scanlineStride;
+                    for (int x = 0; x < width; x++) {
+                        int rgb = data[p++];
+                        bgr[i++] = (byte) rgb;
+                        bgr[i++] = (byte) (rgb >>> 8);
+                        bgr[i++] = (byte) (rgb >>> 16);
+                    }
+                }
+            }
+            default -> {
+                int[] row = scratch != null && scratch.length >= width ? scratch : new int[width];
+                for (int y = fromY; y < toY; y++) {
+                    image.getRGB(0, y, width, 1, row, 0, width);
+                    for (int rgb : row) {
+                        bgr[i++] = (byte) rgb;
+                        bgr[i++] = (byte) (rgb >>> 8);
+                        bgr[i++] = (byte) (rgb >>> 16);
+                    }
+                }
+            }
+        }
+    }
 
-            byte[] initialBytes = new byte[3];
-            int j = 0;
-            for (int k = 0; k < initialBytes.length - 1; k++) {
-                if(j < authorInitials.length()) {
-                    initialBytes[k] = (byte) authorInitials.charAt(j++);
-                } else {
-                    initialBytes[k] = 32;
+    /**
+     * Copies 24-bit BGR rows into the image raster, writing the DataBuffer directly for common types
+     * @param bgr source of the BGR bytes
+     * @param offset index in bgr where row fromY starts
+     * @param image destination raster in BufferedImage
+     * @param fromY first row to copy
+     * @param toY row after the last one to copy
+     * @param scratch row of at least width ints used for other types, may be null
+     */
+    static void writeBGR(byte[] bgr, int offset, BufferedImage image, int fromY, int toY, int[] scratch) {
+        int width = image.getWidth();
+        WritableRaster raster = image.getRaster();
+        int i = offset;
+        switch (image.getType()) {
+            case BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR -> {
+                ComponentSampleModel model = (ComponentSampleModel) raster.getSampleModel();
+                DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+                byte[] data = buffer.getData();
+                int pixelStride = model.getPixelStride();
+                int scanlineStride = model.getScanlineStride();
+                int r = model.getOffset(0, 0, 0), g = model.getOffset(0, 0, 1), b = model.getOffset(0, 0, 2);
+                int a = model.getNumBands() > 3 ? model.getOffset(0, 0, 3) : -1;
+                boolean packed = pixelStride == 3 && b == 0 && g == 1 && r == 2;
+                int base = buffer.getOffset()
+                        - raster.getSampleModelTranslateY() * scanlineStride
+                        - raster.getSampleModelTranslateX() * pixelStride;
+                for (int y = fromY; y < toY; y++) {
+                    int p = base + y * scanlineStride;
+                    if (packed) {
+                        System.arraycopy(bgr, i, data, p, width * 3);
+                        i += width * 3;
+                        continue;
+                    }
+                    for (int x = 0; x < width; x++, p += pixelStride) {
+                        data[p + b] = bgr[i++];
+                        data[p + g] = bgr[i++];
+                        data[p + r] = bgr[i++];
+                        if (a >= 0) {
+                            data[p + a] = (byte) 0xFF;
+                        }
+                    }
                 }
             }
-            pif.getContent().authorInitials = initialBytes;
-
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("MM-dd-yyyy-HH-mm-ss");
-            LocalDateTime now = LocalDateTime.now();
-            String[] formatedDateAndTime = now.format(formatter).split("-");
-            byte[] timeAndDate = new byte[12];
-            for (int l = 0; l < timeAndDate.length/2; l++) {
-                int currentData = Integer.parseInt(formatedDateAndTime[l]);
-                String current = hex.toHexDigits(currentData);
-                byte[] currentBytes = hex.parseHex(current);
-                timeAndDate[l*2] = currentBytes[3];
-                timeAndDate[l*2 + 1] = currentBytes[2];
+            case BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB -> {
+                SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) raster.getSampleModel();
+                DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+                int[] data = buffer.getData();
+                int scanlineStride = model.getScanlineStride();
+                int base = buffer.getOffset()
+                        - raster.getSampleModelTranslateY() * scanlineStride
+                        - raster.getSampleModelTranslateX();
+                for (int y = fromY; y < toY; y++) {
+                    int p = base + y * scanlineStride;
+                    for (int x = 0; x < width; x++, i += 3) {
+                        data[p++] = 0xFF000000 | (bgr[i + 2] & 0xFF) << 16 | (bgr[i + 1] & 0xFF) << 8 | bgr[i] & 0xFF;
+                    }
+                }
             }
-            pif.getContent().dateAndTime = timeAndDate;
-        }
-        {
-            byte[] signatureBytes = new byte[16];
-            int i = 0;
-            for (int j = 0; j < signatureBytes.length; j++) {
-                if (i < signature.length()) {
-                    signatureBytes[j] = (byte) signature.charAt(i++);
-                } else {
-                    signatureBytes[j] = 32;
+            default -> {
+                int[] row = scratch != null && scratch.length >= width ? scratch : new int[width];
+                for (int y = fromY; y < toY; y++) {
+                    for (int x = 0; x < width; x++, i += 3) {
+                        row[x] = 0xFF000000 | (bgr[i + 2] & 0xFF) << 16 | (bgr[i + 1] & 0xFF) << 8 | bgr[i] & 0xFF;
+                    }
+                    image.setRGB(0, y, width, 1, row, 0, width);
                 }
             }
-            pif.getFooter().signature = signatureBytes;
         }
-        return pif;
     }
 
     /**
-     * Formats .pif file to image raster
+     * Formats .pif file to image raster, backed by the pixel array of the .pif without copying
      * @param pif formated .pif
      * @return formated image raster in BufferedImage
      */
     public static BufferedImage toRegularImage(PIF pif) {
-        int width = (Byte.toUnsignedInt(pif.getHeader().imageSpecification[1]) << 8) + Byte.toUnsignedInt(pif.getHeader().imageSpecification[0]);
-        int height = (Byte.toUnsignedInt(pif.getHeader().imageSpecification[3]) << 8) + Byte.toUnsignedInt(pif.getHeader().imageSpecification[2]);
-        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
-        int i = 0;
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int rgb = (((255 << 8) + pif.getContent().image[i + 2] << 8) + pif.getContent().image[i + 1] << 8) +  pif.getContent().image[i];
-                i+=3;
-                result.setRGB(x, y, rgb);
-            }
-        }
-        return result;
+        return toRegularImage(pif, true);
     }
 
     /**
-     * Constructs PIF structure from .pif
-     * @param pif read PIF bytes
-     * @return constructed PIF
+     * Formats .pif file to image raster
+     * @param pif formated .pif
+     * @param shared if true, the raster is backed by the pixel array of the .pif, so changes to one are seen in the other,
+     *               otherwise it's backed by a copy, made in parallel stripes of rows for large images
+     * @return formated image raster in BufferedImage
      */
-    public static PIF inputPIF(byte[] pif) {
-        PIF result = new PIF();
-        int i = 0;
-        result.getHeader().colorMapType = pif[i++];
-        result.getHeader().imageType = pif[i++];
-        for (int j = 0; j < 5; j++) {
-            result.getHeader().colorMapSpecification[j] = pif[i++];
+    public static BufferedImage toRegularImage(PIF pif, boolean shared) {
+        int width = pif.getHeader().getWidth();
+        int height = pif.getHeader().getHeight();
+        byte[] pixels = pif.getContent().image;
+        if (!shared) {
+            byte[] source = pixels;
+            byte[] copy = new byte[imageLength(width, height)];
+            int rowLength = width * 3;
+            Stripes.forEach(width, height, (fromY, toY) ->
+                    System.arraycopy(source, fromY * rowLength, copy, fromY * rowLength, (toY - fromY) * rowLength));
+            pixels = copy;
         }
-        for (int k = 0; k < 6; k++) {
-            result.getHeader().imageSpecification[k] = pif[i++];
+        return wrapBGR(pixels, width, height);
+    }
+
+    /**
+     * Formats streamed .pif to image raster, reading rows straight into the raster
+     * @param reader opened .pif
+     * @return formated image raster in BufferedImage
+     */
+    public static BufferedImage toRegularImage(PIFReader reader) throws IOException {
+        int rowLength = reader.getWidth() * 3;
+        byte[] pixels = new byte[imageLength(reader.getWidth(), reader.getHeight())];
+        for (int y = 0; y < reader.getHeight(); y++) {
+            reader.readRow(pixels, y * rowLength);
         }
+        return wrapBGR(pixels, reader.getWidth(), reader.getHeight());
+    }
 
-        result.getContent().image = new byte[pif.length - 46];
-        for (int l = 0; l < pif.length - 46; l++) {
-            result.getContent().image[l] = pif[i++];
+    /**
+     * @param width width of the image
+     * @param height height of the image
+     * @return length of the 24-bit BGR pixels, if they fit in an array
+     */
+    static int imageLength(int width, int height) {
+        long length = (long) width * height * 3;
+        if (length > Integer.MAX_VALUE - 8) {
+            throw tooLarge(width, height);
         }
-        for (int m = 0; m < 3; m++) {
-            result.getContent().authorInitials[m] = pif[i++];
+        return (int) length;
+    }
+
+    private static IllegalArgumentException tooLarge(int width, int height) {
+        return new IllegalArgumentException("Image of " + width + "x" + height + " pixels is too large to be held in memory,"
+                + " stream it, or decode a region or a thumbnail of it");
+    }
+
+    /**
+     * Wraps 24-bit top-left origin BGR bytes as TYPE_3BYTE_BGR image without copying
+     * @param bgr pixel bytes, at least width * height * 3 long
+     * @param width width of the image
+     * @param height height of the image
+     * @return image raster in BufferedImage backed by bgr
+     */
+    static BufferedImage wrapBGR(byte[] bgr, int width, int height) {
+        DataBufferByte buffer = new DataBufferByte(bgr, width * height * 3);
+        WritableRaster raster = Raster.createInterleavedRaster(buffer, width, height, width * 3, 3, new int[]{2, 1, 0}, null);
+        ColorModel model = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), false, false, Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+        return new BufferedImage(model, raster, false, null);
+    }
+
+    /**
+     * Constructs PIF structure from .pif, decoding compressed pixels, checked against its checksum block if it has one
+     * @param pif read PIF bytes
+     * @return constructed PIF
+     */
+    public static PIF inputPIF(byte[] pif) throws IOException {
+        if (pif.length < PIF.HEADER_LENGTH + PIF.TRAILER_LENGTH) {
+            throw new IOException("File is too short to be .pif");
         }
-        for (int n = 0; n < 12; n++) {
-            result.getContent().dateAndTime[n] = pif[i++];
+        PIF result = new PIF();
+        ByteBuffer buffer = ByteBuffer.wrap(pif);
+        PIFLayout.readHeader(buffer, result);
+        int areaLength = Extensions.areaLength(result.getHeader(), buffer, 0);
+        int payloadEnd = pif.length - PIF.TRAILER_LENGTH - areaLength;
+        ByteBuffer payload = buffer.slice(PIF.HEADER_LENGTH, payloadEnd - PIF.HEADER_LENGTH);
+        result.getContent().image = decodePayload(result.getHeader(), payload);
+        if (areaLength > 0) {
+            result.getExtensions().putAll(Extensions.read(buffer.slice(payloadEnd, areaLength)));
         }
-
-        for (int o = 0; o < 16; o++) {
-            result.getFooter().signature[o] = pif[i++];
+        PIFLayout.readTrailer(buffer.position(pif.length - PIF.TRAILER_LENGTH), result);
+        byte[] checksums = result.getExtensions().get(Checksums.TAG);
+        if (checksums != null) {
+            Checksums.verify(buffer.clear(), checksums);
         }
         return result;
     }
 
     /**
-     * Constructs byte structure of .pif
+     * Constructs byte structure of .pif, encoding pixels as its image type requires
      * @param pif constructed PIF
      * @return all bytes of the PIF structure
      */
     public static byte[] outputPIF(PIF pif) {
-        byte[] result = new byte[46 + pif.getContent().image.length];
-        int i = 0;
-        result[i++] = pif.getHeader().colorMapType;
-        result[i++] = pif.getHeader().imageType;
-        for (byte b : pif.getHeader().colorMapSpecification) {
-            result[i++] = b;
+        return outputPIF(pif, false);
+    }
+
+    /**
+     * Constructs byte structure of .pif, encoding pixels as its image type requires
+     * @param pif constructed PIF
+     * @param checksums if true, or if the extension blocks already hold one, the checksum block is computed
+     *                  and added as the last extension block, see Checksums
+     * @return all bytes of the PIF structure
+     */
+    public static byte[] outputPIF(PIF pif, boolean checksums) {
+        ByteBuffer payload = encodePayload(pif);
+        Map<String, byte[]> blocks = blocks(pif, payload, checksums);
+        byte[] result = new byte[Math.toIntExact(PIF.HEADER_LENGTH + payload.remaining() + Extensions.length(blocks) + PIF.TRAILER_LENGTH)];
+        ByteBuffer buffer = ByteBuffer.wrap(result);
+        PIFLayout.writeHeader(pif, buffer);
+        buffer.put(payload);
+        Extensions.write(blocks, buffer);
+        PIFLayout.writeTrailer(pif, buffer);
+        return result;
+    }
+
+    /**
+     * Constructs byte structure of .pif as header, pixels, extension and trailer buffers,
+     * without copying uncompressed pixels or extension blocks
+     * @param pif constructed PIF
+     * @return buffers of the PIF structure, for a gathering write
+     */
+    public static ByteBuffer[] outputPIFBuffers(PIF pif) {
+        return outputPIFBuffers(pif, false);
+    }
+
+    /**
+     * Constructs byte structure of .pif as header, pixels, extension and trailer buffers,
+     * without copying uncompressed pixels or extension blocks
+     * @param pif constructed PIF
+     * @param checksums if true, or if the extension blocks already hold one, the checksum block is computed
+     *                  and added as the last extension block, see Checksums
+     * @return buffers of the PIF structure, for a gathering write
+     */
+    public static ByteBuffer[] outputPIFBuffers(PIF pif, boolean checksums) {
+        ByteBuffer payload = encodePayload(pif);
+        ByteBuffer[] extensions = Extensions.buffers(blocks(pif, payload, checksums));
+        ByteBuffer header = ByteBuffer.allocate(PIF.HEADER_LENGTH);
+        PIFLayout.writeHeader(pif, header);
+        ByteBuffer trailer = ByteBuffer.allocate(PIF.TRAILER_LENGTH);
+        PIFLayout.writeTrailer(pif, trailer);
+        ByteBuffer[] result = new ByteBuffer[extensions.length + 3];
+        result[0] = header.flip();
+        result[1] = payload;
+        System.arraycopy(extensions, 0, result, 2, extensions.length);
+        result[result.length - 1] = trailer.flip();
+        return result;
+    }
+
+    /**
+     * Sets the extension bit of the header and lists the blocks written, with a fresh checksum block last if needed
+     */
+    private static Map<String, byte[]> blocks(PIF pif, ByteBuffer payload, boolean checksums) {
+        Map<String, byte[]> blocks = new LinkedHashMap<>(pif.getExtensions());
+        checksums |= blocks.remove(Checksums.TAG) != null;
+        pif.getHeader().setExtensions(checksums || !blocks.isEmpty());
+        if (checksums) {
+            blocks.put(Checksums.TAG, Checksums.build(pif, payload, blocks));
         }
-        for (byte b : pif.getHeader().imageSpecification) {
-            result[i++] = b;
+        return blocks;
+    }
+
+    /**
+     * Adds the thumbnail pyramid of the content image to the extension blocks, see Pyramid
+     * @param pif constructed PIF with pixels
+     */
+    public static void addPyramid(PIF pif) {
+        byte[] pyramid = Pyramid.build(pif.getContent().image, pif.getHeader().getWidth(), pif.getHeader().getHeight());
+        if (pyramid != null) {
+            pif.getExtensions().put(Pyramid.TAG, pyramid);
         }
+    }
 
-        for (byte b : pif.getContent().image) {
-            result[i++] = b;
+    /**
+     * Encodes the pixels of the content image as the image type requires
+     * @param pif constructed PIF
+     * @return bytes between the header and the extension area, or the trailer if there is none
+     */
+    static ByteBuffer encodePayload(PIF pif) {
+        byte[] image = pif.getContent().image;
+        if (pif.getHeader().imageType == PIF.TILED) {
+            return Tiles.encode(image, pif.getHeader().getWidth(), pif.getHeader().getHeight(), Tiles.DEFAULT_SIZE);
+        }
+        if (pif.getHeader().imageType != PIF.RUN_LENGTH) {
+            return ByteBuffer.wrap(image);
         }
-        for (byte b : pif.getContent().authorInitials) {
-            result[i++] = b;
+        int width = pif.getHeader().getWidth();
+        int height = pif.getHeader().getHeight();
+        long maxLength = (long) RunLength.maxRowLength(width) * height;
+        if (maxLength > Integer.MAX_VALUE - 8) {
+            throw tooLarge(width, height);
         }
-        for (byte b : pif.getContent().dateAndTime) {
-            result[i++] = b;
+        byte[] payload = new byte[(int) maxLength];
+        int length = 0;
+        for (int y = 0; y < height; y++) {
+            length += RunLength.encodeRow(image, y * width * 3, width, payload, length);
         }
+        return ByteBuffer.wrap(payload, 0, length);
+    }
 
-        for (byte b : pif.getFooter().signature) {
-            result[i++] = b;
+    /**
+     * Decodes the pixels as the image type requires
+     * @param header read header
+     * @param payload bytes between the header and the extension area, or the trailer if there is none
+     * @return 24-bit BGR pixels, top-left origin
+     */
+    static byte[] decodePayload(PIF.Header header, ByteBuffer payload) throws IOException {
+        try {
+            imageLength(header.getWidth(), header.getHeight());
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+        switch (header.imageType) {
+            case PIF.UNCOMPRESSED -> {
+                int length = header.getWidth() * header.getHeight() * 3;
+                if (payload.remaining() < length) {
+                    throw new EOFException("Pixels end after " + payload.remaining() + " bytes, the dimensions require " + length);
+                }
+                if (payload.remaining() > length) {
+                    throw new IOException("Pixels are " + payload.remaining() + " bytes long, the dimensions require " + length);
+                }
+                byte[] image = new byte[length];
+                payload.get(image);
+                return image;
+            }
+            case PIF.RUN_LENGTH -> {
+                int width = header.getWidth();
+                byte[] image = new byte[width * header.getHeight() * 3];
+                try {
+                    for (int y = 0; y < header.getHeight(); y++) {
+                        RunLength.decodeRow(payload, width, image, y * width * 3);
+                    }
+                } catch (BufferUnderflowException e) {
+                    throw new EOFException("Run-length pixels end before the last row");
+                }
+                if (payload.hasRemaining()) {
+                    throw new IOException("Run-length pixels go on " + payload.remaining() + " bytes after the last row");
+                }
+                return image;
+            }
+            case PIF.TILED -> {
+                return Tiles.decode(payload, header.getWidth(), header.getHeight());
+            }
+            case PIF.FRAMES -> throw new IOException("File is multi-frame .pif, decode one of its frames with --frame N");
+            default -> throw new IOException("Unsupported image type " + header.imageType);
         }
-        result[i++] = 46;
-        result[i] = 0;
-        return result;
     }
-    
 }
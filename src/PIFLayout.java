@@ -0,0 +1,114 @@
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+
+/**
+ * Handles the header and trailer bytes of .pif, without AWT, so streaming, raw transcoding and metadata never load it
+ */
+public class PIFLayout {
+    /**
+     * Constructs a .pif file structure with header, date and signature, but without pixels.
+     * Dimensions over PIF.MAX_SMALL_SIZE are stored with the PIF.LARGE bit.
+     * @param width width of the image
+     * @param height height of the image
+     * @param authorInitials mandatory 3 bytes in .pif structure
+     * @param signature mandatory 16 bytes in .pif structure
+     * @param imageType how the pixels are stored when outputted, PIF.UNCOMPRESSED, PIF.RUN_LENGTH, PIF.TILED
+     *                  or PIF.FRAMES
+     * @return .pif with empty content image
+     */
+    static PIF newPIF(int width, int height, String authorInitials, String signature, byte imageType) {
+        PIF pif = new PIF();
+        {
+            pif.getHeader().colorMapType = 0;
+            pif.getHeader().imageType = imageType;
+            pif.getHeader().colorMapSpecification = new byte[]{0, 0, 0, 0, 0};
+            pif.getHeader().imageSpecification = new byte[]{0, 0, 0, 0, 24, 32};
+            pif.getHeader().setDimensions(width, height);
+        }
+        {
+            pif.getContent().image = new byte[0];
+
+            byte[] initialBytes = new byte[3];
+            int j = 0;
+            for (int k = 0; k < initialBytes.length - 1; k++) {
+                if(j < authorInitials.length()) {
+                    initialBytes[k] = (byte) authorInitials.charAt(j++);
+                } else {
+                    initialBytes[k] = 32;
+                }
+            }
+            pif.getContent().authorInitials = initialBytes;
+
+            LocalDateTime now = LocalDateTime.now();
+            int[] fields = {now.getMonthValue(), now.getDayOfMonth(), now.getYear(), now.getHour(), now.getMinute(), now.getSecond()};
+            byte[] timeAndDate = new byte[12];
+            for (int l = 0; l < fields.length; l++) {
+                timeAndDate[l*2] = (byte) fields[l];
+                timeAndDate[l*2 + 1] = (byte) (fields[l] >>> 8);
+            }
+            pif.getContent().dateAndTime = timeAndDate;
+        }
+        {
+            byte[] signatureBytes = new byte[16];
+            int i = 0;
+            for (int j = 0; j < signatureBytes.length; j++) {
+                if (i < signature.length()) {
+                    signatureBytes[j] = (byte) signature.charAt(i++);
+                } else {
+                    signatureBytes[j] = 32;
+                }
+            }
+            pif.getFooter().signature = signatureBytes;
+        }
+        return pif;
+    }
+
+    /**
+     * Reads the 13 header bytes of .pif
+     * @param buffer source positioned at the header
+     * @param pif PIF whose header is filled
+     */
+    static void readHeader(ByteBuffer buffer, PIF pif) {
+        pif.getHeader().colorMapType = buffer.get();
+        pif.getHeader().imageType = buffer.get();
+        buffer.get(pif.getHeader().colorMapSpecification);
+        buffer.get(pif.getHeader().imageSpecification);
+    }
+
+    /**
+     * Reads the 33 trailer bytes of .pif, initials, date and time, and signature
+     * @param buffer source positioned at the trailer
+     * @param pif PIF whose content metadata and footer are filled
+     */
+    static void readTrailer(ByteBuffer buffer, PIF pif) {
+        buffer.get(pif.getContent().authorInitials);
+        buffer.get(pif.getContent().dateAndTime);
+        buffer.get(pif.getFooter().signature);
+        buffer.position(buffer.position() + 2);
+    }
+
+    /**
+     * Writes the 13 header bytes of .pif
+     * @param pif constructed PIF
+     * @param buffer destination
+     */
+    static void writeHeader(PIF pif, ByteBuffer buffer) {
+        buffer.put(pif.getHeader().colorMapType);
+        buffer.put(pif.getHeader().imageType);
+        buffer.put(pif.getHeader().colorMapSpecification);
+        buffer.put(pif.getHeader().imageSpecification);
+    }
+
+    /**
+     * Writes the 33 trailer bytes of .pif
+     * @param pif constructed PIF
+     * @param buffer destination
+     */
+    static void writeTrailer(PIF pif, ByteBuffer buffer) {
+        buffer.put(pif.getContent().authorInitials);
+        buffer.put(pif.getContent().dateAndTime);
+        buffer.put(pif.getFooter().signature);
+        buffer.put((byte) 46);
+        buffer.put((byte) 0);
+    }
+}
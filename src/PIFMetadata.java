@@ -0,0 +1,72 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Metadata of .pif, everything but the pixels
+ * @param width width of the image in pixels
+ * @param height height of the image in pixels
+ * @param imageType image type byte of the header
+ * @param year year of the encoding
+ * @param month month of the encoding
+ * @param day day of the encoding
+ * @param hour hour of the encoding
+ * @param minute minute of the encoding
+ * @param second second of the encoding
+ * @param authorInitials 2 characters of the author initials
+ * @param signature 16 characters of the signature
+ */
+public record PIFMetadata(int width, int height, int imageType,
+                          int year, int month, int day, int hour, int minute, int second,
+                          String authorInitials, String signature) {
+
+    /**
+     * Reads metadata of .pif from its header and trailer only, whatever the size of the file
+     * @param path address of the .pif file, file name and its type
+     * @return metadata of the .pif
+     */
+    public static PIFMetadata read(String path) throws IOException {
+        PIF pif = new PIF();
+        try (FileChannel channel = FileIO.openRead(path)) {
+            long size = channel.size();
+            if (size < PIF.HEADER_LENGTH + PIF.TRAILER_LENGTH) {
+                throw new IOException("File is too short to be .pif");
+            }
+            ByteBuffer header = ByteBuffer.allocate(PIF.HEADER_LENGTH);
+            FileIO.readFully(channel, header, 0);
+            PIFLayout.readHeader(header.flip(), pif);
+            ByteBuffer trailer = ByteBuffer.allocate(PIF.TRAILER_LENGTH);
+            FileIO.readFully(channel, trailer, size - PIF.TRAILER_LENGTH);
+            PIFLayout.readTrailer(trailer.flip(), pif);
+        }
+        return of(pif);
+    }
+
+    /**
+     * Takes metadata of constructed PIF
+     * @param pif PIF with header and trailer
+     * @return metadata of the PIF
+     */
+    public static PIFMetadata of(PIF pif) {
+        byte[] date = pif.getContent().dateAndTime;
+        return new PIFMetadata(pif.getHeader().getWidth(), pif.getHeader().getHeight(), Byte.toUnsignedInt(pif.getHeader().imageType),
+                field(date, 4), field(date, 0), field(date, 2), field(date, 6), field(date, 8), field(date, 10),
+                new String(pif.getContent().authorInitials, 0, 2, StandardCharsets.ISO_8859_1),
+                new String(pif.getFooter().signature, StandardCharsets.ISO_8859_1));
+    }
+
+    private static int field(byte[] date, int i) {
+        return (Byte.toUnsignedInt(date[i + 1]) << 8) + Byte.toUnsignedInt(date[i]);
+    }
+
+    /**
+     * @return metadata in the same form as the metadata command prints
+     */
+    @Override
+    public String toString() {
+        return "Date and Time: " + year + "/" + month + "/" + day + ", " + hour + ":" + minute + ":" + second +
+                "\nAuthor Initials: " + authorInitials +
+                "\nSignature: " + signature;
+    }
+}
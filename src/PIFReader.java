@@ -0,0 +1,290 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads .pif sequentially, one row of pixels at a time, so only a row is held in memory.
+ * If .pif has extensions, the bytes are summed while they're consumed, and a checksum block is checked once it's
+ * reached, before the last row is returned, so a corrupted file fails to decode.
+ */
+public class PIFReader implements Closeable {
+    private static final int BUFFER_LENGTH = 1 << 16;
+
+    private final ReadableByteChannel channel;
+    private final PIF pif = new PIF();
+    private final ByteBuffer buffer;
+    private final ByteBuffer header = ByteBuffer.allocate(PIF.HEADER_LENGTH);
+    private Checksums.Builder covered;
+    private int coveredUpTo;
+    private int headerAndTrailer;
+    private boolean checked;
+    private int row;
+    private int tileSize;
+    private byte[] band;
+    private byte[][] tiles;
+    private int[] lengths;
+
+    /**
+     * Reads the header of .pif
+     * @param input stream positioned at the start of .pif
+     */
+    public PIFReader(InputStream input) throws IOException {
+        this(Channels.newChannel(input));
+    }
+
+    /**
+     * Reads the header of .pif, multi-frame .pif is rejected with IllegalArgumentException, see Frames.Reader
+     * @param channel channel positioned at the start of .pif
+     */
+    public PIFReader(ReadableByteChannel channel) throws IOException {
+        this.channel = channel;
+        readFully(header);
+        PIFLayout.readHeader(header.flip(), pif);
+        byte imageType = pif.getHeader().imageType;
+        if (imageType == PIF.FRAMES) {
+            throw new IllegalArgumentException("File is multi-frame .pif, decode one of its frames with --frame N");
+        }
+        if (imageType != PIF.UNCOMPRESSED && imageType != PIF.RUN_LENGTH && imageType != PIF.TILED) {
+            throw new IOException("Unsupported image type " + imageType);
+        }
+        if (getWidth() > PIF.MAX_WIDTH) {
+            throw new IOException("Rows of " + getWidth() + " pixels are too long to be read");
+        }
+        this.buffer = ByteBuffer.allocate(Math.max(BUFFER_LENGTH, RunLength.maxRowLength(getWidth()))).order(ByteOrder.LITTLE_ENDIAN).limit(0);
+        if (pif.getHeader().hasExtensions()) {
+            covered = new Checksums.Builder(0);
+        }
+        if (imageType == PIF.TILED) {
+            fill(2);
+            tileSize = Short.toUnsignedInt(buffer.getShort());
+            if (tileSize == 0) {
+                throw new IOException("Tile size is 0");
+            }
+            band = new byte[bandLength(getWidth(), Math.min(tileSize, getHeight()))];
+            tiles = new byte[Tiles.count(getWidth(), tileSize)][0];
+            lengths = new int[tiles.length];
+        }
+    }
+
+    public int getWidth() {
+        return pif.getHeader().getWidth();
+    }
+
+    public int getHeight() {
+        return pif.getHeader().getHeight();
+    }
+
+    /**
+     * @return PIF with the header, and after the last row the trailer too, its content image is always empty
+     */
+    public PIF getPIF() {
+        return pif;
+    }
+
+    /**
+     * @return true if not all rows were read yet
+     */
+    public boolean hasNextRow() {
+        return row < getHeight();
+    }
+
+    /**
+     * Reads the next row of pixels, decoding run-length packets or a band of tiles, after the last row skips
+     * the extension area and reads the trailer
+     * @param bgr destination of width * 3 BGR bytes
+     * @param offset index in bgr where the row starts
+     */
+    public void readRow(byte[] bgr, int offset) throws IOException {
+        if (!hasNextRow()) {
+            throw new IllegalStateException("All rows were already read");
+        }
+        int rowLength = getWidth() * 3;
+        switch (pif.getHeader().imageType) {
+            case PIF.RUN_LENGTH -> {
+                fill(RunLength.maxRowLength(getWidth()));
+                try {
+                    RunLength.decodeRow(buffer, getWidth(), bgr, offset);
+                } catch (BufferUnderflowException e) {
+                    throw new EOFException("Unexpected end of .pif");
+                }
+            }
+            case PIF.TILED -> {
+                if (row % tileSize == 0) {
+                    readBand();
+                }
+                System.arraycopy(band, row % tileSize * rowLength, bgr, offset, rowLength);
+            }
+            default -> read(ByteBuffer.wrap(bgr, offset, rowLength));
+        }
+        if (++row == getHeight()) {
+            if (pif.getHeader().imageType == PIF.TILED) {
+                skip((long) Tiles.count(getWidth(), tileSize) * Tiles.count(getHeight(), tileSize) * Tiles.INDEX_ENTRY_LENGTH);
+            }
+            if (pif.getHeader().hasExtensions()) {
+                skipExtensions();
+            }
+            ByteBuffer trailer = ByteBuffer.allocate(PIF.TRAILER_LENGTH);
+            read(trailer);
+            PIFLayout.readTrailer(trailer.flip(), pif);
+            if (checked) {
+                Checksums.checkHeaderAndTrailer(header.rewind(), trailer.rewind(), headerAndTrailer);
+            }
+        }
+    }
+
+    /**
+     * Closes the underlying channel
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * @return bytes of the band, if it fits in an array
+     */
+    static int bandLength(int width, int height) throws IOException {
+        long length = (long) width * 3 * height;
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IOException("Band of " + width + "x" + height + " pixels is too large to be held in memory");
+        }
+        return (int) length;
+    }
+
+    /**
+     * Reads the tiles of the band starting at the current row, and decompresses them in parallel
+     */
+    private void readBand() throws IOException {
+        int maxLength = tileSize * tileSize * 6 + 1024;
+        for (int i = 0; i < tiles.length; i++) {
+            fill(4);
+            if (buffer.remaining() < 4) {
+                throw new EOFException("Unexpected end of .pif");
+            }
+            int length = buffer.getInt();
+            if (length < 0 || length > maxLength) {
+                throw new IOException("Tile length " + length + " is out of range");
+            }
+            if (tiles[i].length < length) {
+                tiles[i] = new byte[length];
+            }
+            read(ByteBuffer.wrap(tiles[i], 0, length));
+            lengths[i] = length;
+        }
+        Tiles.decodeBand(tiles, lengths, band, getWidth(), Math.min(tileSize, getHeight() - row), tileSize);
+    }
+
+    /**
+     * Reads and drops the extension blocks up to the end of the area, they can be read with Extensions.find,
+     * except the checksum block, which is checked against the bytes read before it
+     */
+    private void skipExtensions() throws IOException {
+        while (true) {
+            fill(Extensions.BLOCK_HEADER_LENGTH);
+            if (buffer.remaining() < Extensions.BLOCK_HEADER_LENGTH) {
+                throw new EOFException("Unexpected end of .pif");
+            }
+            cover();
+            String tag = Extensions.tag(buffer);
+            long length = Integer.toUnsignedLong(buffer.getInt());
+            if (tag.equals(Extensions.END_TAG)) {
+                return;
+            }
+            if (checked) {
+                throw new IOException("Checksum block isn't the last extension block");
+            }
+            if (tag.equals(Checksums.TAG)) {
+                if (length > Integer.MAX_VALUE - 8) {
+                    throw new IOException("Checksum block is too long");
+                }
+                Checksums.Builder summed = covered;
+                covered = null;
+                byte[] body = new byte[(int) length];
+                read(ByteBuffer.wrap(body));
+                headerAndTrailer = Checksums.verify(summed, body);
+                checked = true;
+            } else {
+                skip(length);
+            }
+        }
+    }
+
+    /**
+     * Reads and drops the given count of bytes
+     */
+    private void skip(long count) throws IOException {
+        while (count > 0) {
+            fill((int) Math.min(count, buffer.capacity()));
+            if (!buffer.hasRemaining()) {
+                throw new EOFException("Unexpected end of .pif");
+            }
+            int length = (int) Math.min(count, buffer.remaining());
+            buffer.position(buffer.position() + length);
+            count -= length;
+        }
+    }
+
+    /**
+     * Fills the destination with buffered bytes first and the rest straight from the channel
+     */
+    private void read(ByteBuffer destination) throws IOException {
+        int length = Math.min(buffer.remaining(), destination.remaining());
+        destination.put(buffer.slice(buffer.position(), length));
+        buffer.position(buffer.position() + length);
+        if (destination.hasRemaining()) {
+            cover();
+            int start = destination.position();
+            readFully(destination);
+            if (covered != null) {
+                covered.update(destination.slice(start, destination.position() - start));
+            }
+        }
+    }
+
+    /**
+     * Sums the bytes consumed from the buffer since the last call, before they're dropped
+     */
+    private void cover() {
+        if (covered != null) {
+            covered.update(buffer.slice(coveredUpTo, buffer.position() - coveredUpTo));
+        }
+        coveredUpTo = buffer.position();
+    }
+
+    /**
+     * Buffers at least the given count of bytes, or as many as are left before the end of the channel
+     */
+    private void fill(int length) throws IOException {
+        if (buffer.remaining() >= length) {
+            return;
+        }
+        cover();
+        buffer.compact();
+        coveredUpTo = 0;
+        try (Stats.Timer timer = Stats.start(Stats.Stage.READ)) {
+            int start = buffer.position();
+            while (buffer.position() < length && channel.read(buffer) >= 0) {
+                // reads until enough bytes are buffered
+            }
+            timer.bytes(buffer.position() - start);
+        }
+        buffer.flip();
+    }
+
+    private void readFully(ByteBuffer destination) throws IOException {
+        try (Stats.Timer timer = Stats.start(Stats.Stage.READ)) {
+            timer.bytes(destination.remaining());
+            while (destination.hasRemaining()) {
+                if (channel.read(destination) < 0) {
+                    throw new EOFException("Unexpected end of .pif");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,232 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes .pif sequentially, one row of pixels at a time, so only a few rows are held in memory
+ */
+public class PIFWriter implements Closeable {
+    private static final int BUFFER_LENGTH = 1 << 16;
+
+    private final WritableByteChannel channel;
+    private final PIF pif;
+    private final ByteBuffer buffer;
+    private final byte[] packets;
+    private final byte[] band;
+    private final long[] tileOffsets;
+    private final int[] tileLengths;
+    private final Pyramid.Builder pyramid;
+    private final Checksums.Builder checksums;
+    private int tile;
+    private long payloadLength;
+    private int row;
+
+    /**
+     * Prepares the header of .pif, it is written together with the first rows
+     * @param output destination stream
+     * @param pif PIF holding header, initials, date and time, and signature, its content image is ignored
+     */
+    public PIFWriter(OutputStream output, PIF pif) throws IOException {
+        this(Channels.newChannel(output), pif);
+    }
+
+    /**
+     * Prepares the header of .pif, it is written together with the first rows
+     * @param channel destination channel
+     * @param pif PIF holding header, initials, date and time, and signature, its content image is ignored,
+     *            rows are run-length encoded if its image type is PIF.RUN_LENGTH, or compressed a band of tiles
+     *            at once if it's PIF.TILED
+     */
+    public PIFWriter(WritableByteChannel channel, PIF pif) throws IOException {
+        this(channel, pif, false);
+    }
+
+    /**
+     * Prepares the header of .pif, it is written together with the first rows
+     * @param channel destination channel
+     * @param pif PIF holding header, initials, date and time, signature and extension blocks, its content image
+     *            is ignored, rows are run-length encoded if its image type is PIF.RUN_LENGTH, or compressed a band
+     *            of tiles at once if it's PIF.TILED
+     * @param pyramid if true, the thumbnail pyramid is built from the rows and added to the extension blocks
+     */
+    public PIFWriter(WritableByteChannel channel, PIF pif, boolean pyramid) throws IOException {
+        this(channel, pif, pyramid, false);
+    }
+
+    /**
+     * Prepares the header of .pif, it is written together with the first rows
+     * @param channel destination channel
+     * @param pif PIF holding header, initials, date and time, signature and extension blocks, its content image
+     *            is ignored, rows are run-length encoded if its image type is PIF.RUN_LENGTH, or compressed a band
+     *            of tiles at once if it's PIF.TILED
+     * @param pyramid if true, the thumbnail pyramid is built from the rows and added to the extension blocks
+     * @param checksums if true, or if the extension blocks already hold one, the checksum block is computed
+     *                  while the bytes are written and added as the last extension block, see Checksums
+     */
+    public PIFWriter(WritableByteChannel channel, PIF pif, boolean pyramid, boolean checksums) throws IOException {
+        this.channel = channel;
+        this.pif = pif;
+        if (getWidth() > PIF.MAX_WIDTH) {
+            throw new IOException("Rows of " + getWidth() + " pixels are too long to be written");
+        }
+        this.pyramid = pyramid && Pyramid.levels(getWidth(), getHeight()).length > 0 ? new Pyramid.Builder(getWidth(), getHeight()) : null;
+        this.checksums = checksums || pif.getExtensions().containsKey(Checksums.TAG) ? new Checksums.Builder(PIF.HEADER_LENGTH) : null;
+        pif.getHeader().setExtensions(this.pyramid != null || this.checksums != null || !pif.getExtensions().isEmpty());
+        int rowLength = RunLength.maxRowLength(pif.getHeader().getWidth());
+        this.buffer = ByteBuffer.allocate(Math.max(BUFFER_LENGTH, rowLength)).order(ByteOrder.LITTLE_ENDIAN);
+        this.packets = pif.getHeader().imageType == PIF.RUN_LENGTH ? new byte[rowLength] : null;
+        PIFLayout.writeHeader(pif, buffer);
+        if (pif.getHeader().imageType == PIF.TILED) {
+            int count = Math.multiplyExact(Tiles.count(getWidth(), Tiles.DEFAULT_SIZE), Tiles.count(getHeight(), Tiles.DEFAULT_SIZE));
+            this.band = new byte[PIFReader.bandLength(getWidth(), Math.min(Tiles.DEFAULT_SIZE, getHeight()))];
+            this.tileOffsets = new long[count];
+            this.tileLengths = new int[count];
+            buffer.putShort((short) Tiles.DEFAULT_SIZE);
+            payloadLength = 2;
+        } else {
+            this.band = null;
+            this.tileOffsets = null;
+            this.tileLengths = null;
+        }
+    }
+
+    public int getWidth() {
+        return pif.getHeader().getWidth();
+    }
+
+    public int getHeight() {
+        return pif.getHeader().getHeight();
+    }
+
+    /**
+     * Writes the next row of pixels
+     * @param bgr source of width * 3 BGR bytes
+     * @param offset index in bgr where the row starts
+     */
+    public void writeRow(byte[] bgr, int offset) throws IOException {
+        if (row == getHeight()) {
+            throw new IllegalStateException("All rows were already written");
+        }
+        if (packets != null) {
+            int length = RunLength.encodeRow(bgr, offset, getWidth(), packets, 0);
+            put(packets, 0, length);
+        } else if (band != null) {
+            System.arraycopy(bgr, offset, band, row % Tiles.DEFAULT_SIZE * getWidth() * 3, getWidth() * 3);
+            if ((row + 1) % Tiles.DEFAULT_SIZE == 0 || row + 1 == getHeight()) {
+                writeBand(row % Tiles.DEFAULT_SIZE + 1);
+            }
+        } else {
+            put(bgr, offset, getWidth() * 3);
+        }
+        if (pyramid != null) {
+            pyramid.addRow(bgr, offset);
+        }
+        row++;
+    }
+
+    /**
+     * Writes the extension blocks and the trailer, and closes the underlying channel
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (row != getHeight()) {
+                throw new IOException("Only " + row + " of " + getHeight() + " rows were written");
+            }
+            if (band != null) {
+                for (int i = 0; i < tileOffsets.length; i++) {
+                    if (buffer.remaining() < Tiles.INDEX_ENTRY_LENGTH) {
+                        flush();
+                    }
+                    buffer.putLong(tileOffsets[i]).putInt(tileLengths[i]);
+                }
+            }
+            Map<String, byte[]> blocks = new LinkedHashMap<>(pif.getExtensions());
+            blocks.remove(Checksums.TAG);
+            if (pyramid != null) {
+                blocks.put(Pyramid.TAG, pyramid.build());
+            }
+            ByteBuffer[] parts = Extensions.buffers(blocks);
+            // without the end of the area when the checksum block follows the others
+            int count = checksums == null ? parts.length : Math.max(0, parts.length - 1);
+            for (int i = 0; i < count; i++) {
+                put(parts[i]);
+            }
+            if (checksums != null) {
+                flush();
+                blocks.put(Checksums.TAG, checksums.build(pif));
+                parts = Extensions.buffers(blocks);
+                for (int i = parts.length - 3; i < parts.length; i++) {
+                    put(parts[i]);
+                }
+            }
+            if (buffer.remaining() < PIF.TRAILER_LENGTH) {
+                flush();
+            }
+            PIFLayout.writeTrailer(pif, buffer);
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Compresses the tiles of the buffered band in parallel and writes them
+     */
+    private void writeBand(int height) throws IOException {
+        for (byte[] compressed : Tiles.encodeBand(band, getWidth(), height, Tiles.DEFAULT_SIZE)) {
+            tileOffsets[tile] = payloadLength;
+            tileLengths[tile++] = compressed.length;
+            if (buffer.remaining() < 4) {
+                flush();
+            }
+            buffer.putInt(compressed.length);
+            put(compressed, 0, compressed.length);
+            payloadLength += 4 + compressed.length;
+        }
+    }
+
+    private void put(byte[] bytes, int offset, int length) throws IOException {
+        if (buffer.remaining() < length) {
+            flush();
+        }
+        if (length > buffer.capacity()) {
+            ByteBuffer large = ByteBuffer.wrap(bytes, offset, length);
+            if (checksums != null) {
+                checksums.update(large);
+            }
+            try (Stats.Timer timer = Stats.start(Stats.Stage.WRITE)) {
+                timer.bytes(length);
+                while (large.hasRemaining()) {
+                    channel.write(large);
+                }
+            }
+            return;
+        }
+        buffer.put(bytes, offset, length);
+    }
+
+    private void put(ByteBuffer part) throws IOException {
+        put(part.array(), part.arrayOffset() + part.position(), part.remaining());
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        if (checksums != null) {
+            checksums.update(buffer);
+        }
+        try (Stats.Timer timer = Stats.start(Stats.Stage.WRITE)) {
+            timer.bytes(buffer.remaining());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,214 @@
+import java.awt.image.BufferedImage;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Handles the thumbnail pyramid, an extension block tagged "PYRA" holding the image at 1/2, 1/4, 1/8 and so on,
+ * until the largest side is at most MIN_SIZE pixels. Each level averages 2x2 pixels of the level above it.
+ * The body starts with the count of levels (1 byte) and the directory, the width (4 bytes), height (4 bytes) and
+ * offset in the body (8 bytes) of every level, largest first, followed by the 24-bit BGR pixels of the levels,
+ * top-left origin. All numbers are little endian.
+ */
+public class Pyramid {
+    /**
+     * Tag of the extension block
+     */
+    public static final String TAG = "PYRA";
+    /**
+     * Largest side of the smallest level
+     */
+    public static final int MIN_SIZE = 256;
+    private static final int ENTRY_LENGTH = 16;
+
+    /**
+     * Builds the levels while rows of the image arrive, holding only the first level and one row
+     */
+    public static class Builder {
+        private final int width;
+        private final int height;
+        private final int[][] levels;
+        private final byte[] first;
+        private final byte[] previous;
+        private int row;
+
+        /**
+         * @param width width of the image
+         * @param height height of the image
+         */
+        public Builder(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.levels = levels(width, height);
+            long length = 1L + (long) levels.length * ENTRY_LENGTH;
+            for (int[] level : levels) {
+                length += (long) level[0] * level[1] * 3;
+            }
+            if (length > Integer.MAX_VALUE - 64) {
+                throw new IllegalArgumentException("Image is too large for a pyramid");
+            }
+            this.first = levels.length == 0 ? null : new byte[levels[0][0] * levels[0][1] * 3];
+            this.previous = levels.length == 0 ? null : new byte[width * 3];
+        }
+
+        /**
+         * Adds the next row of the image
+         * @param bgr source of width * 3 BGR bytes
+         * @param offset index in bgr where the row starts
+         */
+        public void addRow(byte[] bgr, int offset) {
+            if (row == height) {
+                throw new IllegalStateException("All rows were already added");
+            }
+            if (first != null) {
+                int destination = row / 2 * levels[0][0] * 3;
+                if (row % 2 == 1) {
+                    halve(previous, 0, bgr, offset, width, first, destination);
+                } else if (row + 1 == height) {
+                    halve(bgr, offset, bgr, offset, width, first, destination);
+                } else {
+                    System.arraycopy(bgr, offset, previous, 0, width * 3);
+                }
+            }
+            row++;
+        }
+
+        /**
+         * Builds the smaller levels from the first one
+         * @return body of the extension block, or null if the image is small enough to need no levels
+         */
+        public byte[] build() {
+            if (row != height) {
+                throw new IllegalStateException("Only " + row + " of " + height + " rows were added");
+            }
+            if (first == null) {
+                return null;
+            }
+            int length = 1 + levels.length * ENTRY_LENGTH;
+            for (int[] level : levels) {
+                length += level[0] * level[1] * 3;
+            }
+            ByteBuffer body = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+            body.put((byte) levels.length);
+            long offset = 1 + levels.length * ENTRY_LENGTH;
+            for (int[] level : levels) {
+                body.putInt(level[0]).putInt(level[1]).putLong(offset);
+                offset += (long) level[0] * level[1] * 3;
+            }
+            byte[] pixels = first;
+            body.put(pixels);
+            for (int i = 1; i < levels.length; i++) {
+                int sourceWidth = levels[i - 1][0], sourceHeight = levels[i - 1][1];
+                int stride = sourceWidth * 3;
+                byte[] half = new byte[levels[i][0] * levels[i][1] * 3];
+                for (int y = 0; y < levels[i][1]; y++) {
+                    int bottom = Math.min(y * 2 + 1, sourceHeight - 1);
+                    halve(pixels, y * 2 * stride, pixels, bottom * stride, sourceWidth, half, y * levels[i][0] * 3);
+                }
+                body.put(half);
+                pixels = half;
+            }
+            return body.array();
+        }
+    }
+
+    /**
+     * Builds the levels of a whole image
+     * @param bgr 24-bit BGR pixels, top-left origin
+     * @param width width of the image
+     * @param height height of the image
+     * @return body of the extension block, or null if the image is small enough to need no levels
+     */
+    public static byte[] build(byte[] bgr, int width, int height) {
+        Builder builder = new Builder(width, height);
+        for (int y = 0; y < height; y++) {
+            builder.addRow(bgr, y * width * 3);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param width width of the image
+     * @param height height of the image
+     * @return width and height of every level, largest first, none if the image is at most MIN_SIZE pixels
+     */
+    public static int[][] levels(int width, int height) {
+        List<int[]> levels = new ArrayList<>();
+        while (Math.max(width, height) > MIN_SIZE) {
+            width -= width / 2;
+            height -= height / 2;
+            levels.add(new int[]{width, height});
+        }
+        return levels.toArray(int[][]::new);
+    }
+
+    /**
+     * Reads the image of .pif scaled down to fit the size, reading only the directory and one level of the pyramid.
+     * Without a pyramid every n-th pixel of every n-th row is read instead, see RegionReader.
+     * @param path address of the .pif file, file name and its type
+     * @param maxSize largest side of the result, the smallest level is returned if none fits
+     * @return image raster of the largest level fitting the size, or the whole image if it fits itself
+     */
+    public static BufferedImage read(String path, int maxSize) throws IOException {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Size must be at least 1");
+        }
+        PIF pif = new PIF();
+        try (FileChannel channel = FileIO.openRead(path)) {
+            ByteBuffer header = ByteBuffer.allocate(PIF.HEADER_LENGTH);
+            FileIO.readFully(channel, header, 0);
+            PIFLayout.readHeader(header.flip(), pif);
+            int width = pif.getHeader().getWidth(), height = pif.getHeader().getHeight();
+            long areaLength = Extensions.areaLength(pif.getHeader(), channel);
+            long[] block = areaLength == 0 ? null : Extensions.find(channel, areaLength, TAG);
+            if (Math.max(width, height) <= maxSize || block == null) {
+                int subsample = (int) (((long) Math.max(width, height) + maxSize - 1) / maxSize);
+                return RegionReader.read(path, 0, 0, -1, -1, subsample);
+            }
+            ByteBuffer count = ByteBuffer.allocate(1);
+            FileIO.readFully(channel, count, block[0]);
+            int levels = Byte.toUnsignedInt(count.get(0));
+            if (levels == 0 || 1 + (long) levels * ENTRY_LENGTH > block[1]) {
+                throw new IOException("Pyramid directory is corrupted");
+            }
+            ByteBuffer directory = ByteBuffer.allocate(levels * ENTRY_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+            FileIO.readFully(channel, directory, block[0] + 1);
+            int chosen = levels - 1;
+            for (int i = 0; i < levels; i++) {
+                if (Math.max(directory.getInt(i * ENTRY_LENGTH), directory.getInt(i * ENTRY_LENGTH + 4)) <= maxSize) {
+                    chosen = i;
+                    break;
+                }
+            }
+            int levelWidth = directory.getInt(chosen * ENTRY_LENGTH);
+            int levelHeight = directory.getInt(chosen * ENTRY_LENGTH + 4);
+            long offset = directory.getLong(chosen * ENTRY_LENGTH + 8);
+            long length = (long) levelWidth * levelHeight * 3;
+            if (levelWidth <= 0 || levelHeight <= 0 || offset < 0 || length > Integer.MAX_VALUE || offset + length > block[1]) {
+                throw new EOFException("Pyramid level points outside of its block");
+            }
+            byte[] bgr = new byte[(int) length];
+            FileIO.readFully(channel, ByteBuffer.wrap(bgr), block[0] + offset);
+            return PIFFormater.wrapBGR(bgr, levelWidth, levelHeight);
+        }
+    }
+
+    /**
+     * Averages 2x2 pixels of two rows into one row of half the width, rounded up, repeating the last column if the
+     * width is odd
+     */
+    private static void halve(byte[] top, int topOffset, byte[] bottom, int bottomOffset, int width, byte[] half, int halfOffset) {
+        for (int x = 0; x < width; x += 2) {
+            int a = topOffset + x * 3, c = bottomOffset + x * 3;
+            int next = x + 1 < width ? 3 : 0;
+            for (int k = 0; k < 3; k++) {
+                half[halfOffset++] = (byte) (((top[a + k] & 0xFF) + (top[a + next + k] & 0xFF)
+                        + (bottom[c + k] & 0xFF) + (bottom[c + next + k] & 0xFF) + 2) >> 2);
+            }
+        }
+    }
+}
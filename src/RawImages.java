@@ -0,0 +1,315 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Transcodes between .pif and raw pixel formats, 24-bit uncompressed BMP and binary PPM (P6), a band of rows at a time
+ * through NIO buffers, without ImageIO, BufferedImage or anything else of AWT.
+ * BMP rows are already BGR, only padded to 4 bytes and usually stored bottom-up, so they are read and written at
+ * their position in the file and handed over without copying. PPM rows are RGB, so red and blue are swapped.
+ */
+public class RawImages {
+    private static final int BAND_LENGTH = 1 << 20;
+    private static final int BMP_HEADER_LENGTH = 54;
+    private static final int MAX_PPM_HEADER_LENGTH = 1024;
+
+    /**
+     * Dimensions and layout of a raw image file
+     * @param bmp true for BMP, false for PPM
+     * @param width width of the image
+     * @param height height of the image
+     * @param bottomUp true if the last row is stored first
+     * @param dataOffset index in the file of the first stored row
+     * @param stride length of a stored row with its padding
+     * @param maxValue largest sample value of PPM, samples are scaled to 255
+     */
+    private record Layout(boolean bmp, int width, int height, boolean bottomUp, long dataOffset, int stride, int maxValue) {
+    }
+
+    /**
+     * Row of pixels handed over by readRows
+     */
+    private interface RowSink {
+        /**
+         * @param bgr array holding the row as BGR
+         * @param offset index in bgr where the row starts
+         */
+        void accept(byte[] bgr, int offset) throws IOException;
+    }
+
+    /**
+     * @param path address of the file, file name and its type
+     * @return true if the file is a BMP or PPM that encode transcodes directly
+     */
+    public static boolean canRead(String path) {
+        return readSize(path) != null;
+    }
+
+    /**
+     * Reads the dimensions from the header only
+     * @param path address of the file, file name and its type
+     * @return width and height of a BMP or PPM that encode transcodes directly, or null for any other file
+     */
+    static int[] readSize(String path) {
+        if (!hasRawExtension(path)) {
+            return null;
+        }
+        try (FileChannel channel = FileIO.openRead(path)) {
+            Layout layout = layout(channel);
+            return layout == null ? null : new int[]{layout.width(), layout.height()};
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param width width of the image
+     * @param height height of the image
+     * @param pyramid if true, the thumbnail pyramid is built too
+     * @return estimated bytes held in memory while encode or decode transcodes the image, bands of rows, a band
+     *         of tiles and the pyramid levels
+     */
+    static long memory(long width, long height, boolean pyramid) {
+        return 2L * BAND_LENGTH + width * 3 * Tiles.DEFAULT_SIZE * 2 + (pyramid ? width * height : 0);
+    }
+
+    /**
+     * Reads all pixels of 24-bit uncompressed BMP or binary PPM, see canRead
+     * @param input path address of the BMP or PPM file
+     * @param bgr destination of width * height * 3 BGR bytes, top-left origin
+     * @param offset index in bgr where the first row starts
+     */
+    static void read(String input, byte[] bgr, int offset) throws IOException {
+        try (FileChannel channel = FileIO.openRead(input)) {
+            Layout layout = readableLayout(channel);
+            int rowLength = layout.width() * 3;
+            int[] row = {0};
+            readRows(channel, layout, (bytes, from) -> System.arraycopy(bytes, from, bgr, offset + row[0]++ * rowLength, rowLength));
+        }
+    }
+
+    /**
+     * @param path address of the file, file name and its type
+     * @return true if decode writes the file directly, by its extension .bmp or .ppm
+     */
+    public static boolean canWrite(String path) {
+        return hasRawExtension(path);
+    }
+
+    /**
+     * Transcodes 24-bit uncompressed BMP or binary PPM to .pif, replacing the output only once it's complete
+     * @param input path address of the BMP or PPM file, see canRead
+     * @param output path address of the .pif file
+     * @param authorInitials mandatory 3 bytes in .pif structure
+     * @param signature mandatory 16 bytes in .pif structure
+     * @param imageType how the pixels are stored, PIF.UNCOMPRESSED, PIF.RUN_LENGTH or PIF.TILED
+     * @param pyramid if true, the thumbnail pyramid is stored after the pixels
+     * @param checksums if true, CRC32C checksums of the file are stored after the pixels, see Checksums
+     */
+    public static void encode(String input, String output, String authorInitials, String signature, byte imageType,
+                              boolean pyramid, boolean checksums) throws IOException {
+        try (FileChannel channel = FileIO.openRead(input)) {
+            Layout layout = readableLayout(channel);
+            PIF pif = PIFLayout.newPIF(layout.width(), layout.height(), authorInitials, signature, imageType);
+            try (FileIO.AtomicOutput file = FileIO.createAtomic(output, FileIO.Sync.NONE)) {
+                try (PIFWriter writer = new PIFWriter(file.channel(), pif, pyramid, checksums)) {
+                    readRows(channel, layout, writer::writeRow);
+                }
+                file.commit();
+            }
+        }
+    }
+
+    /**
+     * Reads the header of BMP or PPM and checks the file holds all rows
+     * @return layout of the file
+     */
+    private static Layout readableLayout(FileChannel channel) throws IOException {
+        Layout layout = layout(channel);
+        if (layout == null) {
+            throw new IOException("Only 24-bit uncompressed BMP and binary PPM are transcoded directly");
+        }
+        if (layout.dataOffset() + (long) layout.stride() * layout.height() > channel.size()) {
+            throw new EOFException("File is shorter than its dimensions require");
+        }
+        return layout;
+    }
+
+    /**
+     * Reads the rows of BMP or PPM a band at a time and hands them over as BGR, top row first
+     */
+    private static void readRows(FileChannel channel, Layout layout, RowSink sink) throws IOException {
+        int height = layout.height(), stride = layout.stride();
+        int rowLength = layout.width() * 3;
+        int bandRows = Math.max(1, Math.min(height, BAND_LENGTH / stride));
+        ByteBuffer band = ByteBuffer.allocate(bandRows * stride);
+        byte[] bytes = band.array();
+        for (int y = 0; y < height; y += bandRows) {
+            int rows = Math.min(bandRows, height - y);
+            long first = layout.bottomUp() ? height - y - rows : y;
+            try (Stats.Timer timer = Stats.start(Stats.Stage.READ)) {
+                FileIO.readFully(channel, band.clear().limit(rows * stride), layout.dataOffset() + first * stride);
+                timer.bytes((long) rows * stride);
+            }
+            try (Stats.Timer timer = Stats.start(Stats.Stage.CONVERT)) {
+                for (int i = 0; i < rows; i++) {
+                    int offset = (layout.bottomUp() ? rows - 1 - i : i) * stride;
+                    if (!layout.bmp()) {
+                        fromPPM(bytes, offset, rowLength, layout.maxValue());
+                    }
+                    sink.accept(bytes, offset);
+                }
+                timer.bytes((long) rows * rowLength);
+            }
+        }
+    }
+
+    /**
+     * Transcodes .pif of any image type to 24-bit bottom-up BMP or binary PPM, chosen by the output extension,
+     * replacing the output only once it's complete
+     * @param input path address of the .pif file
+     * @param output path address of the BMP or PPM file, see canWrite
+     */
+    public static void decode(String input, String output) throws IOException {
+        boolean bmp = extension(output).equals("bmp");
+        try (PIFReader reader = new PIFReader(FileIO.openRead(input));
+             FileIO.AtomicOutput file = FileIO.createAtomic(output, FileIO.Sync.NONE)) {
+            int width = reader.getWidth(), height = reader.getHeight();
+            int rowLength = width * 3;
+            int stride = bmp ? (rowLength + 3) & ~3 : rowLength;
+            ByteBuffer header = bmp ? bmpHeader(width, height, stride) : ppmHeader(width, height);
+            long dataOffset = header.remaining();
+            file.write(header, 0);
+            int bandRows = Math.max(1, Math.min(height, BAND_LENGTH / Math.max(stride, 1)));
+            ByteBuffer band = ByteBuffer.allocate(bandRows * stride);
+            byte[] bytes = band.array();
+            for (int y = 0; y < height; y += bandRows) {
+                int rows = Math.min(bandRows, height - y);
+                try (Stats.Timer timer = Stats.start(Stats.Stage.CONVERT)) {
+                    for (int i = 0; i < rows; i++) {
+                        int offset = (bmp ? rows - 1 - i : i) * stride;
+                        reader.readRow(bytes, offset);
+                        if (!bmp) {
+                            swapRedBlue(bytes, offset, rowLength);
+                        }
+                    }
+                    timer.bytes((long) rows * rowLength);
+                }
+                long first = bmp ? height - y - rows : y;
+                try (Stats.Timer timer = Stats.start(Stats.Stage.WRITE)) {
+                    file.write(band.clear().limit(rows * stride), dataOffset + first * stride);
+                    timer.bytes((long) rows * stride);
+                }
+            }
+            file.commit();
+        }
+    }
+
+    /**
+     * Reads the header of BMP or PPM
+     * @return layout of the file, or null if it isn't 24-bit uncompressed BMP or 8-bit binary PPM
+     */
+    private static Layout layout(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate((int) Math.min(channel.size(), MAX_PPM_HEADER_LENGTH)).order(ByteOrder.LITTLE_ENDIAN);
+        FileIO.readFully(channel, header, 0);
+        header.flip();
+        if (header.remaining() >= BMP_HEADER_LENGTH && header.get(0) == 'B' && header.get(1) == 'M') {
+            long dataOffset = Integer.toUnsignedLong(header.getInt(10));
+            int dibLength = header.getInt(14);
+            int width = header.getInt(18), height = header.getInt(22);
+            short bitsPerPixel = header.getShort(28);
+            int compression = header.getInt(30);
+            if (dibLength < 40 || bitsPerPixel != 24 || compression != 0 || width <= 0 || height == 0 || height == Integer.MIN_VALUE
+                    || width > PIF.MAX_WIDTH) {
+                return null;
+            }
+            return new Layout(true, width, Math.abs(height), height > 0, dataOffset, (width * 3 + 3) & ~3, 255);
+        }
+        if (header.remaining() >= 2 && header.get(0) == 'P' && header.get(1) == '6') {
+            header.position(2);
+            long width = ppmNumber(header), height = ppmNumber(header), maxValue = ppmNumber(header);
+            if (width <= 0 || height <= 0 || width > PIF.MAX_WIDTH || height > Integer.MAX_VALUE
+                    || maxValue <= 0 || maxValue > 255 || !header.hasRemaining()) {
+                return null;
+            }
+            // a single whitespace ends the header
+            return new Layout(false, (int) width, (int) height, false, header.position() + 1, (int) width * 3, (int) maxValue);
+        }
+        return null;
+    }
+
+    /**
+     * Reads a decimal number of the PPM header, skipping whitespace and comments before it
+     * @return the number, or -1 if there's none
+     */
+    private static long ppmNumber(ByteBuffer header) {
+        while (header.hasRemaining()) {
+            byte b = header.get(header.position());
+            if (b == '#') {
+                while (header.hasRemaining() && header.get() != '\n') {
+                    // skips the comment
+                }
+            } else if (Character.isWhitespace(b)) {
+                header.get();
+            } else {
+                break;
+            }
+        }
+        long number = -1;
+        while (header.hasRemaining() && header.get(header.position()) >= '0' && header.get(header.position()) <= '9' && number < Integer.MAX_VALUE) {
+            number = Math.max(number, 0) * 10 + header.get() - '0';
+        }
+        return number;
+    }
+
+    /**
+     * Turns a PPM row into BGR in place, scaling samples to 255
+     */
+    private static void fromPPM(byte[] row, int offset, int length, int maxValue) {
+        swapRedBlue(row, offset, length);
+        if (maxValue != 255) {
+            for (int i = offset; i < offset + length; i++) {
+                row[i] = (byte) (Math.min(row[i] & 0xFF, maxValue) * 255 / maxValue);
+            }
+        }
+    }
+
+    private static void swapRedBlue(byte[] row, int offset, int length) {
+        for (int i = offset; i < offset + length; i += 3) {
+            byte red = row[i];
+            row[i] = row[i + 2];
+            row[i + 2] = red;
+        }
+    }
+
+    /**
+     * File header and BITMAPINFOHEADER of 24-bit uncompressed bottom-up BMP
+     */
+    private static ByteBuffer bmpHeader(int width, int height, int stride) throws IOException {
+        long size = BMP_HEADER_LENGTH + (long) stride * height;
+        if (size > 0xFFFFFFFFL) {
+            throw new IOException("Image of " + width + "x" + height + " pixels is too large for BMP");
+        }
+        ByteBuffer header = ByteBuffer.allocate(BMP_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        header.put((byte) 'B').put((byte) 'M').putInt((int) size).putInt(0).putInt(BMP_HEADER_LENGTH);
+        header.putInt(40).putInt(width).putInt(height).putShort((short) 1).putShort((short) 24).putInt(0)
+                .putInt((int) (size - BMP_HEADER_LENGTH)).putInt(2835).putInt(2835).putInt(0).putInt(0);
+        return header.flip();
+    }
+
+    private static ByteBuffer ppmHeader(int width, int height) {
+        return ByteBuffer.wrap(("P6\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static boolean hasRawExtension(String path) {
+        String extension = extension(path);
+        return extension.equals("bmp") || extension.equals("ppm");
+    }
+
+    private static String extension(String path) {
+        return path.substring(path.lastIndexOf('.') + 1).toLowerCase();
+    }
+}
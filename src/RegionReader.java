@@ -0,0 +1,158 @@
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Decodes a rectangle of .pif, optionally keeping only every n-th pixel and row, reading only the bytes it needs
+ */
+public class RegionReader {
+
+    /**
+     * Decodes a rectangle of .pif. Uncompressed pixels are read row by row with positional reads, only the needed rows,
+     * tiled pixels tile by tile, only the needed tiles, and run-length pixels sequentially, up to the last needed row.
+     * @param path address of the .pif file, file name and its type
+     * @param x column of the top-left corner
+     * @param y row of the top-left corner
+     * @param width width of the rectangle, negative for all columns right of x
+     * @param height height of the rectangle, negative for all rows below y
+     * @param subsample every subsample-th pixel of every subsample-th row is kept, starting at the top-left corner
+     * @return image raster of (width / subsample) * (height / subsample) pixels, rounded up
+     */
+    public static BufferedImage read(String path, int x, int y, int width, int height, int subsample) throws IOException {
+        PIF pif = new PIF();
+        try (FileChannel channel = FileIO.openRead(path)) {
+            ByteBuffer header = ByteBuffer.allocate(PIF.HEADER_LENGTH);
+            FileIO.readFully(channel, header, 0);
+            PIFLayout.readHeader(header.flip(), pif);
+            int imageWidth = pif.getHeader().getWidth();
+            int imageHeight = pif.getHeader().getHeight();
+            width = width < 0 ? imageWidth - x : width;
+            height = height < 0 ? imageHeight - y : height;
+            if (x < 0 || y < 0 || width <= 0 || height <= 0 || (long) x + width > imageWidth || (long) y + height > imageHeight) {
+                throw new IllegalArgumentException("Region is outside of the " + imageWidth + "x" + imageHeight + " image");
+            }
+            if (subsample < 1) {
+                throw new IllegalArgumentException("Subsample must be at least 1");
+            }
+            Region region = new Region(x, y, (int) (((long) width + subsample - 1) / subsample), (int) (((long) height + subsample - 1) / subsample), subsample);
+            if (imageWidth > PIF.MAX_WIDTH) {
+                throw new IOException("Rows of " + imageWidth + " pixels are too long to be read");
+            }
+            byte[] bgr = new byte[PIFFormater.imageLength(region.width, region.height)];
+            switch (pif.getHeader().imageType) {
+                case PIF.UNCOMPRESSED -> readUncompressed(channel, imageWidth, region, bgr);
+                case PIF.TILED -> readTiled(channel, imageWidth, imageHeight, Extensions.areaLength(pif.getHeader(), channel), region, bgr);
+                case PIF.RUN_LENGTH -> readSequential(channel.position(0), region, bgr);
+                default -> throw new IOException("Unsupported image type " + pif.getHeader().imageType);
+            }
+            return PIFFormater.wrapBGR(bgr, region.width, region.height);
+        }
+    }
+
+    /**
+     * Decoded rectangle
+     * @param x column of the top-left corner in the image
+     * @param y row of the top-left corner in the image
+     * @param width width of the output
+     * @param height height of the output
+     * @param subsample distance in the image between output pixels
+     */
+    private record Region(int x, int y, int width, int height, int subsample) {
+        /**
+         * @return first output index whose image coordinate, counted from start, is at least from
+         */
+        int first(int start, int from) {
+            return Math.max(0, Math.floorDiv(from - start + subsample - 1, subsample));
+        }
+    }
+
+    private static void readUncompressed(FileChannel channel, int imageWidth, Region region, byte[] bgr) throws IOException {
+        int span = ((region.width - 1) * region.subsample + 1) * 3;
+        ByteBuffer row = ByteBuffer.allocate(span);
+        for (int j = 0; j < region.height; j++) {
+            long position = PIF.HEADER_LENGTH + ((long) (region.y + j * region.subsample) * imageWidth + region.x) * 3;
+            FileIO.readFully(channel, row.clear(), position);
+            pick(row.array(), 0, region, bgr, j * region.width * 3, region.width);
+        }
+    }
+
+    private static void readTiled(FileChannel channel, int imageWidth, int imageHeight, long areaLength, Region region, byte[] bgr) throws IOException {
+        long payload = PIF.HEADER_LENGTH;
+        ByteBuffer small = ByteBuffer.allocate(2).order(ByteOrder.LITTLE_ENDIAN);
+        FileIO.readFully(channel, small, payload);
+        int tileSize = Short.toUnsignedInt(small.flip().getShort());
+        if (tileSize == 0) {
+            throw new IOException("Tile size is 0");
+        }
+        int across = Tiles.count(imageWidth, tileSize);
+        long index = channel.size() - PIF.TRAILER_LENGTH - areaLength - (long) across * Tiles.count(imageHeight, tileSize) * Tiles.INDEX_ENTRY_LENGTH;
+        int lastX = region.x + (region.width - 1) * region.subsample;
+        int lastY = region.y + (region.height - 1) * region.subsample;
+        int firstColumn = region.x / tileSize, lastColumn = lastX / tileSize;
+        ByteBuffer entries = ByteBuffer.allocate((lastColumn - firstColumn + 1) * Tiles.INDEX_ENTRY_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        byte[] tile = new byte[tileSize * tileSize * 3];
+        ByteBuffer compressed = ByteBuffer.allocate(0);
+        for (int tileRow = region.y / tileSize; tileRow <= lastY / tileSize; tileRow++) {
+            int top = tileRow * tileSize;
+            int tileHeight = Math.min(tileSize, imageHeight - top);
+            int firstJ = region.first(region.y, top), endJ = Math.min(region.height, region.first(region.y, top + tileHeight));
+            if (firstJ >= endJ) {
+                continue;
+            }
+            FileIO.readFully(channel, entries.clear(), index + ((long) tileRow * across + firstColumn) * Tiles.INDEX_ENTRY_LENGTH);
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int left = column * tileSize;
+                int tileWidth = Math.min(tileSize, imageWidth - left);
+                int firstI = region.first(region.x, left), endI = Math.min(region.width, region.first(region.x, left + tileWidth));
+                long offset = entries.getLong((column - firstColumn) * Tiles.INDEX_ENTRY_LENGTH);
+                int length = entries.getInt((column - firstColumn) * Tiles.INDEX_ENTRY_LENGTH + 8);
+                if (firstI >= endI) {
+                    continue;
+                }
+                if (offset < 2 || length < 0 || payload + offset + 4 + length > index) {
+                    throw new IOException("Tile index points outside of the tiles");
+                }
+                if (compressed.capacity() < length) {
+                    compressed = ByteBuffer.allocate(length);
+                }
+                FileIO.readFully(channel, compressed.clear().limit(length), payload + offset + 4);
+                Tiles.decompress(compressed.flip(), tile, 0, tileWidth * 3, tileWidth, tileHeight);
+                for (int j = firstJ; j < endJ; j++) {
+                    int tileY = region.y + j * region.subsample - top;
+                    int tileX = region.x + firstI * region.subsample - left;
+                    pick(tile, (tileY * tileWidth + tileX) * 3, region, bgr, (j * region.width + firstI) * 3, endI - firstI);
+                }
+            }
+        }
+    }
+
+    private static void readSequential(FileChannel channel, Region region, byte[] bgr) throws IOException {
+        PIFReader reader = new PIFReader(channel);
+        byte[] row = new byte[reader.getWidth() * 3];
+        for (int y = 0, j = 0; j < region.height; y++) {
+            reader.readRow(row, 0);
+            if (y == region.y + j * region.subsample) {
+                pick(row, region.x * 3, region, bgr, j * region.width * 3, region.width);
+                j++;
+            }
+        }
+    }
+
+    /**
+     * Copies every subsample-th pixel of a row
+     */
+    private static void pick(byte[] source, int offset, Region region, byte[] bgr, int destination, int count) {
+        if (region.subsample == 1) {
+            System.arraycopy(source, offset, bgr, destination, count * 3);
+            return;
+        }
+        int step = region.subsample * 3;
+        for (int i = 0; i < count; i++, offset += step, destination += 3) {
+            bgr[destination] = source[offset];
+            bgr[destination + 1] = source[offset + 1];
+            bgr[destination + 2] = source[offset + 2];
+        }
+    }
+}
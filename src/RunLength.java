@@ -0,0 +1,90 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Handles run-length packets of 24-bit BGR pixels, as in image type 10.
+ * Each packet starts with a byte, if its high bit is set, the next pixel is repeated (low 7 bits + 1) times,
+ * otherwise (low 7 bits + 1) pixels follow as they are. Packets never cross rows.
+ */
+public class RunLength {
+    private static final int MAX_PACKET = 128;
+
+    /**
+     * @param width width of the image
+     * @return maximal length of an encoded row, when no pixel repeats
+     */
+    public static int maxRowLength(int width) {
+        return width * 3 + (width + MAX_PACKET - 1) / MAX_PACKET;
+    }
+
+    /**
+     * Encodes one row of pixels
+     * @param bgr source of width * 3 BGR bytes
+     * @param offset index in bgr where the row starts
+     * @param width count of pixels in the row
+     * @param packets destination of at least maxRowLength(width) bytes from packetsOffset
+     * @param packetsOffset index in packets where the encoded row starts
+     * @return count of bytes written to packets
+     */
+    public static int encodeRow(byte[] bgr, int offset, int width, byte[] packets, int packetsOffset) {
+        int out = packetsOffset;
+        int x = 0;
+        while (x < width) {
+            int run = 1;
+            while (x + run < width && run < MAX_PACKET && samePixel(bgr, offset + x * 3, offset + (x + run) * 3)) {
+                run++;
+            }
+            if (run > 1) {
+                int p = offset + x * 3;
+                packets[out++] = (byte) (0x80 | (run - 1));
+                packets[out++] = bgr[p];
+                packets[out++] = bgr[p + 1];
+                packets[out++] = bgr[p + 2];
+                x += run;
+                continue;
+            }
+            int start = x;
+            do {
+                x++;
+            } while (x < width && x - start < MAX_PACKET && (x + 1 >= width || !samePixel(bgr, offset + x * 3, offset + (x + 1) * 3)));
+            packets[out++] = (byte) (x - start - 1);
+            System.arraycopy(bgr, offset + start * 3, packets, out, (x - start) * 3);
+            out += (x - start) * 3;
+        }
+        return out - packetsOffset;
+    }
+
+    /**
+     * Decodes one row of pixels
+     * @param packets source positioned at the first packet of the row, left after its last packet
+     * @param width count of pixels in the row
+     * @param bgr destination of width * 3 BGR bytes
+     * @param offset index in bgr where the row starts
+     */
+    public static void decodeRow(ByteBuffer packets, int width, byte[] bgr, int offset) throws IOException {
+        int p = offset;
+        int end = offset + width * 3;
+        while (p < end) {
+            int header = Byte.toUnsignedInt(packets.get());
+            int count = ((header & 0x7F) + 1) * 3;
+            if (p + count > end) {
+                throw new IOException("Run-length packet crosses the end of the row");
+            }
+            if ((header & 0x80) != 0) {
+                byte b = packets.get(), g = packets.get(), r = packets.get();
+                for (int stop = p + count; p < stop; p += 3) {
+                    bgr[p] = b;
+                    bgr[p + 1] = g;
+                    bgr[p + 2] = r;
+                }
+            } else {
+                packets.get(bgr, p, count);
+                p += count;
+            }
+        }
+    }
+
+    private static boolean samePixel(byte[] bgr, int a, int b) {
+        return bgr[a] == bgr[b] && bgr[a + 1] == bgr[b + 1] && bgr[a + 2] == bgr[b + 2];
+    }
+}
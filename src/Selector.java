@@ -1,4 +1,11 @@
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.InputMismatchException;
 import java.util.Scanner;
 
@@ -6,14 +13,74 @@ public class Selector {
 
     /**
      * Encodes regular image file to .pif
-     * @param input path address of the input file, file name and its type
-     * @param output path address of the output file, file name and its type
+     * @param input path address of the input file, file name and its type, or a directory, glob or @list file of them
+     * @param output path address of the output file, file name and its type, or a directory for many input files
      * @param authorInitials mandatory 3 bytes in .pif structure
      * @param signature signature mandatory 16 bytes in .pif structure
      */
     public static void encode(String input, String output, String authorInitials, String signature) {
+        encode(input, output, authorInitials, signature, PIF.UNCOMPRESSED);
+    }
+
+    /**
+     * Encodes regular image file to .pif
+     * @param input path address of the input file, file name and its type, or a directory, glob or @list file of them
+     * @param output path address of the output file, file name and its type, or a directory for many input files
+     * @param authorInitials mandatory 3 bytes in .pif structure
+     * @param signature signature mandatory 16 bytes in .pif structure
+     * @param imageType how the pixels are stored, PIF.UNCOMPRESSED, PIF.RUN_LENGTH or PIF.TILED
+     */
+    public static void encode(String input, String output, String authorInitials, String signature, byte imageType) {
+        encode(input, output, authorInitials, signature, imageType, false);
+    }
+
+    /**
+     * Encodes regular image file to .pif, 24-bit BMP and binary PPM are transcoded directly, see RawImages
+     * @param input path address of the input file, file name and its type, or a directory, glob or @list file of them
+     * @param output path address of the output file, file name and its type, or a directory for many input files
+     * @param authorInitials mandatory 3 bytes in .pif structure
+     * @param signature signature mandatory 16 bytes in .pif structure
+     * @param imageType how the pixels are stored, PIF.UNCOMPRESSED, PIF.RUN_LENGTH or PIF.TILED
+     * @param pyramid if true, the thumbnail pyramid is stored after the pixels
+     */
+    public static void encode(String input, String output, String authorInitials, String signature, byte imageType, boolean pyramid) {
+        encode(input, output, authorInitials, signature, imageType, pyramid, false);
+    }
+
+    /**
+     * Encodes regular image file to .pif, 24-bit BMP and binary PPM are transcoded directly, see RawImages
+     * @param input path address of the input file, file name and its type, or a directory, glob or @list file of them
+     * @param output path address of the output file, file name and its type, or a directory for many input files
+     * @param authorInitials mandatory 3 bytes in .pif structure
+     * @param signature signature mandatory 16 bytes in .pif structure
+     * @param imageType how the pixels are stored, PIF.UNCOMPRESSED, PIF.RUN_LENGTH or PIF.TILED
+     * @param pyramid if true, the thumbnail pyramid is stored after the pixels
+     * @param checksums if true, CRC32C checksums of the file are stored after the pixels, see Checksums
+     */
+    public static void encode(String input, String output, String authorInitials, String signature, byte imageType, boolean pyramid, boolean checksums) {
+        if (Batch.isBatch(input)) {
+            Batch.encode(input, output, authorInitials, signature, imageType, pyramid, checksums);
+            return;
+        }
         try {
-            FileIO.writeBytes(output, PIFFormater.outputPIF(PIFFormater.toPIF(FileIO.readImage(input), authorInitials, signature)));
+            if (RawImages.canRead(input)) {
+                RawImages.encode(input, output, authorInitials, signature, imageType, pyramid, checksums);
+                return;
+            }
+            BufferedImage image;
+            try (Stats.Timer timer = Stats.start(Stats.Stage.IMAGE_DECODE)) {
+                image = ImageFiles.readImage(input);
+                timer.bytes(new File(input).length());
+            }
+            PIF pif = PIFFormater.newPIF(image.getWidth(), image.getHeight(), authorInitials, signature, imageType);
+            try (FileIO.AtomicOutput file = FileIO.createAtomic(output, FileIO.Sync.NONE)) {
+                try (Stats.Timer timer = Stats.start(Stats.Stage.CONVERT);
+                     PIFWriter writer = new PIFWriter(file.channel(), pif, pyramid, checksums)) {
+                    PIFFormater.toPIF(image, writer);
+                    timer.bytes((long) image.getWidth() * image.getHeight() * 3);
+                }
+                file.commit();
+            }
         } catch (IOException e) {
             System.out.println("Error with files, double check the paths, file names and extensions");
         }
@@ -25,34 +92,288 @@ public class Selector {
      * @param output path address of the output file, file name and its type
      */
     public static void decode(String input, String output) {
-        try {
-            FileIO.writeImage(output, PIFFormater.toRegularImage(PIFFormater.inputPIF(FileIO.readBytes(input))));
+        decode(input, output, "png");
+    }
+
+    /**
+     * Decodes .pif to regular image file, BMP and PPM are transcoded directly, see RawImages
+     * @param input path address of the input file, file name and its type, or a directory, glob or @list file of them
+     * @param output path address of the output file, file name and its type, or a directory for many input files
+     * @param fileType type of the output files, used only for many input files
+     */
+    public static void decode(String input, String output, String fileType) {
+        if (Batch.isBatch(input)) {
+            Batch.decode(input, output, fileType);
+            return;
+        }
+        if (RawImages.canWrite(output)) {
+            try {
+                RawImages.decode(input, output);
+            } catch (IOException e) {
+                System.out.println("Error with files, double check the paths, file names and extensions");
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+            }
+            return;
+        }
+        try (PIFReader reader = new PIFReader(FileIO.openRead(input))) {
+            BufferedImage image;
+            try (Stats.Timer timer = Stats.start(Stats.Stage.CONVERT)) {
+                image = PIFFormater.toRegularImage(reader);
+                timer.bytes((long) image.getWidth() * image.getHeight() * 3);
+            }
+            try (Stats.Timer timer = Stats.start(Stats.Stage.IMAGE_ENCODE)) {
+                ImageFiles.writeImage(output, image);
+                timer.bytes(new File(output).length());
+            }
         }  catch (IOException e) {
             System.out.println("Error with files, double check the paths, file names and extensions");
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Decodes a rectangle of .pif to regular image file, reading only the needed part of the file
+     * @param input path address of the input file, file name and its type
+     * @param output path address of the output file, file name and its type
+     * @param x column of the top-left corner
+     * @param y row of the top-left corner
+     * @param width width of the rectangle, negative for all columns right of x
+     * @param height height of the rectangle, negative for all rows below y
+     * @param subsample every subsample-th pixel of every subsample-th row is kept
+     */
+    public static void decodeRegion(String input, String output, int x, int y, int width, int height, int subsample) {
+        try {
+            ImageFiles.writeImage(output, RegionReader.read(input, x, y, width, height, subsample));
+        } catch (IOException e) {
+            System.out.println("Error with files, double check the paths, file names and extensions");
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Decodes a scaled down .pif to regular image file, from the largest level of its thumbnail pyramid fitting the size
+     * @param input path address of the input file, file name and its type
+     * @param output path address of the output file, file name and its type
+     * @param maxSize largest side of the output image
+     */
+    public static void thumbnail(String input, String output, int maxSize) {
+        try {
+            ImageFiles.writeImage(output, Pyramid.read(input, maxSize));
+        } catch (IOException e) {
+            System.out.println("Error with files, double check the paths, file names and extensions");
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
         }
     }
 
     /**
      * Prints metadata of .pif
-     * @param input path address of the .pif file, file name and its type
+     * @param input path address of the .pif file, file name and its type, or a directory, glob or @list file of them
      */
     public static void metadata(String input) {
+        if (Batch.isBatch(input)) {
+            Batch.metadata(input);
+            return;
+        }
         try {
-            System.out.println(PIFFormater.inputPIF(FileIO.readBytes(input)).metadata());
+            PIFMetadata metadata;
+            try (Stats.Timer timer = Stats.start(Stats.Stage.READ)) {
+                metadata = PIFMetadata.read(input);
+                timer.bytes(PIF.HEADER_LENGTH + PIF.TRAILER_LENGTH);
+            }
+            System.out.println(metadata);
         }  catch (IOException e) {
             System.out.println("Error with file, double check the path, file name and extension");
         }
     }
 
+    /**
+     * Checks .pif against its checksum block and prints the result, without decoding the pixels
+     * @param input path address of the .pif file, file name and its type, or a directory, glob or @list file of them
+     */
+    public static void verify(String input) {
+        if (Batch.isBatch(input)) {
+            Batch.verify(input);
+            return;
+        }
+        try {
+            System.out.println(Checksums.verify(input) ? "OK" : "No checksums, encode with --checksum to add them");
+        } catch (IOException e) {
+            System.out.println("Corrupted: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the catalog of all .pif files under a directory, reading only their header and trailer, see Catalog
+     * @param input path address of the directory
+     * @param output path address of the catalog file, refreshed from the changed files only if it exists
+     */
+    public static void index(String input, String output) {
+        try {
+            Catalog.index(input, output);
+        } catch (IOException e) {
+            System.out.println("Error with files, double check the paths, file names and extensions");
+        }
+    }
+
+    /**
+     * Prints the paths of the files of a catalog matching the query, without opening the files
+     * @param input path address of the catalog file
+     * @param query conditions of the files
+     * @param countOnly if true, only the count of matching files is printed
+     */
+    public static void query(String input, Catalog.Query query, boolean countOnly) {
+        PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false);
+        try {
+            long start = System.nanoTime();
+            Catalog catalog = Catalog.open(input);
+            int[] found = catalog.find(query);
+            double milliseconds = (System.nanoTime() - start) / 1e6;
+            if (!countOnly) {
+                for (int i : found) {
+                    out.println(catalog.path(i));
+                }
+            }
+            out.printf("%d of %d files match, found in %.1f ms%n", found.length, catalog.count(), milliseconds);
+        } catch (IOException e) {
+            out.println("Error with file, double check the path, file name and extension");
+        } finally {
+            out.flush();
+        }
+    }
+
+    /**
+     * Appends regular image files as frames of multi-frame .pif, creating it if it doesn't exist, see Frames
+     * @param input path address of the input file, file name and its type, or a directory, glob or @list file of them,
+     *              appended in path order
+     * @param output path address of the multi-frame .pif
+     * @param authorInitials mandatory 3 bytes in .pif structure, used if the file is created
+     * @param signature mandatory 16 bytes in .pif structure, used if the file is created
+     * @param keyframeInterval most frames stored as deltas after each keyframe
+     */
+    public static void frames(String input, String output, String authorInitials, String signature, int keyframeInterval) {
+        Frames.Writer writer = null;
+        int appended = 0;
+        try {
+            List<Path> inputs = Batch.isBatch(input)
+                    ? Batch.expand(input, false).stream().map(Batch.Job::input).toList()
+                    : List.of(Path.of(input));
+            byte[] bgr = null;
+            for (Path path : inputs) {
+                // BMP and PPM are read directly, see RawImages
+                BufferedImage image = null;
+                int[] size = RawImages.readSize(path.toString());
+                if (size == null) {
+                    try (Stats.Timer timer = Stats.start(Stats.Stage.IMAGE_DECODE)) {
+                        image = ImageFiles.readImage(path.toString());
+                        timer.bytes(path.toFile().length());
+                    }
+                    if (image == null) {
+                        System.out.println("Error with " + path + ": not a readable image");
+                        continue;
+                    }
+                    size = new int[]{image.getWidth(), image.getHeight()};
+                }
+                if (writer == null) {
+                    try {
+                        writer = Frames.Writer.open(output, size[0], size[1], authorInitials, signature, keyframeInterval);
+                    } catch (IOException e) {
+                        System.out.println("Error with " + output + ": " + e.getMessage());
+                        return;
+                    }
+                    bgr = new byte[Frames.frameLength(writer.getWidth(), writer.getHeight())];
+                }
+                if (size[0] != writer.getWidth() || size[1] != writer.getHeight()) {
+                    System.out.println("Error with " + path + ": frames are " + writer.getWidth() + "x" + writer.getHeight() + " pixels");
+                    continue;
+                }
+                if (image == null) {
+                    RawImages.read(path.toString(), bgr, 0);
+                } else {
+                    try (Stats.Timer timer = Stats.start(Stats.Stage.CONVERT)) {
+                        PIFFormater.readBGR(image, 0, image.getHeight(), bgr, 0);
+                        timer.bytes(bgr.length);
+                    }
+                }
+                writer.writeFrame(bgr, 0);
+                appended++;
+            }
+            if (writer != null) {
+                int count = writer.getCount();
+                writer.close();
+                writer = null;
+                System.out.println("Appended " + appended + " frames, " + count + " in the file");
+            }
+        } catch (IOException e) {
+            System.out.println("Error with files, double check the paths, file names and extensions");
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ignored) {
+                    // the frames written so far are found again when the file is opened to append
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes one frame of multi-frame .pif to regular image file, reading only the frames it depends on
+     * @param input path address of the multi-frame .pif
+     * @param output path address of the output file, file name and its type
+     * @param frame index of the frame, from 0
+     */
+    public static void decodeFrame(String input, String output, int frame) {
+        try (Frames.Reader reader = new Frames.Reader(FileIO.openRead(input))) {
+            byte[] bgr = new byte[Frames.frameLength(reader.getWidth(), reader.getHeight())];
+            reader.readFrame(frame, bgr, 0);
+            try (Stats.Timer timer = Stats.start(Stats.Stage.IMAGE_ENCODE)) {
+                ImageFiles.writeImage(output, PIFFormater.wrapBGR(bgr, reader.getWidth(), reader.getHeight()));
+                timer.bytes(new File(output).length());
+            }
+        } catch (IOException e) {
+            System.out.println("Error with files, double check the paths, file names and extensions");
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
     /**
      * Prints hexdump of .pif
      * @param input path address of the .pif file, file name and its type
      */
     public static void hexDump(String input) {
-        try {
-            System.out.println(PIFFormater.inputPIF(FileIO.readBytes(input)));
+        hexDump(input, 0, -1, false);
+    }
+
+    /**
+     * Prints hexdump of a part of .pif, streamed from the file
+     * @param input path address of the .pif file, file name and its type
+     * @param offset index of the first byte printed
+     * @param length count of bytes printed, negative for all until the end of the file
+     * @param headerAndTrailer if true, only the header and trailer are printed and offset and length are ignored
+     */
+    public static void hexDump(String input, long offset, long length, boolean headerAndTrailer) {
+        PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false);
+        try (FileChannel channel = FileIO.openRead(input)) {
+            long size = channel.size();
+            HexDump.columns(out);
+            if (headerAndTrailer) {
+                HexDump.dump(channel, 0, Math.min(size, PIF.HEADER_LENGTH), out);
+                long trailer = Math.max(PIF.HEADER_LENGTH, size - PIF.TRAILER_LENGTH);
+                out.print("...\n");
+                HexDump.dump(channel.position(trailer), trailer, size - trailer, out);
+            } else {
+                offset = Math.min(Math.max(offset, 0), size);
+                HexDump.dump(channel.position(offset), offset, length < 0 ? size - offset : length, out);
+            }
         }  catch (IOException e) {
-            System.out.println("Error with file, double check the path, file name and extension");
+            out.println("Error with file, double check the path, file name and extension");
+        } finally {
+            out.flush();
         }
     }
 
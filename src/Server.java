@@ -0,0 +1,230 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local conversion daemon, keeping one warm JVM listening on the loopback address, so repeated conversions skip
+ * JVM startup, AWT and ImageIO initialization and JIT warm-up. Jobs run on a fixed pool with a bounded queue,
+ * when the queue is full the accepting thread waits, so further requests wait in the socket backlog.
+ * Every request but /ping must carry the random token of the daemon in the X-PIF-Token header, the token is kept
+ * in a file only its user may read, see Client.tokenPath, so other users and web pages can't use the daemon.
+ * The daemon only converts bytes, it never reads or writes files named by a request.
+ * <ul>
+ *     <li>POST /encode?initials=&amp;signature=&amp;compression=&amp;pyramid=true&amp;checksum=true with image bytes returns .pif bytes</li>
+ *     <li>POST /decode?format=png with .pif bytes returns image bytes</li>
+ *     <li>POST /metadata with .pif bytes returns the metadata text</li>
+ *     <li>GET /ping?nonce= returns the HMAC-SHA256 of the nonce keyed by the token, in hex, so clients know it's
+ *     the daemon before they send the token, see Client.proof</li>
+ *     <li>POST /stop stops the daemon</li>
+ * </ul>
+ */
+public class Server {
+    private static final int QUEUE_PER_THREAD = 4;
+    private static final int TOKEN_LENGTH = 32;
+
+    /**
+     * Request handled on the job pool
+     */
+    interface Job {
+        /**
+         * @param body bytes of the request
+         * @param query parameters of the request
+         * @return bytes of the response
+         */
+        byte[] run(byte[] body, Map<String, String> query) throws Exception;
+    }
+
+    /**
+     * Starts the daemon and returns, it runs until POST /stop
+     * @param port port on the loopback address, 0 for one chosen by the system
+     * @param threads count of jobs run at once
+     * @return port the daemon listens on
+     */
+    public static int serve(int port, int threads) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * QUEUE_PER_THREAD), (job, pool) -> {
+            try {
+                pool.getQueue().put(job);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException(e);
+            }
+        });
+        byte[] token = new byte[TOKEN_LENGTH];
+        new SecureRandom().nextBytes(token);
+        String hexToken = HexFormat.of().formatHex(token);
+        Path tokenPath = Client.tokenPath(server.getAddress().getPort());
+        server.setExecutor(executor);
+        server.createContext("/ping", exchange -> handle(exchange, null,
+                (body, query) -> bytes(Client.proof(hexToken, query.getOrDefault("nonce", "")))));
+        server.createContext("/encode", exchange -> handle(exchange, hexToken, Server::encode));
+        server.createContext("/decode", exchange -> handle(exchange, hexToken, Server::decode));
+        server.createContext("/metadata", exchange -> handle(exchange, hexToken, Server::metadata));
+        server.createContext("/stop", exchange -> {
+            if (handle(exchange, hexToken, (body, query) -> bytes("stopping"))) {
+                new Thread(() -> {
+                    server.stop(1);
+                    executor.shutdown();
+                    deleteToken(tokenPath, hexToken);
+                }).start();
+            }
+        });
+        warmUp();
+        writeToken(tokenPath, hexToken);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> deleteToken(tokenPath, hexToken)));
+        server.start();
+        System.out.println("Serving on http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort()
+                + " with " + threads + " threads, token in " + tokenPath);
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Writes the token to a new file only the user may read and write, in a directory only the user may open,
+     * replacing the token of a daemon which stopped without deleting it
+     */
+    private static void writeToken(Path path, String token) throws IOException {
+        boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+        Path directory = path.getParent();
+        if (posix) {
+            Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            Files.setPosixFilePermissions(directory, PosixFilePermissions.fromString("rwx------"));
+        } else {
+            Files.createDirectories(directory);
+        }
+        Files.deleteIfExists(path);
+        if (posix) {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(path);
+        }
+        Files.writeString(path, token, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Deletes the token file, unless another daemon on the same port has replaced it
+     */
+    private static void deleteToken(Path path, String token) {
+        try {
+            if (Files.exists(path) && Files.readString(path, StandardCharsets.US_ASCII).equals(token)) {
+                Files.delete(path);
+            }
+        } catch (IOException ignored) {
+            // a stale token is harmless, clients check the daemon with /ping before using it
+        }
+    }
+
+    private static byte[] encode(byte[] body, Map<String, String> query) throws IOException {
+        BufferedImage image = ImageFiles.decodeImage(body);
+        if (image == null) {
+            throw new IOException("Not a readable image");
+        }
+        PIF pif = PIFFormater.toPIF(image, query.getOrDefault("initials", ""), query.getOrDefault("signature", ""),
+                Main.imageType(query.getOrDefault("compression", "none")));
+        if (Boolean.parseBoolean(query.get("pyramid"))) {
+            PIFFormater.addPyramid(pif);
+        }
+        return PIFFormater.outputPIF(pif, Boolean.parseBoolean(query.get("checksum")));
+    }
+
+    private static byte[] decode(byte[] body, Map<String, String> query) throws IOException {
+        return ImageFiles.encodeImage(PIFFormater.toRegularImage(PIFFormater.inputPIF(body)), query.getOrDefault("format", "png"));
+    }
+
+    private static byte[] metadata(byte[] body, Map<String, String> query) throws IOException {
+        if (body.length < PIF.HEADER_LENGTH + PIF.TRAILER_LENGTH) {
+            throw new IOException("File is too short to be .pif");
+        }
+        PIF pif = new PIF();
+        PIFLayout.readHeader(ByteBuffer.wrap(body), pif);
+        PIFLayout.readTrailer(ByteBuffer.wrap(body).position(body.length - PIF.TRAILER_LENGTH), pif);
+        return bytes(PIFMetadata.of(pif) + "\n");
+    }
+
+    /**
+     * Reads the request, runs the job and sends its result, 400 with the message for bad input and 500 for the rest,
+     * or 403 without running the job if the request lacks the token
+     * @param token token the request must carry, null for none
+     * @return true if the job ran
+     */
+    private static boolean handle(HttpExchange exchange, String token, Job job) throws IOException {
+        try (exchange) {
+            if (token != null && !authorized(exchange, token)) {
+                exchange.getRequestBody().close();
+                exchange.sendResponseHeaders(403, -1);
+                return false;
+            }
+            byte[] response;
+            int status = 200;
+            try {
+                response = job.run(exchange.getRequestBody().readAllBytes(), query(exchange.getRequestURI().getRawQuery()));
+            } catch (IOException | IllegalArgumentException e) {
+                status = 400;
+                response = bytes(String.valueOf(e.getMessage()));
+            } catch (Exception e) {
+                status = 500;
+                response = bytes(e.toString());
+            }
+            exchange.sendResponseHeaders(status, response.length == 0 ? -1 : response.length);
+            exchange.getResponseBody().write(response);
+            return true;
+        }
+    }
+
+    private static boolean authorized(HttpExchange exchange, String token) {
+        String sent = exchange.getRequestHeaders().getFirst(Client.TOKEN_HEADER);
+        return sent != null && MessageDigest.isEqual(bytes(sent), bytes(token));
+    }
+
+    private static Map<String, String> query(String raw) {
+        Map<String, String> query = new HashMap<>();
+        if (raw != null) {
+            for (String pair : raw.split("&")) {
+                int equals = pair.indexOf('=');
+                String key = equals < 0 ? pair : pair.substring(0, equals);
+                String value = equals < 0 ? "" : pair.substring(equals + 1);
+                query.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+            }
+        }
+        return query;
+    }
+
+    /**
+     * Runs a small conversion through every image type, so ImageIO is initialized and the codecs are compiled
+     * before the first request
+     */
+    private static void warmUp() throws IOException {
+        BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_3BYTE_BGR);
+        for (byte imageType : new byte[]{PIF.UNCOMPRESSED, PIF.RUN_LENGTH, PIF.TILED}) {
+            for (int i = 0; i < 100; i++) {
+                PIF pif = PIFFormater.toPIF(image, "", "", imageType);
+                PIFFormater.toRegularImage(PIFFormater.inputPIF(PIFFormater.outputPIF(pif)));
+            }
+        }
+        ImageFiles.decodeImage(ImageFiles.encodeImage(image, "png"));
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,248 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the stages of a conversion, reading files, ImageIO decoding, pixel conversion, serialization,
+ * ImageIO encoding and writing files. While JFR records, every stage is a pif.Stage event, shown under
+ * "Papulastic Image Format" in JDK Mission Control, and when --stats is given it is also added to the registry
+ * of the run, printed at its end.
+ * Stages may nest, as writes of PIFWriter during the conversion, the registry counts only the time and
+ * allocation of the stage itself, without its nested stages, so the stages add up to the whole run.
+ */
+public class Stats {
+    private static final InheritableThreadLocal<Stats> CURRENT = new InheritableThreadLocal<>();
+    private static final ThreadLocal<Timer> OPEN = new ThreadLocal<>();
+    private static final int BUCKETS = 64;
+
+    /**
+     * Part of a conversion
+     */
+    public enum Stage {
+        READ("read"),
+        IMAGE_DECODE("image decode"),
+        CONVERT("convert"),
+        SERIALIZE("serialize"),
+        IMAGE_ENCODE("image encode"),
+        WRITE("write");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * Measurement of one stage, started by start and ended by close
+     */
+    public static class Timer implements AutoCloseable {
+        private final Stage stage;
+        private final Stats stats;
+        private final StageEvent event;
+        private Timer parent;
+        private long bytes;
+        private long startNanos;
+        private long startAllocated;
+        private long nestedNanos;
+        private long nestedAllocated;
+
+        private Timer(Stage stage, Stats stats, StageEvent event) {
+            this.stage = stage;
+            this.stats = stats;
+            this.event = event;
+        }
+
+        /**
+         * @param bytes count of bytes the stage read, converted or wrote, added to the ones given before
+         * @return this timer
+         */
+        public Timer bytes(long bytes) {
+            this.bytes += bytes;
+            return this;
+        }
+
+        /**
+         * Ends the stage, committing its event and adding it to the registry
+         */
+        @Override
+        public void close() {
+            if (event != null) {
+                event.finish(stage.label, bytes);
+            }
+            if (stats == null) {
+                return;
+            }
+            long nanos = System.nanoTime() - startNanos;
+            long allocated = Allocation.current() - startAllocated;
+            stats.meters[stage.ordinal()].add(nanos - nestedNanos, allocated - nestedAllocated, bytes);
+            if (parent != null) {
+                parent.nestedNanos += nanos;
+                parent.nestedAllocated += allocated;
+            }
+            OPEN.set(parent);
+        }
+    }
+
+    /**
+     * JFR event of one stage. Loading any event class initializes JFR, which slows the startup several times,
+     * so it's created only once JFR has started, from the command line or later with jcmd
+     */
+    @Name("pif.Stage")
+    @Label("Stage")
+    @Category("Papulastic Image Format")
+    @Description("Reading, decoding, conversion, serialization, encoding or writing of .pif or a regular image")
+    @StackTrace(false)
+    private static class StageEvent extends Event {
+        @Label("Stage")
+        String stage;
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        private static StageEvent start() {
+            StageEvent event = new StageEvent();
+            event.begin();
+            return event;
+        }
+
+        private void finish(String stage, long bytes) {
+            end();
+            if (shouldCommit()) {
+                this.stage = stage;
+                this.bytes = bytes;
+                commit();
+            }
+        }
+    }
+
+    /**
+     * Totals of one stage
+     */
+    private static class Meter {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder allocated = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+        /**
+         * Count of stages by the power of 2 nanoseconds they took
+         */
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        private void add(long nanos, long allocated, long bytes) {
+            count.increment();
+            this.nanos.add(nanos);
+            this.allocated.add(allocated);
+            this.bytes.add(bytes);
+            max.accumulate(nanos);
+            histogram.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(Math.max(nanos, 1)));
+        }
+
+        /**
+         * @return upper bound in nanoseconds of the fraction of the stages which took the least time,
+         *         the power of 2 above them or the longest stage if it's less
+         */
+        private long percentile(double fraction) {
+            long rank = (long) Math.ceil(count.sum() * fraction);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += histogram.get(i);
+                if (seen >= Math.max(rank, 1)) {
+                    return i == BUCKETS - 1 ? max.get() : Math.min(1L << i, max.get());
+                }
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Allocated bytes of the current thread, loaded only with --stats, as management classes slow the startup
+     */
+    private static class Allocation {
+        private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        private static long current() {
+            return THREADS.getCurrentThreadAllocatedBytes();
+        }
+    }
+
+    private final Meter[] meters = new Meter[Stage.values().length];
+    private final long startNanos = System.nanoTime();
+
+    private Stats() {
+        for (int i = 0; i < meters.length; i++) {
+            meters[i] = new Meter();
+        }
+    }
+
+    /**
+     * Starts a registry for the stages run by this thread and the threads it starts afterwards
+     * @return the registry, printed by report
+     */
+    public static Stats enable() {
+        Stats stats = new Stats();
+        Allocation.current();
+        CURRENT.set(stats);
+        return stats;
+    }
+
+    /**
+     * Stops adding the stages of this thread to the registry
+     */
+    public static void disable() {
+        CURRENT.remove();
+        OPEN.remove();
+    }
+
+    /**
+     * Starts measuring a stage, which is ended by closing the returned timer, best in try-with-resources
+     * @param stage measured stage
+     * @return timer of the stage
+     */
+    public static Timer start(Stage stage) {
+        Stats stats = CURRENT.get();
+        Timer timer = new Timer(stage, stats, System.getProperty("jdk.jfr.repository") == null ? null : StageEvent.start());
+        if (stats != null) {
+            timer.parent = OPEN.get();
+            OPEN.set(timer);
+            timer.startAllocated = Allocation.current();
+            timer.startNanos = System.nanoTime();
+        }
+        return timer;
+    }
+
+    /**
+     * Prints time, throughput and allocation of every stage which ran, allocation is counted on the thread
+     * running the stage, not on the pool threads it may use
+     * @param out destination of the report
+     */
+    public void report(PrintStream out) {
+        double wall = (System.nanoTime() - startNanos) / 1e6;
+        out.printf("%-13s %8s %10s %9s %9s %9s %10s %9s %12s%n",
+                "Stage", "Count", "Total ms", "Mean ms", "p50 ms", "p99 ms", "MB", "MB/s", "Allocated MB");
+        for (Stage stage : Stage.values()) {
+            Meter meter = meters[stage.ordinal()];
+            long count = meter.count.sum();
+            if (count == 0) {
+                continue;
+            }
+            double total = meter.nanos.sum() / 1e6;
+            double megabytes = meter.bytes.sum() / 1e6;
+            out.printf("%-13s %8d %10.1f %9.2f %9.2f %9.2f %10.1f %9.1f %12.1f%n", stage.label, count, total, total / count,
+                    meter.percentile(0.5) / 1e6, meter.percentile(0.99) / 1e6, megabytes,
+                    total > 0 ? megabytes / (total / 1e3) : 0, meter.allocated.sum() / 1e6);
+        }
+        out.printf("%-13s %8s %10.1f%n", "wall", "", wall);
+    }
+}
@@ -0,0 +1,56 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Splits the conversion of an image to stripes of rows, converted at once on the common ForkJoin pool, each stripe
+ * into its own range of the destination. Images under THRESHOLD pixels stay on the calling thread, as splitting
+ * them costs more than it saves. The threshold is set by the pif.parallelThreshold system property, 0 always splits
+ * and -1 never does, the count of threads by java.util.concurrent.ForkJoinPool.common.parallelism.
+ */
+public class Stripes {
+    /**
+     * Count of pixels from which images are converted in parallel
+     */
+    public static final long THRESHOLD = Long.getLong("pif.parallelThreshold", 1 << 21);
+    /**
+     * Stripes made for each thread, so threads finishing early take over the rest
+     */
+    private static final int STRIPES_PER_THREAD = 4;
+
+    /**
+     * Converts the rows of one stripe
+     */
+    interface Stripe {
+        /**
+         * @param fromY first row of the stripe
+         * @param toY row after the last one of the stripe
+         */
+        void convert(int fromY, int toY);
+    }
+
+    /**
+     * @param width width of the image
+     * @param height height of the image
+     * @return true if the image is large enough to be converted in parallel
+     */
+    static boolean parallel(int width, int height) {
+        return THRESHOLD >= 0 && (long) width * height >= THRESHOLD && height > 1
+                && ForkJoinPool.getCommonPoolParallelism() > 1;
+    }
+
+    /**
+     * Converts all rows, in parallel stripes if the image is large enough, and returns once all are converted
+     * @param width width of the image
+     * @param height height of the image
+     * @param stripe conversion of a range of rows, called at once from several threads on disjoint ranges
+     */
+    static void forEach(int width, int height, Stripe stripe) {
+        if (!parallel(width, height)) {
+            stripe.convert(0, height);
+            return;
+        }
+        int count = Math.min(height, ForkJoinPool.getCommonPoolParallelism() * STRIPES_PER_THREAD);
+        IntStream.range(0, count).parallel()
+                .forEach(i -> stripe.convert((int) ((long) height * i / count), (int) ((long) height * (i + 1) / count)));
+    }
+}
@@ -0,0 +1,277 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.stream.IntStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Handles pixels split to square tiles, each compressed by Deflate on its own, as in image type PIF.TILED.
+ * The payload starts with the tile size (2 bytes), then come the tiles row by row, each as its compressed length
+ * (4 bytes) and the compressed BGR rows of the tile, and it ends with the index, the offset in the payload (8 bytes)
+ * and the compressed length (4 bytes) of every tile. All numbers are little endian.
+ * Tiles are compressed and decompressed in parallel on the common ForkJoin pool.
+ */
+public class Tiles {
+    /**
+     * Tile size used by the encoder
+     */
+    public static final int DEFAULT_SIZE = 256;
+    /**
+     * Length of an index entry of one tile
+     */
+    public static final int INDEX_ENTRY_LENGTH = 12;
+
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(Deflater::new);
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[0]);
+
+    /**
+     * @param length width or height of the image
+     * @param tileSize width and height of full tiles
+     * @return count of tiles needed to cover the length
+     */
+    public static int count(int length, int tileSize) {
+        return (length + tileSize - 1) / tileSize;
+    }
+
+    /**
+     * Compresses all tiles of the image
+     * @param bgr 24-bit BGR pixels, top-left origin
+     * @param width width of the image
+     * @param height height of the image
+     * @param tileSize width and height of full tiles
+     * @return whole payload, with the tile size, the tiles and the index
+     */
+    public static ByteBuffer encode(byte[] bgr, int width, int height, int tileSize) {
+        int across = count(width, tileSize);
+        byte[][] tiles = IntStream.range(0, across * count(height, tileSize)).parallel()
+                .mapToObj(i -> {
+                    int x = i % across * tileSize, y = i / across * tileSize;
+                    return compress(bgr, (y * width + x) * 3, width * 3, Math.min(tileSize, width - x), Math.min(tileSize, height - y));
+                })
+                .toArray(byte[][]::new);
+        long length = 2 + (long) tiles.length * (4 + INDEX_ENTRY_LENGTH);
+        for (byte[] tile : tiles) {
+            length += tile.length;
+        }
+        ByteBuffer payload = ByteBuffer.allocate(Math.toIntExact(length)).order(ByteOrder.LITTLE_ENDIAN);
+        payload.putShort((short) tileSize);
+        long[] offsets = new long[tiles.length];
+        for (int i = 0; i < tiles.length; i++) {
+            offsets[i] = payload.position();
+            payload.putInt(tiles[i].length).put(tiles[i]);
+        }
+        for (int i = 0; i < tiles.length; i++) {
+            payload.putLong(offsets[i]).putInt(tiles[i].length);
+        }
+        return payload.flip();
+    }
+
+    /**
+     * Decompresses all tiles of the payload
+     * @param payload whole payload, positioned at the tile size
+     * @param width width of the image
+     * @param height height of the image
+     * @return 24-bit BGR pixels, top-left origin
+     */
+    public static byte[] decode(ByteBuffer payload, int width, int height) throws IOException {
+        ByteBuffer tiles = payload.slice().order(ByteOrder.LITTLE_ENDIAN);
+        int tileSize = tileSize(tiles);
+        int across = count(width, tileSize);
+        int count = across * count(height, tileSize);
+        byte[] bgr = new byte[width * height * 3];
+        try {
+            IntStream.range(0, count).parallel().forEach(i -> {
+                int x = i % across * tileSize, y = i / across * tileSize;
+                try {
+                    decompress(tile(tiles, width, height, i), bgr, (y * width + x) * 3, width * 3, Math.min(tileSize, width - x), Math.min(tileSize, height - y));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return bgr;
+    }
+
+    /**
+     * Decompresses one tile of the payload, found through the index
+     * @param payload whole payload, positioned at the tile size
+     * @param width width of the image
+     * @param height height of the image
+     * @param column column of the tile, counted in tiles
+     * @param row row of the tile, counted in tiles
+     * @return 24-bit BGR pixels of the tile, top-left origin, smaller than the tile size at the right and bottom edges
+     */
+    public static byte[] decodeTile(ByteBuffer payload, int width, int height, int column, int row) throws IOException {
+        ByteBuffer tiles = payload.slice().order(ByteOrder.LITTLE_ENDIAN);
+        int tileSize = tileSize(tiles);
+        int tileWidth = Math.min(tileSize, width - column * tileSize);
+        int tileHeight = Math.min(tileSize, height - row * tileSize);
+        if (column < 0 || row < 0 || tileWidth <= 0 || tileHeight <= 0) {
+            throw new IndexOutOfBoundsException("No tile " + column + ", " + row);
+        }
+        byte[] bgr = new byte[tileWidth * tileHeight * 3];
+        decompress(tile(tiles, width, height, row * count(width, tileSize) + column), bgr, 0, tileWidth * 3, tileWidth, tileHeight);
+        return bgr;
+    }
+
+    /**
+     * Compresses the tiles of a band of rows, a tile high
+     * @param band 24-bit BGR rows of the band
+     * @param width width of the image
+     * @param height height of the band, at most tileSize
+     * @param tileSize width and height of full tiles
+     * @return compressed tiles, left to right
+     */
+    public static byte[][] encodeBand(byte[] band, int width, int height, int tileSize) {
+        return IntStream.range(0, count(width, tileSize)).parallel()
+                .mapToObj(i -> compress(band, i * tileSize * 3, width * 3, Math.min(tileSize, width - i * tileSize), height))
+                .toArray(byte[][]::new);
+    }
+
+    /**
+     * Decompresses the tiles of a band of rows, a tile high
+     * @param tiles compressed tiles, left to right
+     * @param lengths compressed length of each tile
+     * @param band destination of the 24-bit BGR rows of the band
+     * @param width width of the image
+     * @param height height of the band, at most tileSize
+     * @param tileSize width and height of full tiles
+     */
+    public static void decodeBand(byte[][] tiles, int[] lengths, byte[] band, int width, int height, int tileSize) throws IOException {
+        try {
+            IntStream.range(0, count(width, tileSize)).parallel().forEach(i -> {
+                try {
+                    decompress(ByteBuffer.wrap(tiles[i], 0, lengths[i]), band, i * tileSize * 3, width * 3, Math.min(tileSize, width - i * tileSize), height);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static int tileSize(ByteBuffer tiles) throws IOException {
+        int tileSize = Short.toUnsignedInt(tiles.getShort(0));
+        if (tileSize == 0) {
+            throw new IOException("Tile size is 0");
+        }
+        return tileSize;
+    }
+
+    /**
+     * Finds compressed bytes of a tile through the index at the end of the payload
+     */
+    private static ByteBuffer tile(ByteBuffer tiles, int width, int height, int i) throws IOException {
+        int tileSize = Short.toUnsignedInt(tiles.getShort(0));
+        int count = count(width, tileSize) * count(height, tileSize);
+        int index = tiles.limit() - count * INDEX_ENTRY_LENGTH + i * INDEX_ENTRY_LENGTH;
+        if (index < 2) {
+            throw new EOFException("Tile index is missing");
+        }
+        long offset = tiles.getLong(index);
+        int length = tiles.getInt(index + 8);
+        if (offset < 2 || length < 0 || offset + 4 + length > tiles.limit() - (long) count * INDEX_ENTRY_LENGTH) {
+            throw new IOException("Tile index points outside of the tiles");
+        }
+        return tiles.slice((int) offset + 4, length);
+    }
+
+    private static byte[] compress(byte[] bgr, int offset, int stride, int tileWidth, int tileHeight) {
+        int length = tileWidth * 3 * tileHeight;
+        byte[] scratch = SCRATCH.get();
+        if (scratch.length < length + length / 8 + 64) {
+            scratch = new byte[length + length / 8 + 64];
+            SCRATCH.set(scratch);
+        }
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        int out = 0;
+        for (int row = 0; row < tileHeight; row++) {
+            deflater.setInput(bgr, offset + row * stride, tileWidth * 3);
+            while (!deflater.needsInput()) {
+                out += deflater.deflate(scratch, out, scratch.length - out);
+            }
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            out += deflater.deflate(scratch, out, scratch.length - out);
+        }
+        byte[] result = new byte[out];
+        System.arraycopy(scratch, 0, result, 0, out);
+        return result;
+    }
+
+    /**
+     * Compresses one tile straight into the destination, without allocating
+     * @param bgr source of the 24-bit BGR rows
+     * @param offset index in bgr of the top-left pixel of the tile
+     * @param stride distance in bgr between rows
+     * @param tileWidth width of the tile
+     * @param tileHeight height of the tile
+     * @param destination receives the compressed bytes from its position, which is moved after them
+     * @return count of compressed bytes
+     * @throws BufferOverflowException if the destination has no room left
+     */
+    static int compress(byte[] bgr, int offset, int stride, int tileWidth, int tileHeight, ByteBuffer destination) {
+        int start = destination.position();
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        for (int row = 0; row < tileHeight; row++) {
+            deflater.setInput(bgr, offset + row * stride, tileWidth * 3);
+            while (!deflater.needsInput()) {
+                deflate(deflater, destination);
+            }
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            deflate(deflater, destination);
+        }
+        return destination.position() - start;
+    }
+
+    private static void deflate(Deflater deflater, ByteBuffer destination) {
+        if (!destination.hasRemaining()) {
+            throw new BufferOverflowException();
+        }
+        deflater.deflate(destination);
+    }
+
+    /**
+     * Decompresses one tile into rows of the destination
+     * @param tile compressed bytes of the tile
+     * @param bgr destination of the 24-bit BGR rows
+     * @param offset index in bgr of the top-left pixel of the tile
+     * @param stride distance in bgr between rows
+     * @param tileWidth width of the tile
+     * @param tileHeight height of the tile
+     */
+    static void decompress(ByteBuffer tile, byte[] bgr, int offset, int stride, int tileWidth, int tileHeight) throws IOException {
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(tile);
+        try {
+            for (int row = 0; row < tileHeight; row++) {
+                int p = offset + row * stride;
+                int end = p + tileWidth * 3;
+                while (p < end) {
+                    int inflated = inflater.inflate(bgr, p, end - p);
+                    if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                        throw new EOFException("Tile ends before its last row");
+                    }
+                    p += inflated;
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Tile is corrupted", e);
+        }
+    }
+}
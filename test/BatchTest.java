@@ -0,0 +1,92 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BatchTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void expandsDirectoriesGlobsAndLists() throws Exception {
+        Path input = Files.createDirectories(directory.resolve("in/sub"));
+        Path a = Files.write(input.resolveSibling("a.png"), new byte[1]);
+        Path b = Files.write(input.resolve("b.png"), new byte[1]);
+        Path c = Files.write(input.resolve("c.pif"), new byte[1]);
+        Path base = directory.resolve("in");
+
+        assertEquals(List.of(new Batch.Job(a, Path.of("a.png")), new Batch.Job(b, Path.of("sub/b.png"))),
+                Batch.expand(base.toString(), false));
+        assertEquals(List.of(new Batch.Job(c, Path.of("sub/c.pif"))), Batch.expand(base.toString(), true));
+        // paths under a glob are relative to the directory before its first glob character
+        assertEquals(List.of(new Batch.Job(b, Path.of("b.png"))), Batch.expand(base + "/sub/*.png", false));
+        assertEquals(List.of(new Batch.Job(b, Path.of("sub/b.png"))), Batch.expand(base + "/**/b.*", false));
+
+        // a relative path keeps its directories, an absolute one or one leaving the directory keeps only its name
+        Path list = Files.writeString(directory.resolve("list.txt"), "sub/b.png\n\n  " + a + "\n../x/y.png\n");
+        assertEquals(List.of(new Batch.Job(Path.of("sub/b.png"), Path.of("sub/b.png")), new Batch.Job(a, Path.of("a.png")),
+                new Batch.Job(Path.of("../x/y.png"), Path.of("y.png"))), Batch.expand("@" + list, false));
+        assertTrue(Batch.isBatch("@" + list));
+        assertTrue(Batch.isBatch(base + "/*.png"));
+        assertTrue(Batch.isBatch(base.toString()));
+        assertFalse(Batch.isBatch(a.toString()));
+    }
+
+    @Test
+    void stripsTheExtensionOfTheFileNameOnly() {
+        assertEquals(Path.of("v1.2", "image").toString(), Batch.outputName(new Batch.Job(Path.of("v1.2/image"), Path.of("v1.2/image"))));
+        assertEquals(Path.of("v1.2", "image").toString(), Batch.outputName(new Batch.Job(Path.of("v1.2/image.png"), Path.of("v1.2/image.png"))));
+        assertEquals("image.tar", Batch.outputName(new Batch.Job(Path.of("image.tar.png"), Path.of("image.tar.png"))));
+        assertEquals(".hidden", Batch.outputName(new Batch.Job(Path.of(".hidden"), Path.of(".hidden"))));
+    }
+
+    @Test
+    void reportsCollisionsAndBrokenFilesAndGoesOn() throws Exception {
+        Path input = Files.createDirectories(directory.resolve("in/v1.2"));
+        BufferedImage first = TestImages.image(40, 30, BufferedImage.TYPE_3BYTE_BGR);
+        BufferedImage second = TestImages.image(50, 20, BufferedImage.TYPE_3BYTE_BGR);
+        ImageIO.write(first, "png", input.resolve("a.png").toFile());
+        ImageIO.write(second, "png", input.resolve("a.bmp.png").toFile());
+        // extensionless files in a directory with a dot in its name don't collide
+        ImageIO.write(first, "png", input.resolve("first").toFile());
+        ImageIO.write(second, "png", input.resolve("second").toFile());
+        // same output name as a.png
+        ImageIO.write(second, "bmp", input.resolve("a.bmp").toFile());
+        Files.write(input.resolve("broken.png"), new byte[]{1, 2, 3});
+        Path output = directory.resolve("out");
+
+        String printed = TestImages.printed(() -> Batch.encode(directory.resolve("in").toString(), output.toString(), "AB", "batch",
+                PIF.RUN_LENGTH, false, false));
+        assertTrue(printed.contains("Error with " + input.resolve("a.png") + ": java.io.IOException: Its output would replace the output of "
+                + input.resolve("a.bmp")), printed);
+        assertTrue(printed.contains("Error with " + input.resolve("broken.png") + ": "), printed);
+        assertTrue(printed.contains("Processed 6 files, 2 failed"), printed);
+        assertImage(first, output.resolve("v1.2/first.pif"));
+        assertImage(second, output.resolve("v1.2/second.pif"));
+        assertImage(second, output.resolve("v1.2/a.bmp.pif"));
+        assertImage(second, output.resolve("v1.2/a.pif"));
+        assertFalse(Files.exists(output.resolve("v1.2/broken.pif")));
+
+        // a truncated .pif fails alone
+        Path truncated = output.resolve("v1.2/truncated.pif");
+        Files.write(truncated, new byte[]{0, 2, 0});
+        Path decoded = directory.resolve("decoded");
+        printed = TestImages.printed(() -> Batch.decode(output.toString(), decoded.toString(), "png"));
+        assertTrue(printed.contains("Error with " + truncated + ": java.io.EOFException"), printed);
+        assertTrue(printed.contains("Processed 5 files, 1 failed"), printed);
+        assertArrayEquals(TestImages.bgr(first), TestImages.bgr(ImageIO.read(decoded.resolve("v1.2/first.png").toFile())));
+    }
+
+    private static void assertImage(BufferedImage expected, Path path) throws Exception {
+        assertArrayEquals(TestImages.bgr(expected), PIFFormater.inputPIF(Files.readAllBytes(path)).getContent().image, path.toString());
+    }
+}
@@ -0,0 +1,78 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CatalogTest {
+    private static final Catalog.Query ANY = new Catalog.Query(null, null, 0, Integer.MAX_VALUE,
+            0, Integer.MAX_VALUE, 0, Integer.MAX_VALUE, -1);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void findsFilesByTheirMetadata() throws Exception {
+        Path photos = Files.createDirectories(directory.resolve("photos"));
+        write(photos.resolve("wide.pif"), 320, 20, "AB");
+        write(Files.createDirectories(photos.resolve("nested")).resolve("tall.pif"), 20, 320, "CD");
+        Path output = directory.resolve("photos.pifc");
+        index(photos, output);
+        Catalog catalog = Catalog.open(output.toString());
+        assertEquals(2, catalog.count());
+        int[] wide = catalog.find(new Catalog.Query(null, null, 0, Integer.MAX_VALUE, 300, Integer.MAX_VALUE, 0, Integer.MAX_VALUE, -1));
+        assertEquals(1, wide.length);
+        assertEquals(photos.resolve("wide.pif"), catalog.path(wide[0]));
+        int[] byInitials = catalog.find(new Catalog.Query("CD", null, 0, Integer.MAX_VALUE, 0, Integer.MAX_VALUE, 0, Integer.MAX_VALUE, -1));
+        assertEquals(1, byInitials.length);
+        assertEquals(320, catalog.metadata(byInitials[0]).height());
+    }
+
+    @Test
+    void skipsFailedFilesUntilTheyChange() throws Exception {
+        Path photos = Files.createDirectories(directory.resolve("photos"));
+        write(photos.resolve("good.pif"), 40, 30, "AB");
+        Path bad = Files.write(photos.resolve("bad.pif"), new byte[5]);
+        Path output = directory.resolve("photos.pifc");
+        assertTrue(index(photos, output).contains("Error with " + bad));
+        Catalog catalog = Catalog.open(output.toString());
+        assertEquals(2, catalog.count());
+        assertEquals(1, catalog.find(ANY).length);
+
+        String again = index(photos, output);
+        assertFalse(again.contains("Error with"), again);
+        assertTrue(again.contains("0 read, 1 unchanged, 1 failed, 1 of them unchanged and skipped"), again);
+
+        write(bad, 50, 30, "AB");
+        index(photos, output);
+        assertEquals(2, Catalog.open(output.toString()).find(ANY).length);
+    }
+
+    private static void write(Path path, int width, int height, String initials) throws Exception {
+        PIF pif = PIFFormater.toPIF(TestImages.image(width, height, BufferedImage.TYPE_3BYTE_BGR), initials, "catalog");
+        Files.write(path, PIFFormater.outputPIF(pif));
+    }
+
+    /**
+     * @return what index printed
+     */
+    private static String index(Path photos, Path output) throws Exception {
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(printed, true, StandardCharsets.UTF_8));
+        try {
+            Catalog.index(photos.toString(), output.toString());
+        } finally {
+            System.setOut(stdout);
+        }
+        return printed.toString(StandardCharsets.UTF_8);
+    }
+}
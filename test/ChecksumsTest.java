@@ -0,0 +1,110 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChecksumsTest {
+    private static final byte[] IMAGE_TYPES = {PIF.UNCOMPRESSED, PIF.RUN_LENGTH, PIF.TILED};
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsAndVerifiesIntactFiles() throws Exception {
+        BufferedImage image = TestImages.image(301, 67, BufferedImage.TYPE_3BYTE_BGR);
+        for (byte imageType : IMAGE_TYPES) {
+            byte[] bytes = encode(image, imageType, true);
+            assertArrayEquals(TestImages.bgr(image), PIFFormater.inputPIF(bytes).getContent().image, "type " + imageType);
+            assertArrayEquals(TestImages.bgr(image), stream(bytes), "type " + imageType);
+            assertTrue(Checksums.verify(write(bytes).toString()), "type " + imageType);
+        }
+    }
+
+    @Test
+    void writesTheSameBlockWhenStreaming() throws Exception {
+        BufferedImage image = TestImages.image(301, 67, BufferedImage.TYPE_3BYTE_BGR);
+        for (byte imageType : IMAGE_TYPES) {
+            PIF pif = PIFFormater.newPIF(301, 67, "AB", "checksums", imageType);
+            Path path = directory.resolve("streamed.pif");
+            try (PIFWriter writer = new PIFWriter(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING), pif, false, true)) {
+                PIFFormater.toPIF(image, writer);
+            }
+            byte[] bytes = Files.readAllBytes(path);
+            assertTrue(Checksums.verify(path.toString()), "type " + imageType);
+            assertArrayEquals(TestImages.bgr(image), stream(bytes), "type " + imageType);
+        }
+    }
+
+    @Test
+    void reportsFilesWithoutChecksums() throws Exception {
+        byte[] bytes = encode(TestImages.image(40, 30, BufferedImage.TYPE_3BYTE_BGR), PIF.RUN_LENGTH, false);
+        assertFalse(Checksums.verify(write(bytes).toString()));
+    }
+
+    @Test
+    void rejectsCorruptedTrailerBytesTheReaderIgnores() throws Exception {
+        for (byte imageType : IMAGE_TYPES) {
+            byte[] bytes = encode(TestImages.image(301, 67, BufferedImage.TYPE_3BYTE_BGR), imageType, true);
+            // the trailer ends with the terminator 46, read by nothing but the checksums
+            bytes[bytes.length - 2] ^= 1;
+            assertCorrupted(bytes, "Header or trailer is corrupted");
+        }
+    }
+
+    @Test
+    void rejectsCorruptedPixels() throws Exception {
+        for (byte imageType : IMAGE_TYPES) {
+            byte[] bytes = encode(TestImages.image(301, 67, BufferedImage.TYPE_3BYTE_BGR), imageType, true);
+            bytes[PIF.HEADER_LENGTH + 100] ^= 4;
+            assertCorrupted(bytes, "Chunk 0 at offset 13 is corrupted");
+        }
+    }
+
+    @Test
+    void namesTheCorruptedChunk() throws Exception {
+        byte[] bytes = encode(TestImages.image(700, 600, BufferedImage.TYPE_3BYTE_BGR), PIF.UNCOMPRESSED, true);
+        bytes[PIF.HEADER_LENGTH + Checksums.CHUNK_SIZE + 5] ^= 4;
+        assertCorrupted(bytes, "Chunk 1 at offset " + (PIF.HEADER_LENGTH + Checksums.CHUNK_SIZE) + " is corrupted");
+    }
+
+    private static byte[] encode(BufferedImage image, byte imageType, boolean checksums) {
+        return PIFFormater.outputPIF(PIFFormater.toPIF(image, "AB", "checksums", imageType), checksums);
+    }
+
+    private Path write(byte[] bytes) throws IOException {
+        return Files.write(directory.resolve("image.pif"), bytes);
+    }
+
+    /**
+     * @return pixels read by PIFReader
+     */
+    private static byte[] stream(byte[] bytes) throws IOException {
+        try (PIFReader reader = new PIFReader(new ByteArrayInputStream(bytes))) {
+            return TestImages.bgr(PIFFormater.toRegularImage(reader));
+        }
+    }
+
+    /**
+     * Checks that verify fails with the message, and inputPIF and PIFReader fail too, compressed pixels may be
+     * found corrupted by their decoder before the checksums are reached
+     */
+    private void assertCorrupted(byte[] bytes, String message) throws IOException {
+        Path path = write(bytes);
+        assertEquals(message, assertThrows(IOException.class, () -> Checksums.verify(path.toString())).getMessage());
+        assertThrows(IOException.class, () -> PIFFormater.inputPIF(bytes));
+        assertThrows(IOException.class, () -> stream(bytes));
+    }
+}
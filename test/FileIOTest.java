@@ -0,0 +1,119 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class FileIOTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void replacesTheTargetKeepingItsPermissions() throws Exception {
+        assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        Path target = Files.write(directory.resolve("private.pif"), new byte[]{1, 2, 3});
+        Files.setPosixFilePermissions(target, PosixFilePermissions.fromString("rw-------"));
+        FileIO.writeBytes(target.toString(), new byte[]{4, 5});
+        assertArrayEquals(new byte[]{4, 5}, Files.readAllBytes(target));
+        assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(target)));
+    }
+
+    @Test
+    void writesWithEverySyncPolicy() throws Exception {
+        byte[] first = bytes(1000, 1), second = bytes(3000, 2);
+        for (FileIO.Sync sync : FileIO.Sync.values()) {
+            Path target = directory.resolve(sync + ".pif");
+            FileIO.writeBytes(target.toString(), sync, false, ByteBuffer.wrap(first), ByteBuffer.wrap(second));
+            assertArrayEquals(concat(first, second), Files.readAllBytes(target), sync.toString());
+            try (FileIO.AtomicOutput output = FileIO.createAtomic(target.toString(), sync)) {
+                try (WritableByteChannel channel = output.channel()) {
+                    channel.write(ByteBuffer.wrap(second));
+                }
+                output.write(ByteBuffer.wrap(first), 500);
+                output.commit();
+            }
+            byte[] expected = second.clone();
+            System.arraycopy(first, 0, expected, 500, first.length);
+            assertArrayEquals(expected, Files.readAllBytes(target), sync.toString());
+        }
+        assertNoTemporaryFiles();
+    }
+
+    @Test
+    void stagesHeapBuffersThroughADirectBuffer() throws Exception {
+        // longer than the 1 MB staging buffer, with a direct buffer and an empty one between heap buffers
+        byte[] large = bytes((1 << 20) * 2 + 17, 3), small = bytes(100, 4);
+        ByteBuffer direct = ByteBuffer.allocateDirect(small.length).put(small).flip();
+        ByteBuffer offset = ByteBuffer.wrap(large, 5, large.length - 10);
+        Path target = directory.resolve("direct.pif");
+        FileIO.writeBytes(target.toString(), FileIO.Sync.ON_CLOSE, true, offset, ByteBuffer.allocate(0), direct, ByteBuffer.wrap(small));
+        byte[] expected = concat(concat(Arrays.copyOfRange(large, 5, large.length - 5), small), small);
+        assertArrayEquals(expected, Files.readAllBytes(target));
+        assertFalse(offset.hasRemaining());
+        assertFalse(direct.hasRemaining());
+        assertNoTemporaryFiles();
+    }
+
+    @Test
+    void replacesASymbolicLinkItself() throws Exception {
+        Path file = Files.write(directory.resolve("file.pif"), new byte[]{1, 2, 3});
+        Path link;
+        try {
+            link = Files.createSymbolicLink(directory.resolve("link.pif"), file.getFileName());
+        } catch (UnsupportedOperationException | IOException e) {
+            assumeTrue(false, "symbolic links aren't supported");
+            return;
+        }
+        FileIO.writeBytes(link.toString(), new byte[]{4, 5});
+        assertFalse(Files.isSymbolicLink(link));
+        assertArrayEquals(new byte[]{4, 5}, Files.readAllBytes(link));
+        assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(file));
+    }
+
+    @Test
+    void leavesNothingWithoutCommit() throws Exception {
+        Path target = directory.resolve("never.pif");
+        try (FileIO.AtomicOutput output = FileIO.createAtomic(target.toString(), FileIO.Sync.NONE)) {
+            output.write(ByteBuffer.wrap(new byte[]{1}), 0);
+        }
+        assertFalse(Files.exists(target));
+        try (var files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    private void assertNoTemporaryFiles() throws Exception {
+        try (var files = Files.list(directory)) {
+            assertTrue(files.noneMatch(path -> path.getFileName().toString().endsWith(".tmp")));
+        }
+    }
+
+    /**
+     * @return bytes of a pattern differing by seed
+     */
+    private static byte[] bytes(int length, int seed) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (i * 31 + seed);
+        }
+        return bytes;
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] bytes = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, bytes, first.length, second.length);
+        return bytes;
+    }
+}
@@ -0,0 +1,171 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FramesTest {
+    private static final int WIDTH = 40, HEIGHT = 30, KEYFRAME_INTERVAL = 4;
+    /**
+     * Length of a black keyframe, one run-length packet per row
+     */
+    private static final int BLACK_KEYFRAME_LENGTH = HEIGHT * 4;
+    private static final int FRAME_HEADER_LENGTH = 5;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsFramesInAnyOrder() throws Exception {
+        Path path = write(10);
+        try (Frames.Reader reader = open(path)) {
+            assertEquals(10, reader.getCount());
+            for (int i = 0; i < 10; i++) {
+                assertEquals(i % KEYFRAME_INTERVAL == 0, reader.isKeyframe(i), "frame " + i);
+            }
+            byte[] bgr = new byte[WIDTH * HEIGHT * 3];
+            for (int i : new int[]{0, 1, 2, 3, 9, 5, 6, 2, 7, 0}) {
+                reader.readFrame(i, bgr, 0);
+                assertArrayEquals(frame(i), bgr, "frame " + i);
+            }
+            assertThrows(IllegalArgumentException.class, () -> reader.readFrame(10, bgr, 0));
+        }
+    }
+
+    @Test
+    void appendsToAnExistingFile() throws Exception {
+        Path path = write(6);
+        try (Frames.Writer writer = Frames.Writer.open(path.toString(), WIDTH, HEIGHT, "AB", "frames", KEYFRAME_INTERVAL)) {
+            assertEquals(6, writer.getCount());
+            for (int i = 6; i < 9; i++) {
+                writer.writeFrame(frame(i), 0);
+            }
+        }
+        assertFrames(path, 9);
+        IOException e = assertThrows(IOException.class, () -> Frames.Writer.open(path.toString(), WIDTH + 1, HEIGHT, "AB", "frames", 4));
+        assertEquals("Frames of 41x30 pixels can't be appended to frames of 40x30 pixels", e.getMessage());
+        assertFrames(path, 9);
+    }
+
+    @Test
+    void recoversFramesWrittenBeforeACrash() throws Exception {
+        byte[] bytes = Files.readAllBytes(write(10));
+        // frame 0 and frame 1 complete, frame 2 cut, no index and no trailer
+        Path path = directory.resolve("crashed.pif");
+        int frame2 = PIF.HEADER_LENGTH + FRAME_HEADER_LENGTH + BLACK_KEYFRAME_LENGTH + FRAME_HEADER_LENGTH + deltaLength(bytes);
+        Files.write(path, Arrays.copyOf(bytes, frame2 + FRAME_HEADER_LENGTH + 3));
+        assertThrows(IOException.class, () -> open(path).close());
+        try (Frames.Writer writer = Frames.Writer.open(path.toString(), WIDTH, HEIGHT, "AB", "frames", KEYFRAME_INTERVAL)) {
+            assertEquals(2, writer.getCount());
+            writer.writeFrame(frame(2), 0);
+        }
+        assertFrames(path, 3);
+    }
+
+    @Test
+    void rejectsCorruptedFrames() throws Exception {
+        byte[] bytes = Files.readAllBytes(write(3));
+        int frame1 = PIF.HEADER_LENGTH + FRAME_HEADER_LENGTH + BLACK_KEYFRAME_LENGTH;
+        byte[] kind = bytes.clone();
+        kind[frame1] = 0;
+        assertEquals("Frame 1 doesn't match the frame index", readAll(kind).getMessage());
+        byte[] row = bytes.clone();
+        row[frame1 + FRAME_HEADER_LENGTH] = 7;
+        assertEquals("Frame 1 is corrupted", readAll(row).getMessage());
+        byte[] other = PIFFormater.outputPIF(PIFFormater.newPIF(WIDTH, HEIGHT, "AB", "frames"));
+        assertEquals("File isn't multi-frame .pif", readAll(other).getMessage());
+    }
+
+    @Test
+    void printsWhyFramesCantBeAppendedOrDecoded() throws Exception {
+        Path path = write(3);
+        Path larger = directory.resolve("larger.png");
+        ImageIO.write(TestImages.image(WIDTH + 10, HEIGHT, BufferedImage.TYPE_3BYTE_BGR), "png", larger.toFile());
+        assertEquals("Error with " + path + ": Frames of 50x30 pixels can't be appended to frames of 40x30 pixels\n",
+                TestImages.printed(() -> Selector.frames(larger.toString(), path.toString(), "AB", "frames", KEYFRAME_INTERVAL)).replace("\r", ""));
+        for (String output : new String[]{"frame.png", "frame.bmp"}) {
+            assertEquals("File is multi-frame .pif, decode one of its frames with --frame N\n",
+                    TestImages.printed(() -> Selector.decode(path.toString(), directory.resolve(output).toString())).replace("\r", ""), output);
+            assertFalse(Files.exists(directory.resolve(output)), output);
+        }
+        IOException e = assertThrows(IOException.class, () -> PIFFormater.inputPIF(Files.readAllBytes(path)));
+        assertEquals("File is multi-frame .pif, decode one of its frames with --frame N", e.getMessage());
+        assertFrames(path, 3);
+    }
+
+    private Path write(int count) throws IOException {
+        Path path = directory.resolve("frames.pif");
+        Files.deleteIfExists(path);
+        try (Frames.Writer writer = Frames.Writer.open(path.toString(), WIDTH, HEIGHT, "AB", "frames", KEYFRAME_INTERVAL)) {
+            for (int i = 0; i < count; i++) {
+                writer.writeFrame(frame(i), 0);
+            }
+        }
+        return path;
+    }
+
+    private static Frames.Reader open(Path path) throws IOException {
+        return new Frames.Reader(FileChannel.open(path, StandardOpenOption.READ));
+    }
+
+    private void assertFrames(Path path, int count) throws IOException {
+        try (Frames.Reader reader = open(path)) {
+            assertEquals(count, reader.getCount());
+            byte[] bgr = new byte[WIDTH * HEIGHT * 3];
+            for (int i = 0; i < count; i++) {
+                reader.readFrame(i, bgr, 0);
+                assertArrayEquals(frame(i), bgr, "frame " + i);
+            }
+        }
+    }
+
+    /**
+     * @return exception thrown while reading every frame of the file
+     */
+    private IOException readAll(byte[] bytes) throws IOException {
+        Path path = Files.write(directory.resolve("corrupted.pif"), bytes);
+        return assertThrows(IOException.class, () -> {
+            try (Frames.Reader reader = open(path)) {
+                byte[] bgr = new byte[WIDTH * HEIGHT * 3];
+                for (int i = 0; i < reader.getCount(); i++) {
+                    reader.readFrame(i, bgr, 0);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return length of the second frame, from its header
+     */
+    private static int deltaLength(byte[] bytes) {
+        int header = PIF.HEADER_LENGTH + FRAME_HEADER_LENGTH + BLACK_KEYFRAME_LENGTH;
+        assertFalse(bytes[header] == 0, "frame 1 is a delta");
+        return bytes[header + 1] & 0xFF | (bytes[header + 2] & 0xFF) << 8 | (bytes[header + 3] & 0xFF) << 16 | bytes[header + 4] << 24;
+    }
+
+    /**
+     * @return black frame with a white square moving right, frame 0 is all black
+     */
+    private static byte[] frame(int i) {
+        byte[] bgr = new byte[WIDTH * HEIGHT * 3];
+        if (i > 0) {
+            for (int y = 10; y < 14; y++) {
+                Arrays.fill(bgr, (y * WIDTH + i * 3) * 3, (y * WIDTH + i * 3 + 4) * 3, (byte) 0xFF);
+            }
+        }
+        assertTrue(i * 3 + 4 <= WIDTH);
+        return bgr;
+    }
+}
@@ -0,0 +1,105 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MappedPIFTest {
+    private static final long SEGMENT_LENGTH = 1L << 30;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void storesDimensionsOver65535() {
+        int[][] sizes = {{0, 0}, {65535, 65535}, {65536, 1}, {1, 65536}, {70000, 123456}, {PIF.MAX_WIDTH, Integer.MAX_VALUE}};
+        for (int[] size : sizes) {
+            PIF pif = PIFFormater.newPIF(size[0], size[1], "AB", "large", PIF.UNCOMPRESSED);
+            ByteBuffer header = ByteBuffer.allocate(PIF.HEADER_LENGTH);
+            PIFLayout.writeHeader(pif, header);
+            PIF read = new PIF();
+            PIFLayout.readHeader(header.flip(), read);
+            String name = size[0] + "x" + size[1];
+            assertEquals(size[0], read.getHeader().getWidth(), name);
+            assertEquals(size[1], read.getHeader().getHeight(), name);
+            assertEquals(size[0] > 65535 || size[1] > 65535, read.getHeader().isLarge(), name);
+            if (!read.getHeader().isLarge()) {
+                // small files keep the header they had before the LARGE bit
+                assertArrayEquals(new byte[5], Arrays.copyOfRange(header.array(), 2, 7), name);
+            }
+        }
+        assertThrows(IllegalArgumentException.class, () -> PIFFormater.newPIF(-1, 1, "AB", "large", PIF.UNCOMPRESSED));
+    }
+
+    @Test
+    void roundTripsImagesWiderThan65535() throws Exception {
+        BufferedImage image = TestImages.image(70000, 2, BufferedImage.TYPE_3BYTE_BGR);
+        byte[] bgr = TestImages.bgr(image);
+        for (byte imageType : new byte[]{PIF.UNCOMPRESSED, PIF.RUN_LENGTH, PIF.TILED}) {
+            byte[] bytes = PIFFormater.outputPIF(PIFFormater.toPIF(image, "AB", "large", imageType));
+            // the first color map specification byte
+            assertTrue((bytes[2] & PIF.LARGE) != 0, "type " + imageType);
+            PIF pif = PIFFormater.inputPIF(bytes);
+            assertEquals(70000, pif.getHeader().getWidth(), "type " + imageType);
+            assertArrayEquals(bgr, pif.getContent().image, "type " + imageType);
+            try (PIFReader reader = new PIFReader(new ByteArrayInputStream(bytes))) {
+                assertEquals(70000, reader.getWidth(), "type " + imageType);
+                assertArrayEquals(bgr, TestImages.bgr(PIFFormater.toRegularImage(reader)), "type " + imageType);
+            }
+        }
+        Path path = Files.write(directory.resolve("wide.pif"), PIFFormater.outputPIF(PIFFormater.toPIF(image, "AB", "large")));
+        MappedPIF mapped = new MappedPIF(path.toString());
+        assertEquals(70000, mapped.getWidth());
+        assertEquals(2, mapped.getHeight());
+        byte[] row = new byte[70000 * 3];
+        mapped.readRow(1, row);
+        assertArrayEquals(Arrays.copyOfRange(bgr, row.length, bgr.length), row);
+        assertEquals(image.getRGB(69999, 1) & 0xFFFFFF, mapped.getPixel(69999, 1));
+        assertArrayEquals(Arrays.copyOfRange(bgr, 69990 * 3, 70000 * 3), mapped.readRegion(69990, 0, 10, 1));
+    }
+
+    @Test
+    void readsAcrossSegments() throws Exception {
+        // sparse, only the bytes around the end of the first segment are written
+        Path path = directory.resolve("segments.bin");
+        byte[] around = new byte[32];
+        for (int i = 0; i < around.length; i++) {
+            around[i] = (byte) (i + 1);
+        }
+        long position = 7, length = SEGMENT_LENGTH + 100;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.SPARSE)) {
+            channel.write(ByteBuffer.wrap(around), position + SEGMENT_LENGTH - 16);
+            channel.write(ByteBuffer.wrap(new byte[1]), position + length - 1);
+        }
+        MappedSegments segments;
+        try (FileChannel channel = FileIO.openRead(path.toString())) {
+            segments = new MappedSegments(channel, position, length);
+        }
+        assertEquals(length, segments.length());
+        long first = SEGMENT_LENGTH - 16;
+        byte[] read = new byte[32];
+        segments.get(first, read, 0, 32);
+        assertArrayEquals(around, read);
+        assertEquals(16, segments.get(first + 15));
+        assertEquals(17, segments.get(SEGMENT_LENGTH));
+        // numbers whose bytes are split between the segments
+        assertEquals((short) 0x1110, segments.getShort(SEGMENT_LENGTH - 1));
+        assertEquals(0x1211100F, segments.getInt(SEGMENT_LENGTH - 2));
+        assertEquals(0x1514131211100F0EL, segments.getLong(SEGMENT_LENGTH - 3));
+        assertEquals(0x0807060504030201L, segments.getLong(first));
+        assertEquals(0, segments.get(length - 1));
+        assertThrows(IndexOutOfBoundsException.class, () -> segments.get(length));
+        assertThrows(IndexOutOfBoundsException.class, () -> segments.getInt(length - 3));
+    }
+}
@@ -0,0 +1,120 @@
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PIFCodecTest {
+    /**
+     * Bytes an operation may allocate on average, other threads of the JVM allocate a little meanwhile
+     */
+    private static final long ALLOCATION_TOLERANCE = 16;
+    private static final byte[] IMAGE_TYPES = {PIF.UNCOMPRESSED, PIF.RUN_LENGTH, PIF.TILED};
+
+    @Test
+    void encodesWhatInputPIFAndDecodeIntoRead() throws Exception {
+        BufferedImage image = TestImages.image(301, 67, BufferedImage.TYPE_3BYTE_BGR);
+        for (byte imageType : IMAGE_TYPES) {
+            PIFCodec codec = new PIFCodec("AB", "codec", imageType);
+            ByteBuffer encoded = ByteBuffer.allocate((int) PIFCodec.maxLength(301, 67, imageType));
+            int length = codec.encodeInto(image, encoded);
+            byte[] bytes = Arrays.copyOf(encoded.array(), length);
+            assertArrayEquals(TestImages.bgr(image), PIFFormater.inputPIF(bytes).getContent().image, "type " + imageType);
+            BufferedImage decoded = new BufferedImage(301, 67, BufferedImage.TYPE_3BYTE_BGR);
+            codec.decodeInto(ByteBuffer.wrap(bytes), decoded);
+            assertArrayEquals(TestImages.bgr(image), TestImages.bgr(decoded), "type " + imageType);
+        }
+    }
+
+    @Test
+    void allocatesNothingOnceWarm() throws Exception {
+        for (byte imageType : IMAGE_TYPES) {
+            BufferedImage image = TestImages.image(64, 64, BufferedImage.TYPE_3BYTE_BGR);
+            PIFCodec codec = new PIFCodec("AB", "codec", imageType);
+            ByteBuffer encoded = ByteBuffer.allocate((int) PIFCodec.maxLength(64, 64, imageType));
+            codec.encodeInto(image, encoded);
+            encoded.flip();
+            BufferedImage target = new BufferedImage(64, 64, BufferedImage.TYPE_3BYTE_BGR);
+            assertNotAllocating("encodeInto " + imageType, () -> codec.encodeInto(image, encoded.clear()));
+            encoded.flip();
+            assertNotAllocating("decodeInto " + imageType, () -> codec.decodeInto(encoded.rewind(), target));
+            assertNotAllocating("decode " + imageType, () -> codec.release(codec.decode(encoded.rewind())));
+        }
+    }
+
+    @Test
+    void datesTrailersAcrossTransitionsOffTheHour() throws Exception {
+        // Lord Howe changes by 30 minutes at 2:00 local time, Kathmandu went from +5:30 to +5:45 in 1986
+        for (String zone : new String[]{"Australia/Lord_Howe", "Asia/Kathmandu", "America/St_Johns"}) {
+            ZoneId id = ZoneId.of(zone);
+            Instant transition = id.getRules().nextTransition(Instant.parse("1985-06-01T00:00:00Z")).getInstant();
+            MutableClock clock = new MutableClock(id);
+            PIFCodec codec = new PIFCodec("AB", "codec", PIF.UNCOMPRESSED, clock);
+            BufferedImage image = TestImages.image(4, 4, BufferedImage.TYPE_3BYTE_BGR);
+            for (long second : new long[]{-3600, -1, 0, 1, 3599, 86400 * 200}) {
+                clock.instant = transition.plusSeconds(second);
+                ByteBuffer encoded = ByteBuffer.allocate((int) PIFCodec.maxLength(4, 4, PIF.UNCOMPRESSED));
+                int length = codec.encodeInto(image, encoded);
+                PIF pif = PIFFormater.inputPIF(Arrays.copyOf(encoded.array(), length));
+                assertEquals(LocalDateTime.ofInstant(clock.instant, id), TestImages.dateAndTime(pif), zone + " " + clock.instant);
+            }
+        }
+    }
+
+    /**
+     * Runs the operation until warm, then fails if it allocates on average more than the tolerance,
+     * counting every thread, as conversions may run on the ForkJoin pool
+     */
+    private static void assertNotAllocating(String name, TestImages.Operation operation) throws Exception {
+        for (int i = 0; i < 20_000; i++) {
+            operation.run();
+        }
+        int operations = 20_000;
+        long before = allocated();
+        for (int i = 0; i < operations; i++) {
+            operation.run();
+        }
+        long perOperation = (allocated() - before) / operations;
+        assertTrue(perOperation <= ALLOCATION_TOLERANCE, name + " allocates " + perOperation + " bytes an operation");
+    }
+
+    private static long allocated() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return Arrays.stream(threads.getThreadAllocatedBytes(threads.getAllThreadIds())).filter(bytes -> bytes > 0).sum();
+    }
+
+    private static class MutableClock extends Clock {
+        private final ZoneId zone;
+        private Instant instant = Instant.EPOCH;
+
+        private MutableClock(ZoneId zone) {
+            this.zone = zone;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return zone;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            MutableClock clock = new MutableClock(zone);
+            clock.instant = instant;
+            return clock;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class PIFFormaterTest {
+    /**
+     * Types holding 8-bit RGB without loss, read and written in bulk or through the getRGB and setRGB fallback
+     */
+    private static final int[] IMAGE_TYPES = {BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR,
+            BufferedImage.TYPE_4BYTE_ABGR_PRE, BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB,
+            BufferedImage.TYPE_INT_ARGB_PRE, BufferedImage.TYPE_INT_BGR};
+    private static final int WIDTH = 301, HEIGHT = 67;
+
+    @Test
+    void readsAndWritesEveryImageType() {
+        for (int type : IMAGE_TYPES) {
+            BufferedImage image = TestImages.image(WIDTH, HEIGHT, type);
+            byte[] expected = rgb(image);
+            byte[] bgr = new byte[WIDTH * HEIGHT * 3];
+            PIFFormater.readBGR(image, 0, HEIGHT, bgr, 0);
+            assertArrayEquals(expected, bgr, "type " + type);
+
+            BufferedImage written = new BufferedImage(WIDTH, HEIGHT, type);
+            PIFFormater.writeBGR(bgr, 0, written, 0, HEIGHT, null);
+            assertArrayEquals(expected, rgb(written), "type " + type);
+            assertArrayEquals(expected, TestImages.bgr(PIFFormater.toRegularImage(PIFFormater.toPIF(image, "AB", "types"))), "type " + type);
+        }
+    }
+
+    @Test
+    void readsAndWritesSubimages() {
+        for (int type : IMAGE_TYPES) {
+            BufferedImage image = TestImages.image(WIDTH, HEIGHT, type);
+            // the raster of a subimage starts inside the data of its parent
+            BufferedImage subimage = image.getSubimage(37, 11, 200, 40);
+            byte[] expected = rgb(subimage);
+            byte[] bgr = new byte[200 * 40 * 3];
+            PIFFormater.readBGR(subimage, 0, 40, bgr, 0);
+            assertArrayEquals(expected, bgr, "type " + type);
+            // stripes of rows, from the middle
+            byte[] stripe = new byte[bgr.length];
+            PIFFormater.readBGR(subimage, 13, 40, stripe, 13 * 200 * 3, new int[200]);
+            PIFFormater.readBGR(subimage, 0, 13, stripe, 0, new int[200]);
+            assertArrayEquals(expected, stripe, "type " + type);
+
+            BufferedImage target = new BufferedImage(WIDTH, HEIGHT, type);
+            byte[] around = rgb(target);
+            PIFFormater.writeBGR(bgr, 0, target.getSubimage(37, 11, 200, 40), 0, 40, null);
+            assertArrayEquals(expected, rgb(target.getSubimage(37, 11, 200, 40)), "type " + type);
+            // pixels outside the subimage stay untouched
+            byte[] whole = rgb(target);
+            for (int y = 0; y < 40; y++) {
+                System.arraycopy(around, ((11 + y) * WIDTH + 37) * 3, whole, ((11 + y) * WIDTH + 37) * 3, 200 * 3);
+            }
+            assertArrayEquals(around, whole, "type " + type);
+        }
+    }
+
+    /**
+     * @return 24-bit BGR pixels read pixel by pixel through getRGB, which is correct for every type and subimage
+     */
+    private static byte[] rgb(BufferedImage image) {
+        byte[] bgr = new byte[image.getWidth() * image.getHeight() * 3];
+        int i = 0;
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int rgb = image.getRGB(x, y);
+                bgr[i++] = (byte) rgb;
+                bgr[i++] = (byte) (rgb >> 8);
+                bgr[i++] = (byte) (rgb >> 16);
+            }
+        }
+        return bgr;
+    }
+}
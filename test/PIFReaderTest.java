@@ -0,0 +1,70 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PIFReaderTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void writesTheSameBytesAsOutputPIF() throws Exception {
+        BufferedImage image = TestImages.image(301, 67, BufferedImage.TYPE_3BYTE_BGR);
+        PIF pif = PIFFormater.toPIF(image, "AB", "stream");
+        Path path = directory.resolve("streamed.pif");
+        try (PIFWriter writer = new PIFWriter(FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), pif)) {
+            PIFFormater.toPIF(image, writer);
+        }
+        assertArrayEquals(PIFFormater.outputPIF(pif), Files.readAllBytes(path));
+    }
+
+    @Test
+    void readsRowsAndTheTrailer() throws Exception {
+        BufferedImage image = TestImages.image(301, 67, BufferedImage.TYPE_3BYTE_BGR);
+        PIF pif = PIFFormater.toPIF(image, "AB", "stream");
+        try (PIFReader reader = new PIFReader(new ByteArrayInputStream(PIFFormater.outputPIF(pif)))) {
+            assertEquals(301, reader.getWidth());
+            assertEquals(67, reader.getHeight());
+            assertArrayEquals(TestImages.bgr(image), TestImages.bgr(PIFFormater.toRegularImage(reader)));
+            assertFalse(reader.hasNextRow());
+            assertEquals("stream", new String(reader.getPIF().getFooter().signature, StandardCharsets.ISO_8859_1).strip());
+            assertThrows(IllegalStateException.class, () -> reader.readRow(new byte[301 * 3], 0));
+        }
+    }
+
+    @Test
+    void rejectsTruncatedFiles() throws Exception {
+        byte[] bytes = PIFFormater.outputPIF(PIFFormater.toPIF(TestImages.image(40, 30, BufferedImage.TYPE_3BYTE_BGR), "AB", "stream"));
+        for (int length : new int[]{5, PIF.HEADER_LENGTH + 100, bytes.length - 1}) {
+            byte[] truncated = Arrays.copyOf(bytes, length);
+            assertThrows(EOFException.class, () -> {
+                try (PIFReader reader = new PIFReader(new ByteArrayInputStream(truncated))) {
+                    PIFFormater.toRegularImage(reader);
+                }
+            }, "length " + length);
+        }
+    }
+
+    @Test
+    void rejectsUnfinishedWrites() throws Exception {
+        PIF pif = PIFFormater.newPIF(40, 30, "AB", "stream");
+        Path path = directory.resolve("unfinished.pif");
+        PIFWriter writer = new PIFWriter(FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), pif);
+        writer.writeRow(new byte[40 * 3], 0);
+        assertEquals("Only 1 of 30 rows were written", assertThrows(IOException.class, writer::close).getMessage());
+    }
+}
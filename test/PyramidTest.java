@@ -0,0 +1,120 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PyramidTest {
+    private static final int WIDTH = 1000, HEIGHT = 600;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void halvesDownToTheMinimalSize() {
+        assertArrayEquals(new int[][]{{500, 300}, {250, 150}}, Pyramid.levels(WIDTH, HEIGHT));
+        assertArrayEquals(new int[][]{{129, 2}}, Pyramid.levels(257, 3));
+        assertEquals(0, Pyramid.levels(256, 256).length);
+        assertNull(Pyramid.build(new byte[256 * 10 * 3], 256, 10));
+    }
+
+    @Test
+    void readsTheLargestLevelFittingTheSize() throws Exception {
+        byte[] bgr = TestImages.bgr(TestImages.image(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR));
+        byte[] half = halve(bgr, WIDTH, HEIGHT), quarter = halve(half, WIDTH / 2, HEIGHT / 2);
+        for (byte imageType : new byte[]{PIF.UNCOMPRESSED, PIF.RUN_LENGTH, PIF.TILED}) {
+            Path path = write(bgr, imageType);
+            assertLevel(half, 500, 300, Pyramid.read(path.toString(), 500));
+            assertLevel(half, 500, 300, Pyramid.read(path.toString(), 999));
+            assertLevel(quarter, 250, 150, Pyramid.read(path.toString(), 300));
+            // no level is small enough, the smallest is returned
+            assertLevel(quarter, 250, 150, Pyramid.read(path.toString(), 100));
+            assertLevel(bgr, WIDTH, HEIGHT, Pyramid.read(path.toString(), 1000));
+        }
+    }
+
+    @Test
+    void buildsTheSameBlockWhenStreaming() throws Exception {
+        BufferedImage image = TestImages.image(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+        PIF pif = PIFFormater.newPIF(WIDTH, HEIGHT, "AB", "pyramid");
+        Path path = directory.resolve("streamed.pif");
+        try (PIFWriter writer = new PIFWriter(FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), pif, true)) {
+            PIFFormater.toPIF(image, writer);
+        }
+        // the same trailer, so only the pixels and the pyramid may differ
+        pif.getContent().image = TestImages.bgr(image);
+        PIFFormater.addPyramid(pif);
+        assertArrayEquals(PIFFormater.outputPIF(pif), Files.readAllBytes(path));
+    }
+
+    @Test
+    void subsamplesFilesWithoutAPyramid() throws Exception {
+        byte[] bgr = TestImages.bgr(TestImages.image(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR));
+        Path path = Files.write(directory.resolve("flat.pif"), PIFFormater.outputPIF(pif(bgr, PIF.UNCOMPRESSED)));
+        BufferedImage read = Pyramid.read(path.toString(), 300);
+        assertEquals(250, read.getWidth());
+        assertEquals(150, read.getHeight());
+        assertThrows(IllegalArgumentException.class, () -> Pyramid.read(path.toString(), 0));
+    }
+
+    @Test
+    void rejectsCorruptedDirectories() throws Exception {
+        byte[] bgr = TestImages.bgr(TestImages.image(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR));
+        PIF pif = pif(bgr, PIF.RUN_LENGTH);
+        PIFFormater.addPyramid(pif);
+        byte[] block = pif.getExtensions().get(Pyramid.TAG);
+        // offset of the first level pointing past the block
+        ByteBuffer.wrap(block).order(ByteOrder.LITTLE_ENDIAN).putLong(1 + 8, block.length);
+        Path path = Files.write(directory.resolve("corrupted.pif"), PIFFormater.outputPIF(pif));
+        assertEquals("Pyramid level points outside of its block",
+                assertThrows(IOException.class, () -> Pyramid.read(path.toString(), 500)).getMessage());
+        block[0] = 0;
+        Files.write(path, PIFFormater.outputPIF(pif));
+        assertEquals("Pyramid directory is corrupted", assertThrows(IOException.class, () -> Pyramid.read(path.toString(), 500)).getMessage());
+    }
+
+    private Path write(byte[] bgr, byte imageType) throws IOException {
+        PIF pif = pif(bgr, imageType);
+        PIFFormater.addPyramid(pif);
+        return Files.write(directory.resolve("image.pif"), PIFFormater.outputPIF(pif));
+    }
+
+    private static PIF pif(byte[] bgr, byte imageType) {
+        PIF pif = PIFFormater.newPIF(WIDTH, HEIGHT, "AB", "pyramid", imageType);
+        pif.getContent().image = bgr;
+        return pif;
+    }
+
+    private static void assertLevel(byte[] expected, int width, int height, BufferedImage read) {
+        assertEquals(width, read.getWidth());
+        assertEquals(height, read.getHeight());
+        assertArrayEquals(expected, TestImages.bgr(read));
+    }
+
+    /**
+     * @return average of every 2x2 pixels, rounded, of an image of even width and height
+     */
+    private static byte[] halve(byte[] bgr, int width, int height) {
+        byte[] half = new byte[width / 2 * (height / 2) * 3];
+        for (int y = 0, i = 0; y < height; y += 2) {
+            for (int x = 0; x < width; x += 2) {
+                for (int k = 0; k < 3; k++) {
+                    int top = (y * width + x) * 3 + k, bottom = top + width * 3;
+                    half[i++] = (byte) (((bgr[top] & 0xFF) + (bgr[top + 3] & 0xFF) + (bgr[bottom] & 0xFF) + (bgr[bottom + 3] & 0xFF) + 2) >> 2);
+                }
+            }
+        }
+        return half;
+    }
+}
@@ -0,0 +1,175 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RawImagesTest {
+    private static final byte[] IMAGE_TYPES = {PIF.UNCOMPRESSED, PIF.RUN_LENGTH, PIF.TILED};
+    // odd width, so BMP rows are padded
+    private static final int WIDTH = 301, HEIGHT = 67;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void transcodesPPMBothWays() throws Exception {
+        byte[] bgr = TestImages.bgr(TestImages.image(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR));
+        byte[] ppm = ppm("P6\n# comment\n" + WIDTH + " " + HEIGHT + "\n255\n", bgr);
+        Path input = Files.write(directory.resolve("input.ppm"), ppm);
+        assertTrue(RawImages.canRead(input.toString()));
+        for (byte imageType : IMAGE_TYPES) {
+            Path pif = directory.resolve("image.pif");
+            RawImages.encode(input.toString(), pif.toString(), "AB", "raw", imageType, false, false);
+            assertArrayEquals(bgr, PIFFormater.inputPIF(Files.readAllBytes(pif)).getContent().image, "type " + imageType);
+            Path output = directory.resolve("output.ppm");
+            RawImages.decode(pif.toString(), output.toString());
+            assertArrayEquals(ppm("P6\n" + WIDTH + " " + HEIGHT + "\n255\n", bgr), Files.readAllBytes(output), "type " + imageType);
+        }
+    }
+
+    @Test
+    void transcodesBMPBothWays() throws Exception {
+        BufferedImage image = TestImages.image(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+        byte[] bgr = TestImages.bgr(image);
+        Path input = directory.resolve("input.bmp");
+        ImageIO.write(image, "bmp", input.toFile());
+        assertTrue(RawImages.canRead(input.toString()));
+        for (byte imageType : IMAGE_TYPES) {
+            Path pif = directory.resolve("image.pif");
+            RawImages.encode(input.toString(), pif.toString(), "AB", "raw", imageType, true, true);
+            assertArrayEquals(bgr, PIFFormater.inputPIF(Files.readAllBytes(pif)).getContent().image, "type " + imageType);
+            assertTrue(Checksums.verify(pif.toString()), "type " + imageType);
+            Path output = directory.resolve("output.bmp");
+            RawImages.decode(pif.toString(), output.toString());
+            assertArrayEquals(bgr, TestImages.bgr(ImageIO.read(output.toFile())), "type " + imageType);
+        }
+    }
+
+    @Test
+    void transcodesBatchesAndFrames() throws Exception {
+        Path input = Files.createDirectories(directory.resolve("in"));
+        BufferedImage first = TestImages.image(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+        BufferedImage second = TestImages.image(WIDTH, HEIGHT + 1, BufferedImage.TYPE_3BYTE_BGR);
+        byte[] firstBGR = TestImages.bgr(first), secondBGR = TestImages.bgr(second);
+        Files.write(input.resolve("a.ppm"), ppm("P6 " + WIDTH + " " + HEIGHT + " 255\n", firstBGR));
+        Files.write(input.resolve("b.ppm"), ppm("P6 " + WIDTH + " " + (HEIGHT + 1) + " 255\n", secondBGR));
+        ImageIO.write(first, "bmp", input.resolve("c.bmp").toFile());
+        Path output = directory.resolve("out");
+        Batch.encode(input.toString(), output.toString(), "AB", "raw", PIF.TILED, false, true);
+        for (String name : new String[]{"a", "b", "c"}) {
+            assertTrue(Checksums.verify(output.resolve(name + ".pif").toString()), name);
+        }
+        assertArrayEquals(secondBGR, PIFFormater.inputPIF(Files.readAllBytes(output.resolve("b.pif"))).getContent().image);
+
+        Path decoded = directory.resolve("decoded");
+        Batch.decode(output.toString(), decoded.toString(), "ppm");
+        assertArrayEquals(ppm("P6\n" + WIDTH + " " + HEIGHT + "\n255\n", firstBGR), Files.readAllBytes(decoded.resolve("a.ppm")));
+        assertArrayEquals(ppm("P6\n" + WIDTH + " " + (HEIGHT + 1) + "\n255\n", secondBGR), Files.readAllBytes(decoded.resolve("b.ppm")));
+        assertArrayEquals(ppm("P6\n" + WIDTH + " " + HEIGHT + "\n255\n", firstBGR), Files.readAllBytes(decoded.resolve("c.ppm")));
+        Batch.decode(output.toString(), decoded.toString(), "bmp");
+        assertArrayEquals(secondBGR, TestImages.bgr(ImageIO.read(decoded.resolve("b.bmp").toFile())));
+
+        byte[] bgr = new byte[firstBGR.length];
+        RawImages.read(input.resolve("c.bmp").toString(), bgr, 0);
+        assertArrayEquals(firstBGR, bgr);
+        assertArrayEquals(new int[]{WIDTH, HEIGHT + 1}, RawImages.readSize(input.resolve("b.ppm").toString()));
+        // b.ppm is skipped, its size differs
+        Path frames = directory.resolve("frames.pif");
+        Selector.frames(input + "/{a.ppm,b.ppm,c.bmp}", frames.toString(), "AB", "raw", 4);
+        try (Frames.Reader reader = new Frames.Reader(FileIO.openRead(frames.toString()))) {
+            assertEquals(2, reader.getCount());
+            for (int i = 0; i < 2; i++) {
+                reader.readFrame(i, bgr, 0);
+                assertArrayEquals(firstBGR, bgr, "frame " + i);
+            }
+        }
+    }
+
+    @Test
+    void readsTopDownBMP() throws Exception {
+        byte[] bgr = TestImages.bgr(TestImages.image(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR));
+        int stride = (WIDTH * 3 + 3) & ~3;
+        ByteBuffer bmp = ByteBuffer.allocate(54 + stride * HEIGHT).order(ByteOrder.LITTLE_ENDIAN);
+        bmp.put((byte) 'B').put((byte) 'M').putInt(bmp.capacity()).putInt(0).putInt(54)
+                .putInt(40).putInt(WIDTH).putInt(-HEIGHT).putShort((short) 1).putShort((short) 24).putInt(0);
+        for (int y = 0; y < HEIGHT; y++) {
+            bmp.put(54 + y * stride, bgr, y * WIDTH * 3, WIDTH * 3);
+        }
+        Path input = Files.write(directory.resolve("top-down.bmp"), bmp.array());
+        Path pif = directory.resolve("image.pif");
+        RawImages.encode(input.toString(), pif.toString(), "AB", "raw", PIF.RUN_LENGTH, false, false);
+        assertArrayEquals(bgr, PIFFormater.inputPIF(Files.readAllBytes(pif)).getContent().image);
+    }
+
+    @Test
+    void scalesPPMSamples() throws Exception {
+        // RGB samples up to 15
+        ByteArrayOutputStream ppm = new ByteArrayOutputStream();
+        ppm.writeBytes("P6 2 1 15 ".getBytes(StandardCharsets.US_ASCII));
+        ppm.writeBytes(new byte[]{0, 5, 15, 15, 0, 5});
+        Path input = Files.write(directory.resolve("input.ppm"), ppm.toByteArray());
+        Path pif = directory.resolve("image.pif");
+        RawImages.encode(input.toString(), pif.toString(), "AB", "raw", PIF.UNCOMPRESSED, false, false);
+        assertArrayEquals(new byte[]{(byte) 255, 85, 0, 85, 0, (byte) 255}, PIFFormater.inputPIF(Files.readAllBytes(pif)).getContent().image);
+    }
+
+    @Test
+    void rejectsOtherAndTruncatedFiles() throws Exception {
+        Path sixteenBit = Files.write(directory.resolve("deep.ppm"), "P6 2 1 65535 \0\0\0\0\0\0\0\0\0\0\0\0".getBytes(StandardCharsets.US_ASCII));
+        Path text = Files.write(directory.resolve("text.ppm"), "P3 1 1 255 0 0 0".getBytes(StandardCharsets.US_ASCII));
+        Path png = directory.resolve("image.bmp.png");
+        ImageIO.write(TestImages.image(4, 4, BufferedImage.TYPE_3BYTE_BGR), "png", png.toFile());
+        for (Path path : new Path[]{sixteenBit, text, png}) {
+            assertFalse(RawImages.canRead(path.toString()), path.toString());
+        }
+        IOException e = assertThrows(IOException.class,
+                () -> RawImages.encode(sixteenBit.toString(), directory.resolve("deep.pif").toString(), "AB", "raw", PIF.UNCOMPRESSED, false, false));
+        assertEquals("Only 24-bit uncompressed BMP and binary PPM are transcoded directly", e.getMessage());
+
+        byte[] ppm = ppm("P6 " + WIDTH + " " + HEIGHT + " 255\n", new byte[WIDTH * HEIGHT * 3]);
+        Path truncated = Files.write(directory.resolve("truncated.ppm"), Arrays.copyOf(ppm, ppm.length - 1));
+        Path output = directory.resolve("truncated.pif");
+        assertThrows(EOFException.class,
+                () -> RawImages.encode(truncated.toString(), output.toString(), "AB", "raw", PIF.UNCOMPRESSED, false, false));
+        assertFalse(Files.exists(output));
+    }
+
+    @Test
+    void leavesNoOutputWhenThePIFIsTruncated() throws Exception {
+        byte[] bytes = PIFFormater.outputPIF(PIFFormater.toPIF(TestImages.image(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR), "AB", "raw", PIF.TILED));
+        Path pif = Files.write(directory.resolve("truncated.pif"), Arrays.copyOf(bytes, bytes.length / 2));
+        Path output = directory.resolve("output.bmp");
+        assertThrows(IOException.class, () -> RawImages.decode(pif.toString(), output.toString()));
+        assertFalse(Files.exists(output));
+    }
+
+    /**
+     * @return PPM of the header followed by the pixels in RGB order
+     */
+    private static byte[] ppm(String header, byte[] bgr) {
+        ByteArrayOutputStream ppm = new ByteArrayOutputStream();
+        ppm.writeBytes(header.getBytes(StandardCharsets.US_ASCII));
+        for (int i = 0; i < bgr.length; i += 3) {
+            ppm.write(bgr[i + 2]);
+            ppm.write(bgr[i + 1]);
+            ppm.write(bgr[i]);
+        }
+        return ppm.toByteArray();
+    }
+}
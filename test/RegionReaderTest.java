@@ -0,0 +1,75 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RegionReaderTest {
+    private static final byte[] IMAGE_TYPES = {PIF.UNCOMPRESSED, PIF.RUN_LENGTH, PIF.TILED};
+    private static final int WIDTH = 600, HEIGHT = 300;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsRegionsAndSubsamples() throws Exception {
+        BufferedImage image = TestImages.image(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+        byte[] bgr = TestImages.bgr(image);
+        // whole image, one pixel, across tile edges, and subsampled from an odd corner
+        int[][] regions = {{0, 0, -1, -1, 1}, {599, 299, 1, 1, 1}, {250, 200, 20, 90, 1}, {3, 7, 500, 290, 3}, {0, 0, -1, -1, 256}};
+        for (byte imageType : IMAGE_TYPES) {
+            Path path = write(image, imageType);
+            for (int[] r : regions) {
+                String name = "type " + imageType + " region " + Arrays.toString(r);
+                BufferedImage read = RegionReader.read(path.toString(), r[0], r[1], r[2], r[3], r[4]);
+                int width = r[2] < 0 ? WIDTH - r[0] : r[2], height = r[3] < 0 ? HEIGHT - r[1] : r[3];
+                assertEquals((width + r[4] - 1) / r[4], read.getWidth(), name);
+                assertEquals((height + r[4] - 1) / r[4], read.getHeight(), name);
+                assertArrayEquals(expected(bgr, r[0], r[1], read.getWidth(), read.getHeight(), r[4]), TestImages.bgr(read), name);
+            }
+        }
+    }
+
+    @Test
+    void rejectsRegionsOutsideTheImage() throws Exception {
+        Path path = write(TestImages.image(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR), PIF.UNCOMPRESSED);
+        int[][] regions = {{-1, 0, 10, 10, 1}, {0, 0, 601, 10, 1}, {590, 0, 11, 10, 1}, {0, 300, -1, -1, 1}, {0, 0, 0, 10, 1}, {0, 0, 10, 10, 0}};
+        for (int[] r : regions) {
+            assertThrows(IllegalArgumentException.class, () -> RegionReader.read(path.toString(), r[0], r[1], r[2], r[3], r[4]),
+                    Arrays.toString(r));
+        }
+    }
+
+    @Test
+    void rejectsTruncatedFiles() throws Exception {
+        for (byte imageType : IMAGE_TYPES) {
+            byte[] bytes = Files.readAllBytes(write(TestImages.image(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR), imageType));
+            Path truncated = Files.write(directory.resolve("truncated.pif"), Arrays.copyOf(bytes, bytes.length / 2));
+            assertThrows(IOException.class, () -> RegionReader.read(truncated.toString(), 0, 0, -1, -1, 1), "type " + imageType);
+        }
+    }
+
+    private Path write(BufferedImage image, byte imageType) throws IOException {
+        return Files.write(directory.resolve("image.pif"), PIFFormater.outputPIF(PIFFormater.toPIF(image, "AB", "region", imageType)));
+    }
+
+    /**
+     * @return every subsample-th pixel of every subsample-th row from the corner
+     */
+    private static byte[] expected(byte[] bgr, int x, int y, int width, int height, int subsample) {
+        byte[] expected = new byte[width * height * 3];
+        for (int j = 0; j < height; j++) {
+            for (int i = 0; i < width; i++) {
+                System.arraycopy(bgr, ((y + j * subsample) * WIDTH + x + i * subsample) * 3, expected, (j * width + i) * 3, 3);
+            }
+        }
+        return expected;
+    }
+}
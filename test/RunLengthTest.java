@@ -0,0 +1,106 @@
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RunLengthTest {
+    @Test
+    void decodesWhatItEncodes() throws Exception {
+        Random random = new Random(10);
+        for (int width : new int[]{1, 2, 127, 128, 129, 300, 1000}) {
+            byte[][] rows = {
+                    new byte[width * 3],
+                    noise(random, width),
+                    // runs and literals of every length around the packet limit
+                    runs(random, width)
+            };
+            for (byte[] row : rows) {
+                byte[] packets = new byte[RunLength.maxRowLength(width)];
+                int length = RunLength.encodeRow(row, 0, width, packets, 0);
+                assertTrue(length <= packets.length, "width " + width);
+                byte[] decoded = new byte[width * 3];
+                ByteBuffer buffer = ByteBuffer.wrap(packets, 0, length);
+                RunLength.decodeRow(buffer, width, decoded, 0);
+                assertArrayEquals(row, decoded, "width " + width);
+                assertEquals(0, buffer.remaining(), "width " + width);
+            }
+        }
+    }
+
+    @Test
+    void compressesFlatRows() {
+        byte[] packets = new byte[RunLength.maxRowLength(1000)];
+        assertEquals((1000 + 127) / 128 * 4, RunLength.encodeRow(new byte[1000 * 3], 0, 1000, packets, 0));
+    }
+
+    @Test
+    void roundTripsWholeFiles() throws Exception {
+        BufferedImage image = TestImages.image(301, 67, BufferedImage.TYPE_3BYTE_BGR);
+        byte[] bytes = PIFFormater.outputPIF(PIFFormater.toPIF(image, "AB", "rle", PIF.RUN_LENGTH));
+        assertArrayEquals(TestImages.bgr(image), PIFFormater.inputPIF(bytes).getContent().image);
+        try (PIFReader reader = new PIFReader(new ByteArrayInputStream(bytes))) {
+            assertArrayEquals(TestImages.bgr(image), TestImages.bgr(PIFFormater.toRegularImage(reader)));
+        }
+    }
+
+    @Test
+    void rejectsPacketsCrossingTheRow() {
+        // a run of 128 pixels in a row of 100
+        ByteBuffer packets = ByteBuffer.wrap(new byte[]{(byte) 0xFF, 1, 2, 3});
+        IOException e = assertThrows(IOException.class, () -> RunLength.decodeRow(packets, 100, new byte[300], 0));
+        assertEquals("Run-length packet crosses the end of the row", e.getMessage());
+    }
+
+    @Test
+    void rejectsTruncatedPackets() {
+        byte[] row = noise(new Random(3), 50);
+        byte[] packets = new byte[RunLength.maxRowLength(50)];
+        int length = RunLength.encodeRow(row, 0, 50, packets, 0);
+        ByteBuffer truncated = ByteBuffer.wrap(Arrays.copyOf(packets, length - 1));
+        assertThrows(BufferUnderflowException.class, () -> RunLength.decodeRow(truncated, 50, new byte[150], 0));
+    }
+
+    @Test
+    void rejectsImagesWhosePacketsCantBeHeld() {
+        // the pixels fit in an array, but the packets of their worst case don't
+        assertEquals(2_147_400_000, PIFFormater.imageLength(40_000, 17_895));
+        PIF pif = PIFFormater.newPIF(40_000, 17_895, "AB", "large", PIF.RUN_LENGTH);
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> PIFFormater.encodePayload(pif));
+        assertEquals("Image of 40000x17895 pixels is too large to be held in memory, stream it, or decode a region or a thumbnail of it",
+                e.getMessage());
+    }
+
+    private static byte[] noise(Random random, int width) {
+        byte[] row = new byte[width * 3];
+        random.nextBytes(row);
+        return row;
+    }
+
+    private static byte[] runs(Random random, int width) {
+        byte[] row = new byte[width * 3];
+        int[] lengths = {1, 2, 127, 128, 129, 3};
+        for (int x = 0, i = 0; x < width; i++) {
+            int length = Math.min(lengths[i % lengths.length], width - x);
+            boolean run = i % 2 == 0;
+            byte[] pixel = new byte[3];
+            random.nextBytes(pixel);
+            for (int j = 0; j < length; j++, x++) {
+                if (!run) {
+                    random.nextBytes(pixel);
+                }
+                System.arraycopy(pixel, 0, row, x * 3, 3);
+            }
+        }
+        return row;
+    }
+}
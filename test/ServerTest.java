@@ -0,0 +1,174 @@
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ServerTest {
+    @TempDir
+    Path directory;
+    private String home;
+
+    @BeforeEach
+    void moveHome() throws IOException {
+        // token files go to the temporary directory, never to the real home of the user
+        home = System.getProperty("user.home");
+        System.setProperty("user.home", Files.createDirectories(directory.resolve("home")).toString());
+    }
+
+    @AfterEach
+    void restoreHome() {
+        System.setProperty("user.home", home);
+    }
+
+    @Test
+    void rejectsRequestsWithoutTheToken() throws Exception {
+        int port = Server.serve(0, 1);
+        String token = Files.readString(Client.tokenPath(port), StandardCharsets.US_ASCII);
+        try {
+            byte[] pif = PIFFormater.outputPIF(PIFFormater.toPIF(TestImages.image(8, 8, BufferedImage.TYPE_3BYTE_BGR), "AB", "daemon"));
+            for (String path : new String[]{"/encode", "/decode?format=png", "/metadata", "/stop"}) {
+                assertEquals(403, post(port, path, null, pif).getResponseCode(), path);
+                assertEquals(403, post(port, path, token.replace(token.charAt(0), token.charAt(0) == 'a' ? 'b' : 'a'), pif).getResponseCode(), path);
+            }
+            HttpURLConnection metadata = post(port, "/metadata", token, pif);
+            assertEquals(200, metadata.getResponseCode());
+            assertTrue(new String(metadata.getInputStream().readAllBytes(), StandardCharsets.UTF_8).contains("8"));
+            // the ping proves the token without revealing it
+            HttpURLConnection ping = (HttpURLConnection) new URL("http", "127.0.0.1", port, "/ping?nonce=abc").openConnection();
+            assertEquals(Client.proof(token, "abc"), new String(ping.getInputStream().readAllBytes(), StandardCharsets.US_ASCII));
+        } finally {
+            stop(port, token);
+        }
+    }
+
+    @Test
+    void roundTripsThroughTheDaemonAsLocally() throws Exception {
+        int port = Server.serve(0, 2);
+        String token = Files.readString(Client.tokenPath(port), StandardCharsets.US_ASCII);
+        try {
+            BufferedImage image = TestImages.image(301, 67, BufferedImage.TYPE_3BYTE_BGR);
+            Path png = directory.resolve("image.png");
+            ImageIO.write(image, "png", png.toFile());
+            for (String compression : new String[]{"none", "rle", "tiled"}) {
+                Path remote = directory.resolve("remote-" + compression + ".pif");
+                assertTrue(Client.forward(new String[]{"encode", "-i", png.toString(), "-o", remote.toString(),
+                        "--signature", "daemon", "--compression", compression, "--checksum"}, port), compression);
+                Path local = directory.resolve("local-" + compression + ".pif");
+                Selector.encode(png.toString(), local.toString(), "", "daemon", Main.imageType(compression), false, true);
+                // the trailers may differ in their second, everything else is the same
+                byte[] remoteBytes = Files.readAllBytes(remote), localBytes = Files.readAllBytes(local);
+                assertEquals(localBytes.length, remoteBytes.length, compression);
+                PIF remotePIF = PIFFormater.inputPIF(remoteBytes), localPIF = PIFFormater.inputPIF(localBytes);
+                assertArrayEquals(localPIF.getContent().image, remotePIF.getContent().image, compression);
+                assertEquals(PIFMetadata.of(localPIF).toString().replaceAll("\\d+:\\d+:\\d+", ""),
+                        PIFMetadata.of(remotePIF).toString().replaceAll("\\d+:\\d+:\\d+", ""), compression);
+                assertTrue(Checksums.verify(remote.toString()), compression);
+
+                Path decoded = directory.resolve("decoded-" + compression + ".png");
+                assertTrue(Client.forward(new String[]{"decode", "-i", remote.toString(), "-o", decoded.toString()}, port), compression);
+                assertArrayEquals(TestImages.bgr(image), TestImages.bgr(ImageIO.read(decoded.toFile())), compression);
+            }
+            // the daemon refuses what isn't an image, the command runs locally
+            Path text = Files.writeString(directory.resolve("text.png"), "not an image");
+            assertFalse(Client.forward(new String[]{"encode", "-i", text.toString(), "-o", directory.resolve("text.pif").toString()}, port));
+        } finally {
+            stop(port, token);
+        }
+    }
+
+    @Test
+    void runsLocallyWhenThePingIsWrong() throws Exception {
+        List<String> requests = new ArrayList<>();
+        HttpServer impostor = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        impostor.createContext("/", exchange -> {
+            synchronized (requests) {
+                requests.add(exchange.getRequestURI().getPath() + " " + exchange.getRequestHeaders().getFirst(Client.TOKEN_HEADER));
+            }
+            byte[] answer = Client.proof("not the token", "anything").getBytes(StandardCharsets.US_ASCII);
+            exchange.sendResponseHeaders(200, answer.length);
+            exchange.getResponseBody().write(answer);
+            exchange.close();
+        });
+        impostor.start();
+        try {
+            int port = impostor.getAddress().getPort();
+            writeToken(port, "secret");
+            Path png = directory.resolve("image.png");
+            ImageIO.write(TestImages.image(8, 8, BufferedImage.TYPE_3BYTE_BGR), "png", png.toFile());
+            assertFalse(Client.forward(new String[]{"encode", "-i", png.toString(), "-o", directory.resolve("image.pif").toString()}, port));
+            // only the nonce was sent, never the token or the image
+            assertEquals(List.of("/ping null"), requests);
+        } finally {
+            impostor.stop(0);
+        }
+    }
+
+    @Test
+    void runsLocallyWhenThePortNeverAnswers() throws Exception {
+        try (ServerSocket silent = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            List<Socket> accepted = new ArrayList<>();
+            Thread acceptor = new Thread(() -> {
+                try {
+                    while (true) {
+                        accepted.add(silent.accept());
+                    }
+                } catch (IOException ignored) {
+                    // closed at the end of the test
+                }
+            });
+            acceptor.start();
+            writeToken(silent.getLocalPort(), "secret");
+            Path png = directory.resolve("image.png");
+            ImageIO.write(TestImages.image(8, 8, BufferedImage.TYPE_3BYTE_BGR), "png", png.toFile());
+            assertTimeoutPreemptively(Duration.ofSeconds(10), () -> assertFalse(Client.forward(new String[]{"encode", "-i", png.toString(),
+                    "-o", directory.resolve("image.pif").toString()}, silent.getLocalPort())));
+        }
+    }
+
+    private void writeToken(int port, String token) throws IOException {
+        Path path = Client.tokenPath(port);
+        Files.createDirectories(path.getParent());
+        Files.writeString(path, token, StandardCharsets.US_ASCII);
+    }
+
+    private static HttpURLConnection post(int port, String path, String token, byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http", "127.0.0.1", port, path).openConnection();
+        connection.setRequestMethod("POST");
+        if (token != null) {
+            connection.setRequestProperty(Client.TOKEN_HEADER, token);
+        }
+        connection.setDoOutput(true);
+        try (OutputStream request = connection.getOutputStream()) {
+            request.write(body);
+        }
+        return connection;
+    }
+
+    private static void stop(int port, String token) throws IOException {
+        assertEquals(200, post(port, "/stop", token, new byte[0]).getResponseCode());
+    }
+}
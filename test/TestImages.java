@@ -0,0 +1,85 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Random;
+
+/**
+ * Images and helpers shared by the tests
+ */
+final class TestImages {
+    /**
+     * Code run again and again by a test
+     */
+    interface Operation {
+        void run() throws Exception;
+    }
+
+    private TestImages() {
+    }
+
+    /**
+     * @return image of stripes, flat runs and noise, so every compression meets runs and literals
+     */
+    static BufferedImage image(int width, int height, int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Random random = new Random(width * 31L + height);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                row[x] = x / 32 % 2 == 0 ? 0xFF336699 : x % 7 == 0 ? 0xFF000000 | y * 0x010203 : random.nextInt() | 0xFF000000;
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return image;
+    }
+
+    /**
+     * @return 24-bit BGR pixels of the image, top row first
+     */
+    static byte[] bgr(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+            return ((DataBufferByte) image.getRaster().getDataBuffer()).getData().clone();
+        }
+        byte[] bgr = new byte[image.getWidth() * image.getHeight() * 3];
+        int i = 0;
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int rgb = image.getRGB(x, y);
+                bgr[i++] = (byte) rgb;
+                bgr[i++] = (byte) (rgb >> 8);
+                bgr[i++] = (byte) (rgb >> 16);
+            }
+        }
+        return bgr;
+    }
+
+    /**
+     * @return what the operation prints
+     */
+    static String printed(Runnable operation) {
+        PrintStream out = System.out;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(printed, true, StandardCharsets.UTF_8));
+        try {
+            operation.run();
+        } finally {
+            System.setOut(out);
+        }
+        return printed.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return date and time of the trailer
+     */
+    static LocalDateTime dateAndTime(PIF pif) {
+        byte[] fields = pif.getContent().dateAndTime;
+        int[] values = new int[6];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = fields[i * 2] & 0xFF | (fields[i * 2 + 1] & 0xFF) << 8;
+        }
+        return LocalDateTime.of(values[2], values[0], values[1], values[3], values[4], values[5]);
+    }
+}
@@ -0,0 +1,73 @@
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TilesTest {
+    @Test
+    void decodesWhatItEncodes() throws Exception {
+        // edges of partial tiles, a single tile and tiles of one pixel
+        int[][] sizes = {{300, 70, 64}, {64, 64, 64}, {5, 3, 1}, {17, 200, 256}};
+        for (int[] size : sizes) {
+            int width = size[0], height = size[1], tileSize = size[2];
+            byte[] bgr = TestImages.bgr(TestImages.image(width, height, BufferedImage.TYPE_3BYTE_BGR));
+            ByteBuffer payload = Tiles.encode(bgr, width, height, tileSize);
+            assertArrayEquals(bgr, Tiles.decode(payload, width, height), width + "x" + height + " in " + tileSize);
+        }
+    }
+
+    @Test
+    void decodesSingleTiles() throws Exception {
+        byte[] bgr = TestImages.bgr(TestImages.image(300, 70, BufferedImage.TYPE_3BYTE_BGR));
+        ByteBuffer payload = Tiles.encode(bgr, 300, 70, 64);
+        // the last tile of the second row is 44x6 pixels
+        byte[] tile = Tiles.decodeTile(payload, 300, 70, 4, 1);
+        assertEquals(44 * 6 * 3, tile.length);
+        for (int y = 0; y < 6; y++) {
+            for (int i = 0; i < 44 * 3; i++) {
+                assertEquals(bgr[((64 + y) * 300 + 256) * 3 + i], tile[y * 44 * 3 + i]);
+            }
+        }
+        assertThrows(IndexOutOfBoundsException.class, () -> Tiles.decodeTile(payload, 300, 70, 5, 0));
+    }
+
+    @Test
+    void roundTripsWholeFiles() throws Exception {
+        BufferedImage image = TestImages.image(600, 300, BufferedImage.TYPE_3BYTE_BGR);
+        byte[] bytes = PIFFormater.outputPIF(PIFFormater.toPIF(image, "AB", "tiled", PIF.TILED));
+        assertArrayEquals(TestImages.bgr(image), PIFFormater.inputPIF(bytes).getContent().image);
+        try (PIFReader reader = new PIFReader(new ByteArrayInputStream(bytes))) {
+            assertArrayEquals(TestImages.bgr(image), TestImages.bgr(PIFFormater.toRegularImage(reader)));
+        }
+    }
+
+    @Test
+    void rejectsCorruptedTiles() {
+        byte[] bgr = TestImages.bgr(TestImages.image(100, 100, BufferedImage.TYPE_3BYTE_BGR));
+        ByteBuffer payload = Tiles.encode(bgr, 100, 100, 64);
+        // the first tile starts after the tile size and its 4 bytes length
+        payload.put(2 + 4 + 10, (byte) (payload.get(2 + 4 + 10) ^ 0x55));
+        payload.put(2 + 4 + 11, (byte) (payload.get(2 + 4 + 11) ^ 0x55));
+        assertThrows(IOException.class, () -> Tiles.decode(payload, 100, 100));
+    }
+
+    @Test
+    void rejectsBrokenIndexes() {
+        byte[] bgr = TestImages.bgr(TestImages.image(100, 100, BufferedImage.TYPE_3BYTE_BGR));
+        ByteBuffer payload = Tiles.encode(bgr, 100, 100, 64).order(ByteOrder.LITTLE_ENDIAN);
+        int lastEntry = payload.limit() - Tiles.INDEX_ENTRY_LENGTH;
+        payload.putLong(lastEntry, payload.limit());
+        IOException e = assertThrows(IOException.class, () -> Tiles.decode(payload, 100, 100));
+        assertEquals("Tile index points outside of the tiles", e.getMessage());
+        assertThrows(EOFException.class, () -> Tiles.decode(ByteBuffer.wrap(new byte[]{64, 0, 0, 0}), 100, 100));
+        assertEquals("Tile size is 0", assertThrows(IOException.class, () -> Tiles.decode(ByteBuffer.wrap(new byte[2]), 100, 100)).getMessage());
+    }
+}